@@ -3,7 +3,9 @@ package ru.skypro.homework.component;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import ru.skypro.homework.exception.UserUnauthorizedException;
 import ru.skypro.homework.model.Role;
+import ru.skypro.homework.security.AuthenticatedUser;
 
 @Component
 public class AuthenticationComponent implements IAuthenticationFacade {
@@ -12,6 +14,20 @@ public class AuthenticationComponent implements IAuthenticationFacade {
         return SecurityContextHolder.getContext().getAuthentication();
     }
 
+    /**
+     * The authenticated user, as put into the security context at authentication time
+     *
+     * @return user id, name, role and avatar id
+     * @throws UserUnauthorizedException if the request is not authenticated
+     */
+    public AuthenticatedUser getUser() {
+        Authentication auth = getAuth();
+        if (auth == null || !(auth.getPrincipal() instanceof AuthenticatedUser)) {
+            throw new UserUnauthorizedException("User not found");
+        }
+        return (AuthenticatedUser) auth.getPrincipal();
+    }
+
     public boolean check(String username) {
         if (getAuth() == null) {
             return true;
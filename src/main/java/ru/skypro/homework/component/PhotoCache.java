@@ -0,0 +1,205 @@
+package ru.skypro.homework.component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.model.PhotoSize;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contents of frequently downloaded photo files, in direct buffers outside the heap.
+ * <p>
+ * Bounded by the total size of the files, {@code ads.photos.cache.max-size}, with Caffeine's
+ * W-TinyLFU deciding which files stay. Files larger than {@code ads.photos.cache.max-entry-size}
+ * are never cached. A miss is not loaded on the request path, which serves the file from disk:
+ * misses are counted, and a file missed {@code ads.photos.cache.admit-after} times is read into
+ * the cache by a background loader, so files downloaded once never take direct memory.
+ * An entry remembers the size and modification time of the file it was read from
+ * and is only served while they still match, so a file replaced behind the cache's back is read again.
+ */
+@Component
+@Slf4j
+public class PhotoCache implements MeterBinder {
+    /**
+     * Files whose misses are counted, the least frequently missed are forgotten first
+     */
+    private static final int TRACKED_MISSES = 10_000;
+    private static final int LOADER_QUEUE_CAPACITY = 64;
+
+    private final long maxEntrySize;
+    private final int admitAfter;
+    private final Cache<Path, Entry> cache;
+    private final Cache<Path, AtomicInteger> misses;
+    private final Set<Path> loading = ConcurrentHashMap.newKeySet();
+    private final Executor loader;
+
+    @Autowired
+    public PhotoCache(@Value("${ads.photos.cache.max-size}") DataSize maxSize,
+                      @Value("${ads.photos.cache.max-entry-size}") DataSize maxEntrySize,
+                      @Value("${ads.photos.cache.admit-after}") int admitAfter) {
+        this(maxSize, maxEntrySize, admitAfter, new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(LOADER_QUEUE_CAPACITY), task -> {
+            Thread thread = new Thread(task, "photo-cache-loader");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    PhotoCache(DataSize maxSize, DataSize maxEntrySize, int admitAfter, Executor loader) {
+        this.maxEntrySize = maxEntrySize.toBytes();
+        this.admitAfter = Math.max(1, admitAfter);
+        this.loader = loader;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((Path path, Entry entry) -> entry.content.capacity())
+                .recordStats()
+                .build();
+        this.misses = Caffeine.newBuilder()
+                .maximumSize(TRACKED_MISSES)
+                .build();
+    }
+
+    /**
+     * Read-only contents of the file, or {@code null} if it is not cached (yet) and is to be read from disk
+     *
+     * @param path       photo or variant file
+     * @param attributes attributes of the file as it is being served
+     */
+    public ByteBuffer get(Path path, BasicFileAttributes attributes) {
+        if (attributes.size() > maxEntrySize) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(path);
+        if (entry != null) {
+            if (entry.matches(attributes)) {
+                return entry.content.asReadOnlyBuffer();
+            }
+            cache.asMap().remove(path, entry);
+        }
+        if (misses.get(path, key -> new AtomicInteger()).incrementAndGet() >= admitAfter) {
+            misses.invalidate(path);
+            admit(path, attributes);
+        }
+        return null;
+    }
+
+    /**
+     * Drop the file and the size variants of the photo, sharded or not
+     */
+    public void invalidate(Photo photo) {
+        for (PhotoSize size : PhotoSize.values()) {
+            invalidate(photo.getVariantPath(size));
+            invalidate(photo.getUnshardedPath(size));
+        }
+    }
+
+    public void invalidate(Path path) {
+        cache.invalidate(path);
+        misses.invalidate(path);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (loader instanceof ExecutorService) {
+            ((ExecutorService) loader).shutdownNow();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "photos");
+        Gauge.builder("ads.photos.cache.hit-ratio", cache, c -> c.stats().hitRate())
+                .description("Share of photo downloads served from memory")
+                .register(registry);
+        Gauge.builder("ads.photos.cache.resident", cache,
+                        c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+                .description("Photo bytes held in direct buffers")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Load the file in the background, unless it is being loaded already or the loader is busy
+     */
+    private void admit(Path path, BasicFileAttributes attributes) {
+        if (!loading.add(path)) {
+            return;
+        }
+        try {
+            loader.execute(() -> {
+                try {
+                    Entry entry = load(path, attributes);
+                    if (entry != null) {
+                        cache.put(path, entry);
+                    }
+                } catch (IOException e) {
+                    log.debug("Failed to cache " + path, e);
+                } finally {
+                    loading.remove(path);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(path);
+        }
+    }
+
+    /**
+     * Read the whole file, or {@code null} if it no longer has the expected size
+     */
+    private static Entry load(Path path, BasicFileAttributes attributes) throws IOException {
+        ByteBuffer content = ByteBuffer.allocateDirect((int) attributes.size());
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (content.hasRemaining()) {
+                if (file.read(content) == -1) {
+                    return null;
+                }
+            }
+            if (file.size() != attributes.size()) {
+                return null;
+            }
+        }
+        return new Entry(content.flip(), attributes.size(), attributes.lastModifiedTime());
+    }
+
+    private static class Entry {
+        private final ByteBuffer content;
+        private final long size;
+        private final FileTime lastModified;
+
+        private Entry(ByteBuffer content, long size, FileTime lastModified) {
+            this.content = content;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime());
+        }
+    }
+}
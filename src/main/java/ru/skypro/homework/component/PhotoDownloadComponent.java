@@ -0,0 +1,185 @@
+package ru.skypro.homework.component;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.model.PhotoSize;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes photo files to the response without copying them through the heap.
+ * <p>
+ * Serves hot files from the {@link PhotoCache}, others with Tomcat sendfile when the connector
+ * supports it, otherwise {@link FileChannel#transferTo}.
+ * Answers conditional requests from an entity tag and the modification time of the file,
+ * a single {@code Range} (honouring {@code If-Range}) with 206, and {@code HEAD} without reading the file.
+ * A requested size variant that has not been generated yet is answered with the original.
+ */
+@Component
+public class PhotoDownloadComponent {
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final Duration maxAge;
+    private final PhotoCache photoCache;
+    private final PhotoStorage photoStorage;
+
+    public PhotoDownloadComponent(@Value("${ads.photos.cache-max-age}") Duration maxAge,
+                                  PhotoCache photoCache,
+                                  PhotoStorage photoStorage) {
+        this.maxAge = maxAge;
+        this.photoCache = photoCache;
+        this.photoStorage = photoStorage;
+    }
+
+    /**
+     * Send a photo anyone may cache
+     */
+    public void send(Photo photo, PhotoSize size,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        send(photo, size, CacheControl.maxAge(maxAge).cachePublic(), request, response);
+    }
+
+    /**
+     * Send a photo only the requesting user's client may cache
+     */
+    public void sendPrivate(Photo photo, PhotoSize size,
+                            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        send(photo, size, CacheControl.maxAge(maxAge).cachePrivate(), request, response);
+    }
+
+    /**
+     * Send the whole photo without caching or conditional headers, e.g. as the answer to an upload
+     */
+    public void sendContent(Photo photo, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path path = photoStorage.locate(photo, PhotoSize.ORIGINAL);
+        long length = Files.size(path);
+        response.setContentType(photo.getFileType());
+        response.setContentLengthLong(length);
+        transfer(path, 0, length, request, response);
+    }
+
+    private void send(Photo photo, PhotoSize size, CacheControl cacheControl,
+                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path path = size != PhotoSize.ORIGINAL ? photoStorage.find(photo, size) : null;
+        String contentType = photo.getFileType();
+        String variant = "";
+        if (path != null) {
+            contentType = "image/" + photo.getVariantExtension();
+            variant = "-" + size.name().toLowerCase(Locale.ROOT);
+        } else {
+            path = photoStorage.locate(photo, PhotoSize.ORIGINAL);
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long length = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis() / 1000 * 1000;
+        String eTag = "\"" + photo.getId() + variant + "-" + Long.toHexString(length)
+                + "-" + Long.toHexString(lastModified) + "\"";
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (new ServletWebRequest(request, response).checkNotModified(eTag, lastModified)) {
+            return;
+        }
+        response.setContentType(contentType);
+
+        long start = 0;
+        long end = length;
+        HttpRange range = range(request, eTag, lastModified);
+        if (range != null) {
+            if (length == 0 || range.getRangeStart(length) >= length) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            start = range.getRangeStart(length);
+            end = range.getRangeEnd(length) + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+        }
+        response.setContentLengthLong(end - start);
+        if (HttpMethod.HEAD.matches(request.getMethod()) || start == end) {
+            return;
+        }
+        ByteBuffer cached = photoCache.get(path, attributes);
+        if (cached != null) {
+            Channels.newChannel(response.getOutputStream()).write(cached.position((int) start).limit((int) end));
+        } else {
+            transfer(path, start, end, request, response);
+        }
+    }
+
+    private void transfer(Path path, long start, long end,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (start == end) {
+            return;
+        }
+        photoStorage.recordRead(path, end - start);
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            for (long position = start; position < end; ) {
+                position += file.transferTo(position, end - position, out);
+            }
+        }
+    }
+
+    /**
+     * The single requested range, or {@code null} to send the whole file: no or malformed {@code Range},
+     * several ranges, or an {@code If-Range} that no longer matches the file
+     */
+    private static HttpRange range(HttpServletRequest request, String eTag, long lastModified) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(eTag)) {
+            long date = parseDate(request);
+            if (date == -1 || date != lastModified) {
+                return null;
+            }
+        }
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(header);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return ranges.size() == 1 ? ranges.get(0) : null;
+    }
+
+    private static long parseDate(HttpServletRequest request) {
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ru.skypro.homework.component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs photo file operations staged by a transaction once it has committed, so that no disk I/O
+ * happens while a transaction holds a pooled connection and row locks.
+ * <p>
+ * Operations run on {@code ads.photos.io.workers} single threads, each with a queue of
+ * {@code ads.photos.io.queue-capacity} operations; a full queue makes the committing thread wait.
+ * Operations on the same key, e.g. the content hash of a photo, go to the same thread and run in
+ * the order they were queued. An operation is queued after its transaction has completed, after the
+ * other commit callbacks, so a later transaction may commit and queue an operation on the same key
+ * first: an operation that deletes a file must check that the file is still unused when it runs.
+ * If the transaction rolls back, or the operation fails, its compensation runs instead. Outside a
+ * transaction an operation is queued right away.
+ */
+@Component
+@Slf4j
+public class PhotoFileOperations implements MeterBinder {
+    private final List<ThreadPoolExecutor> executors = new ArrayList<>();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong compensated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public PhotoFileOperations(@Value("${ads.photos.io.workers}") int workers,
+                               @Value("${ads.photos.io.queue-capacity}") int queueCapacity) {
+        for (int i = 0; i < workers; i++) {
+            String name = "photo-io-" + (i + 1);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), task -> {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.prestartAllCoreThreads();
+            executors.add(executor);
+        }
+    }
+
+    /**
+     * File operation that may fail with an I/O error
+     */
+    @FunctionalInterface
+    public interface Operation {
+        void run() throws IOException;
+    }
+
+    /**
+     * Run the operation once the current transaction commits, or its compensation if it rolls back
+     *
+     * @param key          operations with the same key run one after another
+     * @param operation    file operation
+     * @param compensation undoes what the transaction prepared for the operation, e.g. deletes a received file
+     * @return completes when the operation has run, exceptionally if it failed
+     */
+    public CompletableFuture<Void> afterCommit(String key, Operation operation, Operation compensation) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit(key, operation, compensation, done);
+            return done;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    submit(key, operation, compensation, done);
+                } else {
+                    execute(key, () -> {
+                        compensate(compensation);
+                        compensated.incrementAndGet();
+                        done.complete(null);
+                    });
+                }
+            }
+        });
+        return done;
+    }
+
+    /**
+     * Run the operation once the current transaction commits, with nothing to undo if it does not
+     */
+    public CompletableFuture<Void> afterCommit(String key, Operation operation) {
+        return afterCommit(key, operation, () -> { });
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+        for (ThreadPoolExecutor executor : executors) {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("ads.photos.io.queue", executors,
+                        list -> list.stream().mapToInt(e -> e.getQueue().size()).sum())
+                .description("Photo file operations waiting for an I/O thread")
+                .register(registry);
+        FunctionCounter.builder("ads.photos.io.completed", completed, AtomicLong::get)
+                .description("Photo file operations run after commit")
+                .register(registry);
+        FunctionCounter.builder("ads.photos.io.compensated", compensated, AtomicLong::get)
+                .description("Photo file operations undone because their transaction rolled back")
+                .register(registry);
+        FunctionCounter.builder("ads.photos.io.failed", failed, AtomicLong::get)
+                .description("Photo file operations that failed after commit")
+                .register(registry);
+    }
+
+    private void submit(String key, Operation operation, Operation compensation, CompletableFuture<Void> done) {
+        execute(key, () -> {
+            try {
+                operation.run();
+                completed.incrementAndGet();
+                done.complete(null);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.error("Photo file operation failed", e);
+                compensate(compensation);
+                done.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void execute(String key, Runnable task) {
+        ThreadPoolExecutor executor = executors.get(Math.floorMod(key.hashCode(), executors.size()));
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.run();
+        }
+    }
+
+    private static void compensate(Operation compensation) {
+        try {
+            compensation.run();
+        } catch (Exception e) {
+            log.error("Photo file compensation failed", e);
+        }
+    }
+}
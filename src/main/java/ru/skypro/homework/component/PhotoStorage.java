@@ -0,0 +1,269 @@
+package ru.skypro.homework.component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.model.PhotoSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Places photo files on the volumes of {@code ads.photos.volumes.roots} and finds them on disk.
+ * <p>
+ * A volume is a root directory, usually on its own disk, holding its own image and avatar directories.
+ * New content goes to the volume that owns its hash on a consistent hash ring of {@value #VIRTUAL_NODES}
+ * points per volume, so adding a volume takes over only its share of the content from the others, and
+ * the directory a photo was written to is kept in {@link Photo#getPhotoDir()}: photos stay readable where
+ * they are until {@code PhotoVolumeRebalancer} moves them. Uploads are received on the volumes in turn.
+ * <p>
+ * New files are written to the sharded layout of {@link Photo#getVariantPath}; files the shard migration
+ * has not moved yet are still read from the photo directory itself.
+ */
+@Component
+public class PhotoStorage implements MeterBinder {
+    static final int VIRTUAL_NODES = 128;
+
+    private final List<Volume> volumes = new ArrayList<>();
+    private final NavigableMap<Long, Volume> ring = new TreeMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    public PhotoStorage(@Value("${ads.photos.volumes.roots}") List<String> roots) {
+        if (roots.isEmpty()) {
+            throw new IllegalArgumentException("ads.photos.volumes.roots must not be empty");
+        }
+        for (String root : roots) {
+            Volume volume = new Volume(Paths.get(root.trim()).normalize());
+            volumes.add(volume);
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(position(volume.name + "#" + i), volume);
+            }
+        }
+    }
+
+    /**
+     * Photo directory a new file with this content goes to: the base directory on the volume owning the hash
+     *
+     * @param baseDir image or avatar directory, relative to the volume roots
+     * @param sha256  hex content hash
+     */
+    public String directory(String baseDir, String sha256) {
+        Map.Entry<Long, Volume> owner = ring.ceilingEntry(Long.parseUnsignedLong(sha256.substring(48), 16));
+        return (owner != null ? owner : ring.firstEntry()).getValue().resolve(baseDir).toString();
+    }
+
+    /**
+     * The base directory on every volume
+     */
+    public List<Path> directories(String baseDir) {
+        List<Path> dirs = new ArrayList<>();
+        for (Volume volume : volumes) {
+            dirs.add(volume.resolve(baseDir));
+        }
+        return dirs;
+    }
+
+    /**
+     * Directory to receive an upload into before its hash is known, on each volume in turn
+     */
+    public Path staging(String baseDir) {
+        return volumes.get(Math.floorMod(next.getAndIncrement(), volumes.size())).resolve(baseDir);
+    }
+
+    /**
+     * Move a file into place atomically. Across volumes it is copied next to the target first,
+     * so the target never appears half written.
+     */
+    public void moveInto(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            copyInto(source, target);
+            Files.delete(source);
+        }
+    }
+
+    /**
+     * Copy a file into place atomically
+     */
+    public void copyInto(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), "copy-", ".tmp");
+        try {
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            recordWrite(target, Files.size(target));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Hard link a file into place atomically, replacing a target left half copied by a crash,
+     * or copy it with {@link #copyInto} where the file system has no links
+     */
+    public void linkInto(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), "link-", ".tmp");
+        try {
+            // only the name is taken, the link is created in its place
+            Files.delete(temp);
+            Files.createLink(temp, source);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (UnsupportedOperationException e) {
+            copyInto(source, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Count bytes read from the volume of the file
+     */
+    public void recordRead(Path path, long bytes) {
+        Volume volume = volume(path);
+        if (volume != null) {
+            volume.read.add(bytes);
+        }
+    }
+
+    /**
+     * Count bytes written to the volume of the file
+     */
+    public void recordWrite(Path path, long bytes) {
+        Volume volume = volume(path);
+        if (volume != null) {
+            volume.written.add(bytes);
+        }
+    }
+
+    /**
+     * Existing file of the size, or {@code null} if there is none, e.g. a variant not generated yet
+     */
+    public Path find(Photo photo, PhotoSize size) {
+        Path path = photo.getVariantPath(size);
+        if (Files.exists(path)) {
+            return path;
+        }
+        Path unsharded = photo.getUnshardedPath(size);
+        return !unsharded.equals(path) && Files.exists(unsharded) ? unsharded : null;
+    }
+
+    /**
+     * Existing file of the size, or where it is to be written
+     */
+    public Path locate(Photo photo, PhotoSize size) {
+        Path path = find(photo, size);
+        return path != null ? path : photo.getVariantPath(size);
+    }
+
+    /**
+     * Every place a file of the photo may be at, for deleting them all
+     */
+    public List<Path> locations(Photo photo) {
+        List<Path> paths = new ArrayList<>();
+        for (PhotoSize size : PhotoSize.values()) {
+            paths.add(photo.getVariantPath(size));
+            if (!photo.getUnshardedPath(size).equals(photo.getVariantPath(size))) {
+                paths.add(photo.getUnshardedPath(size));
+            }
+        }
+        return paths;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Volume volume : volumes) {
+            Gauge.builder("ads.photos.volume.free", volume, Volume::usableSpace)
+                    .tag("volume", volume.name)
+                    .baseUnit("bytes")
+                    .description("Space left on the photo volume")
+                    .register(registry);
+            FunctionCounter.builder("ads.photos.volume.read", volume.read, LongAdder::sum)
+                    .tag("volume", volume.name)
+                    .baseUnit("bytes")
+                    .description("Photo bytes read from disk on the volume")
+                    .register(registry);
+            FunctionCounter.builder("ads.photos.volume.written", volume.written, LongAdder::sum)
+                    .tag("volume", volume.name)
+                    .baseUnit("bytes")
+                    .description("Photo bytes written to the volume")
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Volume holding the file: the one with the longest root the file is under
+     */
+    private Volume volume(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        Volume found = null;
+        for (Volume volume : volumes) {
+            if (absolute.startsWith(volume.absolute)
+                    && (found == null || volume.absolute.getNameCount() > found.absolute.getNameCount())) {
+                found = volume;
+            }
+        }
+        return found;
+    }
+
+    private static long position(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            long position = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                position = position << 8 | (hash[i] & 0xFF);
+            }
+            return position;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Volume {
+        private final String name;
+        private final Path root;
+        private final Path absolute;
+        private final LongAdder read = new LongAdder();
+        private final LongAdder written = new LongAdder();
+
+        Volume(Path root) {
+            this.name = root.toString().isEmpty() ? "." : root.toString();
+            this.root = root;
+            this.absolute = root.toAbsolutePath().normalize();
+        }
+
+        Path resolve(String baseDir) {
+            return root.resolve(baseDir).normalize();
+        }
+
+        double usableSpace() {
+            try {
+                FileStore store = Files.getFileStore(Files.exists(absolute) ? absolute : absolute.getRoot());
+                return store.getUsableSpace();
+            } catch (IOException e) {
+                return Double.NaN;
+            }
+        }
+    }
+}
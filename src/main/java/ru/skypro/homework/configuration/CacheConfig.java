@@ -0,0 +1,39 @@
+package ru.skypro.homework.configuration;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Caffeine caches of the application. Evictions and puts made inside a transaction
+ * are applied after it commits, so a rolled back change does not drop a valid entry
+ * and readers do not reload the old row before the new one is visible.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    /**
+     * {@link ru.skypro.homework.service.AdvertService.Card} by advert id
+     */
+    public static final String FULL_ADS = "fullAds";
+    /**
+     * {@link org.springframework.security.core.userdetails.UserDetails} by username
+     */
+    public static final String USER_DETAILS = "userDetails";
+
+    @Bean
+    public CacheManager cacheManager(@Value("${ads.cache.full-ads.spec}") String fullAdsSpec,
+                                     @Value("${ads.cache.user-details.spec}") String userDetailsSpec) {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager(FULL_ADS);
+        cacheManager.setCaffeineSpec(CaffeineSpec.parse(fullAdsSpec));
+        cacheManager.setAllowNullValues(false);
+        cacheManager.registerCustomCache(USER_DETAILS, Caffeine.from(userDetailsSpec).build());
+        return new TransactionAwareCacheManagerProxy(cacheManager);
+    }
+}
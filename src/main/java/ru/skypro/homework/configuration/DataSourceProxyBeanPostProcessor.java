@@ -0,0 +1,26 @@
+package ru.skypro.homework.configuration;
+
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Wraps every {@link DataSource} with a datasource-proxy that counts executed statements per thread.
+ * The counts are read through {@link net.ttddyy.dsproxy.QueryCountHolder}.
+ */
+@Component
+public class DataSourceProxyBeanPostProcessor implements BeanPostProcessor {
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource && !(bean instanceof ProxyDataSource)) {
+            return ProxyDataSourceBuilder.create((DataSource) bean)
+                    .name(beanName)
+                    .countQuery()
+                    .build();
+        }
+        return bean;
+    }
+}
@@ -7,12 +7,21 @@ import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.provisioning.JdbcUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+import ru.skypro.homework.model.Role;
+import ru.skypro.homework.security.TokenAuthenticationFilter;
+import ru.skypro.homework.security.TokenService;
+import ru.skypro.homework.security.UserAuthenticationProvider;
 
 import javax.sql.DataSource;
 
@@ -26,12 +35,19 @@ public class WebSecurityConfig {
     @Value("${spring.datasource.username}")
     private String databaseUsername;
 
+    /**
+     * HTTP Basic for clients that do not use tokens yet; costs a password hash on every request
+     */
+    @Value("${ads.auth.basic.enabled}")
+    private boolean basicAuthEnabled;
+
     private static final String[] AUTH_WHITELIST = {
             "/swagger-resources/**",
             "/swagger-ui.html",
             "/v3/api-docs",
             "/webjars/**",
             "/login",
+            "/refresh",
             "/register"
     };
 
@@ -45,12 +61,7 @@ public class WebSecurityConfig {
     }
 
     @Bean
-    public JdbcUserDetailsManager userDetailsService() {
-        return new JdbcUserDetailsManager(getDataSource());
-    }
-
-    @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, TokenService tokenService) throws Exception {
         http.csrf()
                 .disable()
                 .authorizeHttpRequests(
@@ -58,17 +69,40 @@ public class WebSecurityConfig {
                                 authorization
                                         .mvcMatchers(AUTH_WHITELIST)
                                         .permitAll()
-                                        .mvcMatchers(HttpMethod.GET, "/ads", "/ads/*/image", "/users/me/image")
+                                        .mvcMatchers(HttpMethod.GET, "/ads", "/ads/all", "/ads/search", "/ads/suggest", "/ads/*/image", "/users/me/image")
+                                        .permitAll()
+                                        .mvcMatchers(HttpMethod.HEAD, "/ads/*/image", "/users/me/image")
                                         .permitAll()
-                                        .mvcMatchers("/ads/**", "/users/**")
+                                        .mvcMatchers("/ads/**", "/users/**", "/logout")
                                         .authenticated()
+                                        .mvcMatchers("/actuator/health")
+                                        .permitAll()
+                                        .mvcMatchers("/actuator/**")
+                                        .hasRole(Role.ADMIN.name())
                 )
                 .cors()
                 .and()
-                .httpBasic(withDefaults());
+                .logout()
+                .disable()
+                .addFilterBefore(new TokenAuthenticationFilter(tokenService), BasicAuthenticationFilter.class);
+        if (basicAuthEnabled) {
+            http.httpBasic(withDefaults());
+        } else {
+            http.sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                    .exceptionHandling(exceptions -> exceptions
+                            .authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED)));
+        }
         return http.build();
     }
 
+    @Bean
+    public DaoAuthenticationProvider authenticationProvider(UserDetailsService userDetailsService) {
+        DaoAuthenticationProvider provider = new UserAuthenticationProvider();
+        provider.setUserDetailsService(userDetailsService);
+        provider.setPasswordEncoder(passwordEncoder());
+        return provider;
+    }
+
     @Bean
     public PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
@@ -1,27 +1,36 @@
 package ru.skypro.homework.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
+import org.springdoc.api.annotations.ParameterObject;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import ru.skypro.homework.component.PhotoDownloadComponent;
 import ru.skypro.homework.dto.*;
+import ru.skypro.homework.mapper.PhotoMapper;
 import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.PhotoSize;
+import ru.skypro.homework.service.AdvertExportService;
 import ru.skypro.homework.service.AdvertService;
+import ru.skypro.homework.service.ListingSnapshot;
+import ru.skypro.homework.service.PhotoService;
+import ru.skypro.homework.service.PhotoUpload;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.List;
 
 @Slf4j
 @CrossOrigin(value = "http://localhost:3000")
@@ -30,9 +39,24 @@ import java.nio.file.Path;
 @Tag(name = "Объявления")
 public class AdvertController {
     private final AdvertService advertService;
+    private final AdvertExportService advertExportService;
+    private final ListingSnapshot listingSnapshot;
+    private final PhotoDownloadComponent photoDownload;
+    private final PhotoMapper photoMapper;
+    private final PhotoService photoService;
 
-    public AdvertController(AdvertService advertService) {
+    public AdvertController(AdvertService advertService,
+                            AdvertExportService advertExportService,
+                            ListingSnapshot listingSnapshot,
+                            PhotoDownloadComponent photoDownload,
+                            PhotoMapper photoMapper,
+                            PhotoService photoService) {
         this.advertService = advertService;
+        this.advertExportService = advertExportService;
+        this.listingSnapshot = listingSnapshot;
+        this.photoDownload = photoDownload;
+        this.photoMapper = photoMapper;
+        this.photoService = photoService;
     }
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -41,10 +65,17 @@ public class AdvertController {
                     implementation = AdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
             @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<AdsDto> create(Authentication auth,
-                                         @RequestPart CreateAdsDto properties,
+    public ResponseEntity<AdsDto> create(@RequestPart CreateAdsDto properties,
                                          @RequestPart(name = "image") MultipartFile file) {
-        return new ResponseEntity<>(advertService.create(auth, properties, file), HttpStatus.CREATED);
+        try (PhotoUpload upload = photoService.receiveImage(file)) {
+            AdsDto advert = photoService.retryConcurrentUpload(() -> advertService.create(properties, upload));
+            if (!upload.tryAwaitStored()) {
+                // the advert is saved without its image, which can be uploaded again; failing would make
+                // the client create it twice
+                advert.setImage(null);
+            }
+            return new ResponseEntity<>(advert, HttpStatus.CREATED);
+        }
     }
 
     @DeleteMapping("/{id}")
@@ -73,59 +104,129 @@ public class AdvertController {
     @PatchMapping(value = "/{id}/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @Operation(summary = "Обновить картинку объявления", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
-                    implementation = byte[].class), mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE)}),
+                    implementation = byte[].class), mediaType = MediaType.APPLICATION_OCTET_STREAM_VALUE),
+                    @Content(schema = @Schema(implementation = PhotoDto.class),
+                            mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
             @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())}),
-            @ApiResponse(responseCode = "403", content = {@Content(schema = @Schema())})}
+            @ApiResponse(responseCode = "403", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "413", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<byte[]> updateImage(@PathVariable("id") Integer id,
-                                              @RequestParam("image") MultipartFile file) throws IOException {
-        return ResponseEntity.ok(advertService.updateImage(id, file));
+    public ResponseEntity<PhotoDto> updateImage(@PathVariable("id") Integer id,
+                                                @RequestParam("image") MultipartFile file,
+                                                @RequestParam(name = "echo", defaultValue = "true") boolean echo,
+                                                HttpServletRequest request,
+                                                HttpServletResponse response) throws IOException {
+        try (PhotoUpload upload = photoService.receiveImage(file)) {
+            Image image = photoService.retryConcurrentUpload(() -> advertService.updateImage(id, upload));
+            upload.awaitStored();
+            if (echo) {
+                photoDownload.sendContent(image, request, response);
+                return null;
+            }
+            return ResponseEntity.ok(photoMapper.photoToPhotoDto(image, "/ads/" + id + "/image"));
+        }
     }
 
     @GetMapping("/{id}")
     @Operation(summary = "Получить информацию об объявлении", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
                     implementation = FullAdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
             @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<FullAdsDto> findById(@PathVariable("id") Integer id) {
-        return ResponseEntity.ok(advertService.findById(id));
+    public ResponseEntity<FullAdsDto> findById(@PathVariable("id") Integer id, WebRequest request) {
+        AdvertService.Card card = advertService.findById(id);
+        if (request.checkNotModified(card.getETag())) {
+            return null;
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(card.getAds());
     }
 
     @GetMapping("/me")
     @Operation(summary = "Получить объявления авторизованного пользователя", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
                     implementation = ResponseWrapperAdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
             @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<ResponseWrapperAdsDto> findAllByAuthUser() {
-        ResponseWrapperAdsDto responseWrapperAdsDto = advertService.findAllByAuthUser();
+    public ResponseEntity<ResponseWrapperAdsDto> findAllByAuthUser(@ParameterObject AdsPageRequestDto page) {
+        ResponseWrapperAdsDto responseWrapperAdsDto = advertService.findAllByAuthUser(page);
         return ResponseEntity.ok(responseWrapperAdsDto);
     }
 
     @GetMapping
     @Operation(summary = "Получить все объявления", responses = {
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
+                    implementation = ResponseWrapperAdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())})}
+    )
+    public ResponseEntity<?> findAll(@ParameterObject AdsPageRequestDto page, WebRequest request) {
+        ListingSnapshot.Rendered rendered = listingSnapshot.find(page);
+        if (rendered == null) {
+            if (request.checkNotModified(listingSnapshot.listingETag())) {
+                return null;
+            }
+            return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(advertService.findAll(page));
+        }
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        boolean gzip = rendered.getGzip() != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (request.checkNotModified(rendered.eTag(gzip))) {
+            return null;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(rendered.getGzip());
+        }
+        return response.body(rendered.getJson());
+    }
+
+    @GetMapping("/all")
+    @Operation(summary = "Выгрузить все объявления", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
                     implementation = ResponseWrapperAdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)})}
     )
-    public ResponseEntity<ResponseWrapperAdsDto> findAll() {
-        return ResponseEntity.ok(advertService.findAll());
+    public void exportAll(@ParameterObject AdsExportRequestDto request,
+                          HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        advertExportService.writeAll(request, response.getOutputStream());
+    }
+
+    @GetMapping("/search")
+    @Operation(summary = "Найти объявления", responses = {
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
+                    implementation = ResponseWrapperAdsDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())})}
+    )
+    public ResponseEntity<ResponseWrapperAdsDto> search(@ParameterObject AdsSearchRequestDto request) {
+        return ResponseEntity.ok(advertService.search(request));
+    }
+
+    @GetMapping("/suggest")
+    @Operation(summary = "Подсказать заголовки объявлений", responses = {
+            @ApiResponse(responseCode = "200", content = {@Content(array = @ArraySchema(schema = @Schema(
+                    implementation = String.class)), mediaType = MediaType.APPLICATION_JSON_VALUE)})}
+    )
+    public ResponseEntity<List<String>> suggest(@RequestParam("prefix") String prefix,
+                                                @RequestParam(name = "size", defaultValue = "10") int size) {
+        return ResponseEntity.ok(advertService.suggest(prefix, size));
     }
 
     @GetMapping("/{id}/image")
     @Operation(summary = "Скачать картинку объявления", responses = {
-            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())})}
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "206", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())})}
     )
     public void downloadImage(@PathVariable("id") Integer id,
+                              @RequestParam(name = "size", defaultValue = "original") PhotoSize size,
+                              HttpServletRequest request,
                               HttpServletResponse response) throws IOException {
-        Image image = advertService.downloadImage(id);
-        Path path = image.getFilePath();
-        try (InputStream is = Files.newInputStream(path);
-             OutputStream os = response.getOutputStream();) {
-            response.setContentType(image.getFileType());
-            response.setContentLength((int) image.getFileSize());
-            is.transferTo(os);
-        }
+        photoDownload.send(advertService.downloadImage(id), size, request, response);
     }
 
 }
@@ -9,12 +9,15 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 import ru.skypro.homework.dto.LoginReqDto;
+import ru.skypro.homework.dto.RefreshTokenDto;
 import ru.skypro.homework.dto.RegisterReqDto;
+import ru.skypro.homework.dto.TokenDto;
 import ru.skypro.homework.model.Role;
 import ru.skypro.homework.service.AuthService;
 
@@ -30,15 +33,33 @@ public class AuthController {
 
     @PostMapping("/login")
     @Operation(summary = "Авторизация пользователя", responses = {
-            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(implementation = TokenDto.class))}),
             @ApiResponse(responseCode = "403", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<?> login(@RequestBody LoginReqDto req) {
-        if (authService.login(req.getUsername(), req.getPassword())) {
-            return ResponseEntity.ok().build();
-        } else {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
-        }
+    public ResponseEntity<TokenDto> login(@RequestBody LoginReqDto req) {
+        return authService.login(req.getUsername(), req.getPassword())
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+    }
+
+    @PostMapping("/refresh")
+    @Operation(summary = "Обновление токенов", responses = {
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(implementation = TokenDto.class))}),
+            @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
+    )
+    public ResponseEntity<TokenDto> refresh(@RequestBody RefreshTokenDto req) {
+        return ResponseEntity.ok(authService.refresh(req.getRefreshToken()));
+    }
+
+    @PostMapping("/logout")
+    @Operation(summary = "Выход пользователя", responses = {
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
+    )
+    public ResponseEntity<?> logout(Authentication authentication,
+                                    @RequestBody(required = false) RefreshTokenDto req) {
+        authService.logout(authentication, req == null ? null : req.getRefreshToken());
+        return ResponseEntity.ok().build();
     }
 
     @PostMapping("/register")
@@ -0,0 +1,18 @@
+package ru.skypro.homework.controller;
+
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.model.PhotoSize;
+
+import java.util.Locale;
+
+/**
+ * Binds the {@code size} parameter of photo downloads case-insensitively, e.g. {@code ?size=thumb}
+ */
+@Component
+public class PhotoSizeConverter implements Converter<String, PhotoSize> {
+    @Override
+    public PhotoSize convert(String source) {
+        return PhotoSize.valueOf(source.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -6,21 +6,26 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import ru.skypro.homework.component.PhotoDownloadComponent;
 import ru.skypro.homework.dto.NewPasswordDto;
+import ru.skypro.homework.dto.PhotoDto;
 import ru.skypro.homework.dto.UserDto;
+import ru.skypro.homework.mapper.PhotoMapper;
 import ru.skypro.homework.model.Avatar;
+import ru.skypro.homework.model.PhotoSize;
+import ru.skypro.homework.service.PhotoService;
+import ru.skypro.homework.service.PhotoUpload;
 import ru.skypro.homework.service.UserService;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 
 @Slf4j
 @CrossOrigin(value = "http://localhost:3000")
@@ -29,9 +34,18 @@ import java.nio.file.Path;
 @Tag(name = "Пользователи")
 public class UserController {
     private final UserService userService;
+    private final PhotoDownloadComponent photoDownload;
+    private final PhotoMapper photoMapper;
+    private final PhotoService photoService;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService,
+                          PhotoDownloadComponent photoDownload,
+                          PhotoMapper photoMapper,
+                          PhotoService photoService) {
         this.userService = userService;
+        this.photoDownload = photoDownload;
+        this.photoMapper = photoMapper;
+        this.photoService = photoService;
     }
 
     @PostMapping("/set_password")
@@ -57,53 +71,67 @@ public class UserController {
 
     @PatchMapping(value = "/me/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @Operation(summary = "Обновить аватар авторизованного пользователя", responses = {
-            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())}),
-            @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema()),
+                    @Content(schema = @Schema(implementation = PhotoDto.class),
+                            mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "413", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<byte[]> updateAvatar(@RequestParam("image") MultipartFile avatar) throws IOException {
-        return ResponseEntity.ok(userService.updateAvatar(avatar));
+    public ResponseEntity<PhotoDto> updateAvatar(@RequestParam("image") MultipartFile file,
+                                                 @RequestParam(name = "echo", defaultValue = "true") boolean echo,
+                                                 HttpServletRequest request,
+                                                 HttpServletResponse response) throws IOException {
+        try (PhotoUpload upload = photoService.receiveAvatar(file)) {
+            Avatar avatar = photoService.retryConcurrentUpload(() -> userService.updateAvatar(upload));
+            upload.awaitStored();
+            if (echo) {
+                photoDownload.sendContent(avatar, request, response);
+                return null;
+            }
+            return ResponseEntity.ok(photoMapper.photoToPhotoDto(avatar, "/users/me/image"));
+        }
     }
 
     @GetMapping("/me")
     @Operation(summary = "Получить информацию об авторизованном пользователе", responses = {
             @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema(
                     implementation = UserDto.class), mediaType = MediaType.APPLICATION_JSON_VALUE)}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
             @ApiResponse(responseCode = "401", content = {@Content(schema = @Schema())})}
     )
-    public ResponseEntity<UserDto> findInfo() {
-        return ResponseEntity.ok(userService.findInfo());
+    public ResponseEntity<UserDto> findInfo(WebRequest request) {
+        if (request.checkNotModified(userService.findETag())) {
+            return null;
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache().cachePrivate()).body(userService.findInfo());
     }
 
     @GetMapping("/me/image")
     @Operation(summary = "Скачать аватар авторизованного пользователя", responses = {
-            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())})}
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "206", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())})}
     )
-    public void downloadAvatar(HttpServletResponse response) throws IOException {
+    public void downloadAvatar(@RequestParam(name = "size", defaultValue = "original") PhotoSize size,
+                               HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
         Avatar avatar = userService.downloadAvatar();
         if (avatar != null) {
-            Path path = avatar.getFilePath();
-            try (InputStream is = Files.newInputStream(path);
-                 OutputStream os = response.getOutputStream();) {
-                response.setContentType(avatar.getFileType());
-                response.setContentLength((int) avatar.getFileSize());
-                is.transferTo(os);
-            }
+            photoDownload.sendPrivate(avatar, size, request, response);
         }
     }
 
     @GetMapping("/{id}/image")
     @Operation(summary = "Скачать аватар пользователя", responses = {
-            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())})}
+            @ApiResponse(responseCode = "200", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "206", content = {@Content(schema = @Schema())}),
+            @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())})}
     )
     public void downloadAvatar(@PathVariable("id") Integer id,
+                               @RequestParam(name = "size", defaultValue = "original") PhotoSize size,
+                               HttpServletRequest request,
                                HttpServletResponse response) throws IOException {
-        Avatar avatar = userService.downloadAvatarByUserId(id);
-        Path path = avatar.getFilePath();
-        try (InputStream is = Files.newInputStream(path);
-             OutputStream os = response.getOutputStream();) {
-            response.setContentType(avatar.getFileType());
-            response.setContentLength((int) avatar.getFileSize());
-            is.transferTo(os);
-        }
+        photoDownload.send(userService.downloadAvatarByUserId(id), size, request, response);
     }
 }
@@ -0,0 +1,11 @@
+package ru.skypro.homework.dto;
+
+import lombok.Data;
+
+@Data
+public class AdsExportRequestDto {
+    private Integer priceFrom;
+    private Integer priceTo;
+    private Integer authorId;
+    private Boolean hasImage;
+}
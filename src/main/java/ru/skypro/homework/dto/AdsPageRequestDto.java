@@ -0,0 +1,16 @@
+package ru.skypro.homework.dto;
+
+import lombok.Data;
+
+@Data
+public class AdsPageRequestDto {
+    private String cursor;
+    private int size = 20;
+    private AdsSort sort = AdsSort.NEWEST;
+    private boolean withCount;
+    private Integer priceFrom;
+    private Integer priceTo;
+    private Integer authorId;
+    private Boolean hasImage;
+    private boolean withFacets;
+}
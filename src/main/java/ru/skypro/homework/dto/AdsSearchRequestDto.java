@@ -0,0 +1,11 @@
+package ru.skypro.homework.dto;
+
+import lombok.Data;
+
+@Data
+public class AdsSearchRequestDto {
+    private String q;
+    private String cursor;
+    private int size = 20;
+    private boolean fuzzy;
+}
@@ -0,0 +1,16 @@
+package ru.skypro.homework.dto;
+
+/**
+ * Sort order of advert listings. Every order is completed by advert id, so a
+ * {@link PageCursor} of (sort key, id) always points at exactly one row.
+ */
+public enum AdsSort {
+    /**
+     * Newest adverts first (id descending)
+     */
+    NEWEST,
+    /**
+     * Cheapest adverts first (price ascending, then id ascending)
+     */
+    PRICE
+}
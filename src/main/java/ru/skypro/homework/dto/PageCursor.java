@@ -0,0 +1,48 @@
+package ru.skypro.homework.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import ru.skypro.homework.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque keyset cursor: the sort key and id of the last row of a page.
+ * The next page starts strictly after this pair, so no OFFSET is needed.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class PageCursor {
+    private final long key;
+    private final int id;
+    /**
+     * Value the first page computed the sort key with, e.g. the newest advert id a fuzzy search
+     * score is relative to, so that later pages sort rows the same way; 0 if there is none
+     */
+    private final int pin;
+
+    public PageCursor(long key, int id) {
+        this(key, id, 0);
+    }
+
+    public String encode() {
+        String raw = pin == 0 ? key + ":" + id : key + ":" + id + ":" + pin;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public static PageCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            int separator = raw.indexOf(':');
+            int pinSeparator = raw.indexOf(':', separator + 1);
+            return new PageCursor(Long.parseLong(raw.substring(0, separator)),
+                    Integer.parseInt(raw.substring(separator + 1, pinSeparator < 0 ? raw.length() : pinSeparator)),
+                    pinSeparator < 0 ? 0 : Integer.parseInt(raw.substring(pinSeparator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new InvalidCursorException("Invalid cursor: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package ru.skypro.homework.dto;
+
+import lombok.Data;
+
+@Data
+public class PhotoDto {
+    private String url;
+    private String contentType;
+    private long size;
+    private String fileName;
+}
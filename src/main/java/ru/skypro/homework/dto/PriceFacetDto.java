@@ -0,0 +1,17 @@
+package ru.skypro.homework.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Number of adverts whose price is in {@code [from, to)}; an open end is {@code null}
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PriceFacetDto {
+    private Integer from;
+    private Integer to;
+    private long count;
+}
@@ -0,0 +1,8 @@
+package ru.skypro.homework.dto;
+
+import lombok.Data;
+
+@Data
+public class RefreshTokenDto {
+    private String refreshToken;
+}
@@ -7,4 +7,6 @@ import java.util.List;
 public class ResponseWrapperAdsDto {
     private int count;
     private List<AdsDto> results;
+    private String next;
+    private List<PriceFacetDto> priceFacets;
 }
@@ -10,8 +10,10 @@ import ru.skypro.homework.model.Role;
 @AllArgsConstructor
 public class SecuringUserDto {
 
+    private int id;
     private String username;
     private String password;
     private Role role;
     private boolean enabled;
+    private Integer avatarId;
 }
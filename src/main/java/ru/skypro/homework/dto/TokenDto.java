@@ -0,0 +1,18 @@
+package ru.skypro.homework.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TokenDto {
+    private String accessToken;
+    private String refreshToken;
+    private String tokenType;
+    /**
+     * Seconds until the access token expires
+     */
+    private long expiresIn;
+}
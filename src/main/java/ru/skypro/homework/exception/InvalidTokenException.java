@@ -0,0 +1,7 @@
+package ru.skypro.homework.exception;
+
+public class InvalidTokenException extends RuntimeException {
+    public InvalidTokenException(String message) {
+        super(message);
+    }
+}
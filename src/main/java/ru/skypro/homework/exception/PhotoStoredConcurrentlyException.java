@@ -0,0 +1,12 @@
+package ru.skypro.homework.exception;
+
+import org.springframework.dao.DataIntegrityViolationException;
+
+/**
+ * A new photo was rejected by the unique content hash, because an identical upload stored it first
+ */
+public class PhotoStoredConcurrentlyException extends DataIntegrityViolationException {
+    public PhotoStoredConcurrentlyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,7 @@
+package ru.skypro.homework.exception;
+
+public class PhotoTooLargeException extends PhotoUploadException {
+    public PhotoTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -8,11 +8,13 @@ import ru.skypro.homework.dto.CreateAdsDto;
 import ru.skypro.homework.dto.FullAdsDto;
 import ru.skypro.homework.dto.ResponseWrapperAdsDto;
 import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.repository.projection.AdsProjection;
 
 import java.util.List;
 
 @Mapper(componentModel = "spring")
 public interface AdvertMapper {
+    @Mapping(target = "version", ignore = true)
     Advert createAdsDtoToAdvert(CreateAdsDto createAdsDto);
 
     @Mapping(target = "pk", source = "id")
@@ -28,8 +30,16 @@ public interface AdvertMapper {
     @Mapping(target = "image", expression = "java(getUrlToImage(advert))")
     FullAdsDto advertToFullAdsDto(Advert advert);
 
+    @Mapping(target = "pk", source = "id")
+    @Mapping(target = "author", source = "authorId")
+    @Mapping(target = "image", expression = "java(getUrlToImage(projection))")
+    AdsDto projectionToAdsDto(AdsProjection projection);
+
     List<AdsDto> advertListToAdsDtoList(List<Advert> adverts);
 
+    List<AdsDto> projectionListToAdsDtoList(List<AdsProjection> projections);
+
+    @Mapping(target = "version", ignore = true)
     void updateAdvert(CreateAdsDto createAdsDto, @MappingTarget Advert advert);
 
     default ResponseWrapperAdsDto listToRespWrapperAdsDto(List<Advert> adverts) {
@@ -39,6 +49,20 @@ public interface AdvertMapper {
         return result;
     }
 
+    default ResponseWrapperAdsDto projectionListToRespWrapperAdsDto(List<AdsProjection> projections) {
+        ResponseWrapperAdsDto result = new ResponseWrapperAdsDto();
+        result.setCount(projections.size());
+        result.setResults(projectionListToAdsDtoList(projections));
+        return result;
+    }
+
+    default String getUrlToImage(AdsProjection projection) {
+        if (projection.getImageId() == null) {
+            return null;
+        }
+        return "/ads/" + projection.getId() + "/image";
+    }
+
     default String getUrlToImage(Advert advert) {
         if (advert.getImage() == null) {
             return null;
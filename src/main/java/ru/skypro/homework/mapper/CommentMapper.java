@@ -40,10 +40,12 @@ public interface CommentMapper {
     @Mapping(target = "id", source = "pk")
     @Mapping(source = "author", target = "author.id")
     @Mapping(source = "authorFirstName", target = "author.firstName")
+    @Mapping(target = "version", ignore = true)
     Comment commentDtoToComment(CommentDto commentDto);
 
     @Mapping(target = "createdAt", ignore = true)
     @Mapping(target = "author", ignore = true)
+    @Mapping(target = "version", ignore = true)
     void updateComment(CommentDto commentDto, @MappingTarget Comment comment);
 
     List<CommentDto> commentListToCommentDtoList(List<Comment> comments);
@@ -0,0 +1,15 @@
+package ru.skypro.homework.mapper;
+
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+import ru.skypro.homework.dto.PhotoDto;
+import ru.skypro.homework.model.Photo;
+
+@Mapper(componentModel = "spring")
+public interface PhotoMapper {
+    @Mapping(target = "url", source = "url")
+    @Mapping(target = "contentType", source = "photo.fileType")
+    @Mapping(target = "size", source = "photo.fileSize")
+    @Mapping(target = "fileName", source = "photo.fileName")
+    PhotoDto photoToPhotoDto(Photo photo, String url);
+}
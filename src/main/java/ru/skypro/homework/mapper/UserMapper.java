@@ -9,6 +9,7 @@ import ru.skypro.homework.model.User;
 
 @Mapper(componentModel = "spring")
 public interface UserMapper {
+    @Mapping(target = "version", ignore = true)
     User userDtoToUser(UserDto userDto);
 
     @Mapping(target = "email", source = "username")
@@ -18,10 +19,12 @@ public interface UserMapper {
     @Mapping(target = "username", ignore = true)
     @Mapping(target = "password", ignore = true)
     @Mapping(target = "id", expression = "java(user.getId())")
+    @Mapping(target = "version", ignore = true)
     void updateUser(UserDto userDto, @MappingTarget User user);
 
     @Mapping(target = "username", ignore = true)
     @Mapping(target = "password", ignore = true)
+    @Mapping(target = "version", ignore = true)
     void updateUser(RegisterReqDto registerReqDto, @MappingTarget User user);
 
     default String getUrlToAvatar(User user) {
@@ -3,6 +3,7 @@ package ru.skypro.homework.model;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
+import org.hibernate.annotations.ColumnDefault;
 
 import javax.persistence.*;
 import java.util.List;
@@ -13,7 +14,18 @@ import java.util.Objects;
 @ToString
 @Entity
 @Table(name = "adverts")
+@NamedEntityGraph(name = Advert.WITH_AUTHOR, attributeNodes = @NamedAttributeNode("author"))
+@NamedEntityGraph(name = Advert.WITH_IMAGE, attributeNodes = @NamedAttributeNode("image"))
 public class Advert {
+    /**
+     * Full advert card and ownership checks: the author is read, the image only by id
+     */
+    public static final String WITH_AUTHOR = "Advert.withAuthor";
+    /**
+     * Image download: the photo metadata is needed outside of a transaction
+     */
+    public static final String WITH_IMAGE = "Advert.withImage";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(nullable = false)
@@ -21,12 +33,21 @@ public class Advert {
     private String title;
     private String description;
     private int price;
-    @ManyToOne
+    /**
+     * Incremented by every update, part of the entity tag of the advert card
+     */
+    @Version
+    @ColumnDefault("0")
+    private long version;
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", referencedColumnName = "id")
     private User author;
-    @ManyToOne(cascade = CascadeType.REMOVE)
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "image_id", referencedColumnName = "id")
     private Image image;
+    @ToString.Exclude
     @OneToMany(mappedBy = "advert", cascade = CascadeType.REMOVE)
     private List<Comment> comments;
 
@@ -3,7 +3,6 @@ package ru.skypro.homework.model;
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 
 @Entity
 @DiscriminatorValue("AVATAR")
@@ -17,6 +16,6 @@ public class Avatar extends Photo {
 
     @Override
     public Path getFilePath() {
-        return Paths.get(this.getPhotoDir(), this.getId() + "." + this.getFileExtension());
+        return resolve(this.getFileKey() + "." + this.getFileExtension());
     }
 }
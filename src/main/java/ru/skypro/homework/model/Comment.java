@@ -2,6 +2,7 @@ package ru.skypro.homework.model;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 
 import javax.persistence.Entity;
 import javax.persistence.*;
@@ -12,17 +13,29 @@ import java.util.Objects;
 @Setter
 @Entity
 @Table (name = "comments")
+@NamedEntityGraph(name = Comment.WITH_AUTHOR, attributeNodes = @NamedAttributeNode("author"))
 public class Comment {
+    /**
+     * Comment list and ownership checks: author name and avatar id are read for every comment
+     */
+    public static final String WITH_AUTHOR = "Comment.withAuthor";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id", nullable = false)
     private int id;
     private LocalDateTime createdAt;
     private String text;
-    @ManyToOne
+    /**
+     * Incremented by every update, part of the entity tag of the advert's comments
+     */
+    @Version
+    @ColumnDefault("0")
+    private long version;
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "author_id", referencedColumnName = "id")
     private User author;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "advert_id", referencedColumnName = "id")
     private Advert advert;
 
@@ -3,15 +3,19 @@ package ru.skypro.homework.model;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
+import org.hibernate.annotations.ColumnDefault;
 
 import javax.persistence.*;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
 import java.util.Objects;
 
 @Getter
 @Setter
 @ToString
 @Entity(name="photos")
+@Table(uniqueConstraints = @UniqueConstraint(name = "photos_type_sha256_idx", columnNames = {"photo_type", "sha256"}))
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
 @DiscriminatorColumn(name="photo_type", discriminatorType = DiscriminatorType.STRING)
 public abstract class Photo {
@@ -24,9 +28,65 @@ public abstract class Photo {
     private String fileName;
     private String fileExtension;
     private long fileSize;
+    /**
+     * Hex SHA-256 of the file content, which names the file; {@code null} for photos stored by id
+     * before deduplication
+     */
+    private String sha256;
+    /**
+     * Number of adverts or users referring to the photo, the file is deleted with the last one
+     */
+    @ColumnDefault("1")
+    private int refCount = 1;
 
     public abstract Path getFilePath();
 
+    /**
+     * Name of the file without extension: the content hash, or the id for photos stored before deduplication
+     */
+    public String getFileKey() {
+        return sha256 != null ? sha256 : String.valueOf(id);
+    }
+
+    /**
+     * Path of a size variant next to the file, which may not have been generated yet
+     */
+    public Path getVariantPath(PhotoSize size) {
+        if (size == PhotoSize.ORIGINAL) {
+            return getFilePath();
+        }
+        return resolve(getFileKey() + "-" + size.name().toLowerCase(Locale.ROOT) + "." + getVariantExtension());
+    }
+
+    /**
+     * Path of a file of the size directly in the photo directory, where it was stored before sharding
+     */
+    public Path getUnshardedPath(PhotoSize size) {
+        return Paths.get(photoDir).resolve(getVariantPath(size).getFileName());
+    }
+
+    /**
+     * Two level shard directory of a content hash, e.g. {@code images/ab/cd} for {@code abcd...}
+     */
+    public static Path shard(Path dir, String sha256) {
+        return dir.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4));
+    }
+
+    /**
+     * Path of a file of the photo: in the shard directory of the content hash,
+     * or directly in the photo directory for photos stored by id
+     */
+    protected Path resolve(String fileName) {
+        return sha256 == null ? Paths.get(photoDir, fileName) : shard(Paths.get(photoDir), sha256).resolve(fileName);
+    }
+
+    /**
+     * Format of the downscaled variants: JPEG stays JPEG, anything else becomes PNG to keep transparency
+     */
+    public String getVariantExtension() {
+        return "jpeg".equals(fileExtension) ? "jpeg" : "png";
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,26 @@
+package ru.skypro.homework.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Size variants of a photo. Downscaled variants fit into a square of {@code maxDimension} pixels
+ * and are generated in the background after an upload, see {@link Photo#getVariantPath}.
+ */
+@Getter
+@AllArgsConstructor
+public enum PhotoSize {
+    THUMB(200),
+    MEDIUM(800),
+    /**
+     * The uploaded file itself
+     */
+    ORIGINAL(0);
+
+    private final int maxDimension;
+
+    /**
+     * Downscaled variants, largest first
+     */
+    public static final PhotoSize[] VARIANTS = {MEDIUM, THUMB};
+}
@@ -3,6 +3,7 @@ package ru.skypro.homework.model;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
+import org.hibernate.annotations.ColumnDefault;
 
 import javax.persistence.*;
 import java.util.Objects;
@@ -13,7 +14,13 @@ import java.util.Set;
 @Entity
 @Table(name = "users")
 @ToString
+@NamedEntityGraph(name = User.WITH_AVATAR, attributeNodes = @NamedAttributeNode("avatar"))
 public class User{
+    /**
+     * Avatar download: the photo metadata is needed outside of a transaction
+     */
+    public static final String WITH_AVATAR = "User.withAvatar";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(nullable = false)
@@ -23,14 +30,22 @@ public class User{
     private String firstName;
     private String lastName;
     private String phone;
-    @ManyToOne
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "avatar_id", referencedColumnName = "id")
     private Avatar avatar;
     @Enumerated(EnumType.STRING)
     private Role role;
     @Column(name = "enabled")
     private boolean isEnabled;
+    /**
+     * Incremented by every update, part of the entity tags of the profile, advert cards and comments
+     */
+    @Version
+    @ColumnDefault("0")
+    private long version;
 
+    @ToString.Exclude
     @OneToMany(mappedBy = "author", cascade = CascadeType.REMOVE)
     private Set<Advert> adverts;
 
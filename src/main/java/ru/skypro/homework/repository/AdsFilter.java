@@ -0,0 +1,26 @@
+package ru.skypro.homework.repository;
+
+import lombok.Value;
+
+/**
+ * Optional conditions of an advert listing, {@code null} means no condition
+ */
+@Value
+public class AdsFilter {
+    public static final AdsFilter NONE = new AdsFilter(null, null, null, null);
+
+    Integer authorId;
+    /**
+     * Inclusive lower bound of the price
+     */
+    Integer priceFrom;
+    /**
+     * Inclusive upper bound of the price
+     */
+    Integer priceTo;
+    Boolean hasImage;
+
+    public boolean isEmpty() {
+        return authorId == null && priceFrom == null && priceTo == null && hasImage == null;
+    }
+}
@@ -1,13 +1,75 @@
 package ru.skypro.homework.repository;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.skypro.homework.model.Advert;
-import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.projection.AdsProjection;
+import ru.skypro.homework.repository.projection.AdsTextProjection;
+import ru.skypro.homework.repository.projection.TitleCountProjection;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface AdvertRepository extends JpaRepository<Advert, Integer> {
-    List<Advert> findByAuthorId(int userId);
+public interface AdvertRepository extends JpaRepository<Advert, Integer>, AdvertSearchRepository {
+    /**
+     * Constructor expression of {@link AdsProjection}. Author and image ids are read from the
+     * foreign key columns, so the users and photos tables are not joined.
+     */
+    String ADS_COLUMNS = "new ru.skypro.homework.repository.projection.AdsProjection(" +
+            "a.id, a.title, a.price, a.author.id, a.image.id)";
+
+    /**
+     * Id of the newest advert, 0 if there are none
+     */
+    @Query("select coalesce(max(a.id), 0) from Advert a")
+    int findMaxId();
+
+    @Query("select a.id from Advert a where a.author.id = :authorId")
+    List<Integer> findIdsByAuthorId(@Param("authorId") int authorId);
+
+    @EntityGraph(Advert.WITH_AUTHOR)
+    Optional<Advert> findWithAuthorById(int id);
+
+    @EntityGraph(Advert.WITH_IMAGE)
+    Optional<Advert> findWithImageById(int id);
+
+    /**
+     * Portable search fallback: lower-cased title or description contains the pattern.
+     * Keyset page ordered by id descending, like {@link #findPageById}.
+     *
+     * @param pattern lower-cased LIKE pattern, a backslash escapes wildcards
+     */
+    @Query("select " + ADS_COLUMNS + " from Advert a " +
+            "where (lower(a.title) like :pattern escape '\\' or lower(a.description) like :pattern escape '\\') " +
+            "and a.id < :id " +
+            "order by a.id desc")
+    List<AdsProjection> searchLike(@Param("pattern") String pattern,
+                                   @Param("id") int beforeId,
+                                   Pageable limit);
+
+    /**
+     * Adverts with the given ids, newest first
+     */
+    @Query("select " + ADS_COLUMNS + " from Advert a where a.id in :ids order by a.id desc")
+    List<AdsProjection> findPageByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Keyset batch of advert texts ordered by id ascending, starting after {@code afterId}
+     */
+    @Query("select new ru.skypro.homework.repository.projection.AdsTextProjection(a.id, a.title, a.description) " +
+            "from Advert a where a.id > :id order by a.id")
+    List<AdsTextProjection> findTextPage(@Param("id") int afterId, Pageable limit);
+
+    /**
+     * Every distinct title with its usage count and newest advert id
+     */
+    @Query("select new ru.skypro.homework.repository.projection.TitleCountProjection(a.title, count(a.id), max(a.id)) " +
+            "from Advert a group by a.title")
+    List<TitleCountProjection> countTitles();
 }
@@ -0,0 +1,76 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.domain.Pageable;
+import ru.skypro.homework.repository.projection.AdsProjection;
+import ru.skypro.homework.repository.projection.AdsSearchProjection;
+
+import java.util.List;
+
+/**
+ * Hand-written search and aggregate queries of {@link AdvertRepository}
+ */
+public interface AdvertSearchRepository {
+    /**
+     * PostgreSQL full-text search over the {@code adverts.search_vector} column (russian configuration).
+     * Hits are ordered by (rank, id) descending; pass {@link Double#MAX_VALUE} and
+     * {@link Integer#MAX_VALUE} for the first page.
+     *
+     * @param query   user query in websearch syntax
+     * @param rank    rank of the last hit of the previous page
+     * @param id      id of the last hit of the previous page
+     * @param limit   maximum number of hits
+     * @return ranked hits
+     */
+    List<AdsSearchProjection> searchFullText(String query, double rank, int id, int limit);
+
+    /**
+     * Typo-tolerant search with {@code pg_trgm} word similarity of the query to {@code adverts.title}.
+     * The score blends similarity with recency, measured as the id relative to the newest advert.
+     * Hits are ordered by (score, id) descending like {@link #searchFullText}.
+     *
+     * @param query         user query
+     * @param threshold     minimal word similarity, from 0 to 1; lower finds more but reads more of the index
+     * @param recencyWeight share of recency in the score, from 0 to 1
+     * @param maxId         id of the newest advert when the first page was read, the same for every page
+     * @param score         score of the last hit of the previous page
+     * @param id            id of the last hit of the previous page
+     * @param limit         maximum number of hits
+     * @return hits with their score as rank
+     */
+    List<AdsSearchProjection> searchFuzzy(String query, double threshold, double recencyWeight, int maxId,
+                                          double score, int id, int limit);
+
+    /**
+     * Count adverts matching the filter
+     *
+     * @param filter conditions, only the present ones are added to the query
+     */
+    long countByFilter(AdsFilter filter);
+
+    /**
+     * Keyset page ordered by id descending. Pass {@link Integer#MAX_VALUE} for the first page
+     * and a {@code PageRequest.of(0, limit)} so that no OFFSET is generated.
+     *
+     * @param filter conditions, only the present ones are added to the query
+     */
+    List<AdsProjection> findPageById(AdsFilter filter, int beforeId, Pageable limit);
+
+    /**
+     * Keyset page ordered by (price, id) ascending. Pass {@link Integer#MIN_VALUE} as both
+     * price and id for the first page.
+     *
+     * @param filter conditions, only the present ones are added to the query
+     */
+    List<AdsProjection> findPageByPrice(AdsFilter filter, int afterPrice, int afterId, Pageable limit);
+
+    /**
+     * Count adverts matching the filter per price bucket in a single pass.
+     * Bucket {@code i} holds prices in {@code [bounds[i - 1], bounds[i])}, the first and the last
+     * buckets are open ended.
+     *
+     * @param filter conditions, only the present ones are added to the query
+     * @param bounds ascending bucket bounds
+     * @return {@code bounds.length + 1} counts
+     */
+    long[] countPriceBuckets(AdsFilter filter, int[] bounds);
+}
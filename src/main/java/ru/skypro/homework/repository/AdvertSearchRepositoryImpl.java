@@ -0,0 +1,189 @@
+package ru.skypro.homework.repository;
+
+import org.springframework.data.domain.Pageable;
+import ru.skypro.homework.repository.projection.AdsProjection;
+import ru.skypro.homework.repository.projection.AdsSearchProjection;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class AdvertSearchRepositoryImpl implements AdvertSearchRepository {
+    private static final String FULL_TEXT_QUERY = "select r.* from (" +
+            "select a.id, a.title, a.price, a.user_id, a.image_id, " +
+            "cast(ts_rank(a.search_vector, q) as float8) as rank " +
+            "from adverts a, websearch_to_tsquery('russian', :query) q " +
+            "where a.search_vector @@ q) r " +
+            "where r.rank < :rank or (r.rank = :rank and r.id < :id) " +
+            "order by r.rank desc, r.id desc " +
+            "limit :limit";
+    /**
+     * {@code <%} is served by the trigram index on title and filters by
+     * {@code pg_trgm.word_similarity_threshold}, set for the current transaction.
+     * Recency is relative to the newest advert id passed in, not the current one, so the score of a row
+     * does not change between pages.
+     */
+    private static final String FUZZY_QUERY = "select r.* from (" +
+            "select a.id, a.title, a.price, a.user_id, a.image_id, " +
+            "cast((1 - :recency) * word_similarity(:query, a.title) + :recency * a.id / cast(:maxId as float8) " +
+            "as float8) as rank " +
+            "from adverts a " +
+            "where :query <% a.title) r " +
+            "where r.rank < :rank or (r.rank = :rank and r.id < :id) " +
+            "order by r.rank desc, r.id desc " +
+            "limit :limit";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<AdsSearchProjection> searchFullText(String query, double rank, int id, int limit) {
+        List<Tuple> rows = entityManager.createNativeQuery(FULL_TEXT_QUERY, Tuple.class)
+                .setParameter("query", query)
+                .setParameter("rank", rank)
+                .setParameter("id", id)
+                .setParameter("limit", limit)
+                .getResultList();
+        return toProjections(rows);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<AdsSearchProjection> searchFuzzy(String query, double threshold, double recencyWeight, int maxId,
+                                                 double score, int id, int limit) {
+        entityManager.createNativeQuery("select set_config('pg_trgm.word_similarity_threshold', :threshold, true)")
+                .setParameter("threshold", String.valueOf(threshold))
+                .getSingleResult();
+        List<Tuple> rows = entityManager.createNativeQuery(FUZZY_QUERY, Tuple.class)
+                .setParameter("query", query)
+                .setParameter("recency", recencyWeight)
+                .setParameter("maxId", Math.max(maxId, 1))
+                .setParameter("rank", score)
+                .setParameter("id", id)
+                .setParameter("limit", limit)
+                .getResultList();
+        return toProjections(rows);
+    }
+
+    @Override
+    public long countByFilter(AdsFilter filter) {
+        StringBuilder jpql = new StringBuilder("select count(a) from Advert a where 1 = 1");
+        appendFilter(jpql, filter);
+        TypedQuery<Long> query = entityManager.createQuery(jpql.toString(), Long.class);
+        bindFilter(query, filter);
+        return query.getSingleResult();
+    }
+
+    @Override
+    public List<AdsProjection> findPageById(AdsFilter filter, int beforeId, Pageable limit) {
+        StringBuilder jpql = new StringBuilder("select " + AdvertRepository.ADS_COLUMNS + " from Advert a " +
+                "where a.id < :id");
+        appendFilter(jpql, filter);
+        jpql.append(" order by a.id desc");
+        TypedQuery<AdsProjection> query = entityManager.createQuery(jpql.toString(), AdsProjection.class)
+                .setParameter("id", beforeId);
+        bindFilter(query, filter);
+        return page(query, limit).getResultList();
+    }
+
+    @Override
+    public List<AdsProjection> findPageByPrice(AdsFilter filter, int afterPrice, int afterId, Pageable limit) {
+        StringBuilder jpql = new StringBuilder("select " + AdvertRepository.ADS_COLUMNS + " from Advert a " +
+                "where (a.price > :price or (a.price = :price and a.id > :id))");
+        appendFilter(jpql, filter);
+        jpql.append(" order by a.price, a.id");
+        TypedQuery<AdsProjection> query = entityManager.createQuery(jpql.toString(), AdsProjection.class)
+                .setParameter("price", afterPrice)
+                .setParameter("id", afterId);
+        bindFilter(query, filter);
+        return page(query, limit).getResultList();
+    }
+
+    @Override
+    public long[] countPriceBuckets(AdsFilter filter, int[] bounds) {
+        StringBuilder jpql = new StringBuilder("select ");
+        for (int i = 0; i <= bounds.length; i++) {
+            jpql.append(i == 0 ? "" : ", ").append("sum(case when ");
+            if (i > 0) {
+                jpql.append("a.price >= :b").append(i - 1);
+            }
+            if (i > 0 && i < bounds.length) {
+                jpql.append(" and ");
+            }
+            if (i < bounds.length) {
+                jpql.append("a.price < :b").append(i);
+            }
+            jpql.append(" then 1 else 0 end)");
+        }
+        jpql.append(" from Advert a where 1 = 1");
+        appendFilter(jpql, filter);
+        Query query = entityManager.createQuery(jpql.toString());
+        for (int i = 0; i < bounds.length; i++) {
+            query.setParameter("b" + i, bounds[i]);
+        }
+        bindFilter(query, filter);
+        Object result = query.getSingleResult();
+        Object[] sums = result instanceof Object[] ? (Object[]) result : new Object[]{result};
+        long[] counts = new long[sums.length];
+        for (int i = 0; i < sums.length; i++) {
+            counts[i] = sums[i] == null ? 0 : ((Number) sums[i]).longValue();
+        }
+        return counts;
+    }
+
+    /**
+     * Add the present conditions of the filter, so that the planner sees only those and can use
+     * the {@code (user_id, id)} and {@code (price, id)} indexes; catch-all {@code :x is null or ...}
+     * predicates hide them behind generic plans
+     */
+    private static void appendFilter(StringBuilder jpql, AdsFilter filter) {
+        if (filter.getAuthorId() != null) {
+            jpql.append(" and a.author.id = :authorId");
+        }
+        if (filter.getPriceFrom() != null) {
+            jpql.append(" and a.price >= :priceFrom");
+        }
+        if (filter.getPriceTo() != null) {
+            jpql.append(" and a.price <= :priceTo");
+        }
+        if (filter.getHasImage() != null) {
+            jpql.append(filter.getHasImage() ? " and a.image is not null" : " and a.image is null");
+        }
+    }
+
+    private static void bindFilter(Query query, AdsFilter filter) {
+        if (filter.getAuthorId() != null) {
+            query.setParameter("authorId", filter.getAuthorId());
+        }
+        if (filter.getPriceFrom() != null) {
+            query.setParameter("priceFrom", filter.getPriceFrom());
+        }
+        if (filter.getPriceTo() != null) {
+            query.setParameter("priceTo", filter.getPriceTo());
+        }
+    }
+
+    private static <T> TypedQuery<T> page(TypedQuery<T> query, Pageable limit) {
+        if (limit.isPaged()) {
+            query.setFirstResult((int) limit.getOffset()).setMaxResults(limit.getPageSize());
+        }
+        return query;
+    }
+
+    private static List<AdsSearchProjection> toProjections(List<Tuple> rows) {
+        return rows.stream()
+                .map(row -> new AdsSearchProjection(
+                        ((Number) row.get("id")).intValue(),
+                        (String) row.get("title"),
+                        ((Number) row.get("price")).intValue(),
+                        row.get("user_id") == null ? null : ((Number) row.get("user_id")).intValue(),
+                        row.get("image_id") == null ? null : ((Number) row.get("image_id")).intValue(),
+                        ((Number) row.get("rank")).doubleValue()))
+                .collect(Collectors.toList());
+    }
+}
@@ -1,12 +1,26 @@
 package ru.skypro.homework.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.skypro.homework.model.Comment;
+import ru.skypro.homework.repository.projection.CommentsVersionProjection;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface CommentRepository extends JpaRepository<Comment, Integer> {
+    @EntityGraph(Comment.WITH_AUTHOR)
     List<Comment> findAllByAdvertId(Integer advertId);
+
+    @EntityGraph(Comment.WITH_AUTHOR)
+    Optional<Comment> findWithAuthorById(int id);
+
+    @Query("select new ru.skypro.homework.repository.projection.CommentsVersionProjection(count(c.id), " +
+            "coalesce(max(c.id), 0), coalesce(sum(c.version), 0), coalesce(sum(u.version), 0)) " +
+            "from Comment c left join c.author u where c.advert.id = :advertId")
+    CommentsVersionProjection findVersionByAdvertId(@Param("advertId") int advertId);
 }
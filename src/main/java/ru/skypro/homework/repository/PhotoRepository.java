@@ -1,10 +1,112 @@
 package ru.skypro.homework.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.skypro.homework.model.Photo;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface PhotoRepository extends JpaRepository<Photo, Integer> {
 
+    List<Photo> findByIdGreaterThanOrderByIdAsc(int id, Pageable pageable);
+
+    /**
+     * Photos stored by id, before deduplication
+     */
+    List<Photo> findBySha256IsNullAndIdGreaterThanOrderByIdAsc(int id, Pageable pageable);
+
+    @Query("select p from photos p where type(p) = :type and p.sha256 = :sha256")
+    Optional<Photo> findByTypeAndSha256(@Param("type") Class<? extends Photo> type, @Param("sha256") String sha256);
+
+    /**
+     * Whether a photo of the type with the content is stored in the directory, i.e. owns the files there
+     */
+    @Query("select case when count(p) > 0 then true else false end from photos p"
+            + " where type(p) = :type and p.sha256 = :sha256 and p.photoDir = :dir")
+    boolean existsByTypeAndSha256AndDir(@Param("type") Class<? extends Photo> type, @Param("sha256") String sha256,
+                                        @Param("dir") String dir);
+
+    /**
+     * Content hashes of the photos of a type in a directory, in order, from the first after {@code after}
+     */
+    @Query("select p.sha256 from photos p where type(p) = :type and p.photoDir = :dir and p.sha256 > :after"
+            + " order by p.sha256")
+    List<String> findSha256s(@Param("type") Class<? extends Photo> type, @Param("dir") String dir,
+                             @Param("after") String after, Pageable pageable);
+
+    /**
+     * Those of the ids that belong to photos still stored by id
+     */
+    @Query("select p.id from photos p where p.id in :ids and p.sha256 is null")
+    List<Integer> findStoredByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Add references to a photo, pending changes are flushed first
+     *
+     * @return 0 if the photo no longer exists
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("update photos p set p.refCount = p.refCount + :count where p.id = :id")
+    int addReferences(@Param("id") int id, @Param("count") int count);
+
+    /**
+     * Delete the photo if nothing refers to it any more, pending changes are flushed first
+     *
+     * @return 1 if the photo was deleted
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("delete from photos p where p.id = :id and p.refCount <= 0")
+    int deleteUnreferenced(@Param("id") int id);
+
+    /**
+     * Point the photo at the directory its files were copied to
+     *
+     * @return 0 if the photo no longer exists
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("update photos p set p.photoDir = :dir where p.id = :id")
+    int relocate(@Param("id") int id, @Param("dir") String dir);
+
+    /**
+     * Delete the photo whatever refers to it; detach its references first
+     *
+     * @return 0 if the photo no longer exists
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("delete from photos p where p.id = :id")
+    int forceDelete(@Param("id") int id);
+
+    @Query(value = "select id from adverts where image_id = :id", nativeQuery = true)
+    List<Integer> findAdvertIdsByImageId(@Param("id") int id);
+
+    @Query(value = "select username from users where avatar_id = :id", nativeQuery = true)
+    List<String> findUsernamesByAvatarId(@Param("id") int id);
+
+    /**
+     * Take the image off the adverts showing it, changing their version so that their entity tags change
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "update adverts set image_id = null, version = version + 1 where image_id = :id",
+            nativeQuery = true)
+    int detachImage(@Param("id") int id);
+
+    @Modifying(flushAutomatically = true)
+    @Query(value = "update users set avatar_id = null, version = version + 1 where avatar_id = :id",
+            nativeQuery = true)
+    int detachAvatar(@Param("id") int id);
+
+    @Modifying(flushAutomatically = true)
+    @Query(value = "update adverts set image_id = :to where image_id = :from", nativeQuery = true)
+    int moveImageReferences(@Param("from") int from, @Param("to") int to);
+
+    @Modifying(flushAutomatically = true)
+    @Query(value = "update users set avatar_id = :to where avatar_id = :from", nativeQuery = true)
+    int moveAvatarReferences(@Param("from") int from, @Param("to") int to);
 }
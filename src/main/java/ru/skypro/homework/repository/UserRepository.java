@@ -1,10 +1,30 @@
 package ru.skypro.homework.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.skypro.homework.dto.SecuringUserDto;
 import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.projection.UserVersionProjection;
+
+import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Integer> {
     User findByUsername(String email);
+
+    boolean existsByUsername(String email);
+
+    @Query("select new ru.skypro.homework.dto.SecuringUserDto(u.id, u.username, u.password, u.role, u.isEnabled, a.id) " +
+            "from User u left join u.avatar a where u.username = :username")
+    Optional<SecuringUserDto> findSecuringUserByUsername(@Param("username") String username);
+
+    @EntityGraph(User.WITH_AVATAR)
+    Optional<User> findWithAvatarById(int id);
+
+    @Query("select new ru.skypro.homework.repository.projection.UserVersionProjection(u.id, u.version) " +
+            "from User u where u.id = :id")
+    Optional<UserVersionProjection> findVersionById(@Param("id") int id);
 }
@@ -0,0 +1,19 @@
+package ru.skypro.homework.repository.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Columns of the adverts table needed to build {@link ru.skypro.homework.dto.AdsDto}.
+ * Created by a JPQL constructor expression, so no {@link ru.skypro.homework.model.Advert}
+ * entity, author or image is loaded into the persistence context.
+ */
+@Getter
+@AllArgsConstructor
+public class AdsProjection {
+    private final int id;
+    private final String title;
+    private final int price;
+    private final Integer authorId;
+    private final Integer imageId;
+}
@@ -0,0 +1,16 @@
+package ru.skypro.homework.repository.projection;
+
+import lombok.Getter;
+
+/**
+ * {@link AdsProjection} of a search hit together with its relevance rank.
+ */
+@Getter
+public class AdsSearchProjection extends AdsProjection {
+    private final double rank;
+
+    public AdsSearchProjection(int id, String title, int price, Integer authorId, Integer imageId, double rank) {
+        super(id, title, price, authorId, imageId);
+        this.rank = rank;
+    }
+}
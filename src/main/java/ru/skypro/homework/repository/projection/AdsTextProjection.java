@@ -0,0 +1,15 @@
+package ru.skypro.homework.repository.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Searchable text of an advert, read in batches to build the in-memory search index
+ */
+@Getter
+@AllArgsConstructor
+public class AdsTextProjection {
+    private final int id;
+    private final String title;
+    private final String description;
+}
@@ -0,0 +1,17 @@
+package ru.skypro.homework.repository.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Summary of the comments of an advert that changes with any of them: adding one raises
+ * the maximum id, deleting one lowers the count, updating a comment or its author raises a version sum
+ */
+@Getter
+@AllArgsConstructor
+public class CommentsVersionProjection {
+    private final long count;
+    private final int maxId;
+    private final long commentVersions;
+    private final long authorVersions;
+}
@@ -0,0 +1,15 @@
+package ru.skypro.homework.repository.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Distinct advert title with the number of adverts using it and the newest of them
+ */
+@Getter
+@AllArgsConstructor
+public class TitleCountProjection {
+    private final String title;
+    private final long count;
+    private final int newestId;
+}
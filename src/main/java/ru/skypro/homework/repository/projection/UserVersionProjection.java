@@ -0,0 +1,14 @@
+package ru.skypro.homework.repository.projection;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Id and version of a user
+ */
+@Getter
+@AllArgsConstructor
+public class UserVersionProjection {
+    private final int id;
+    private final long version;
+}
@@ -0,0 +1,30 @@
+package ru.skypro.homework.security;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.security.core.AuthenticatedPrincipal;
+import ru.skypro.homework.model.Role;
+
+/**
+ * Principal of an authenticated request, so that services know the user without looking it up
+ * by name. Taken from the access token, or from the user loaded by HTTP Basic authentication.
+ * The avatar id is as of the time the token was issued.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class AuthenticatedUser implements AuthenticatedPrincipal {
+    private final int id;
+    private final String username;
+    private final Role role;
+    /**
+     * Id of the avatar photo, null if the user has none
+     */
+    private final Integer avatarId;
+
+    @Override
+    public String getName() {
+        return username;
+    }
+}
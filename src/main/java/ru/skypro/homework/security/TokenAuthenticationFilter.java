@@ -0,0 +1,60 @@
+package ru.skypro.homework.security;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.skypro.homework.exception.InvalidTokenException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Authenticates requests carrying an {@code Authorization: Bearer} access token. The token alone
+ * is enough: no database lookup and no password hashing. The {@link AuthenticatedUser} of the token
+ * becomes the principal, and the verified token the details, so that it can be revoked on logout.
+ * <p>
+ * Not a bean, so that it is only registered in the security filter chain.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+    private static final String PREFIX = TokenService.TOKEN_TYPE + " ";
+
+    private final TokenService tokenService;
+
+    public TokenAuthenticationFilter(TokenService tokenService) {
+        this.tokenService = tokenService;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.regionMatches(true, 0, PREFIX, 0, PREFIX.length())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        TokenService.Token token;
+        try {
+            token = tokenService.verify(header.substring(PREFIX.length()).trim(), TokenService.Type.ACCESS);
+        } catch (InvalidTokenException e) {
+            SecurityContextHolder.clearContext();
+            response.setHeader(HttpHeaders.WWW_AUTHENTICATE, TokenService.TOKEN_TYPE + " error=\"invalid_token\"");
+            response.sendError(HttpStatus.UNAUTHORIZED.value(), e.getMessage());
+            return;
+        }
+        UsernamePasswordAuthenticationToken authentication =
+                new UsernamePasswordAuthenticationToken(token.getUser(), null, Set.of(token.getUser().getRole()));
+        authentication.setDetails(token);
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(authentication);
+        SecurityContextHolder.setContext(context);
+        filterChain.doFilter(request, response);
+    }
+}
@@ -0,0 +1,287 @@
+package ru.skypro.homework.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.dto.TokenDto;
+import ru.skypro.homework.exception.InvalidTokenException;
+import ru.skypro.homework.model.Role;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies the access and refresh tokens handed out by {@code POST /login}.
+ * <p>
+ * Tokens are JWTs signed with HMAC-SHA256 by {@code ads.auth.token.secret}, or by a random key if
+ * none is set, in which case a restart logs everyone out. They carry the {@link AuthenticatedUser},
+ * so an access token is verified without the database. Access tokens live for
+ * {@code ads.auth.token.access-ttl}, refresh tokens for {@code ads.auth.token.refresh-ttl}.
+ * A refresh token also carries a keyed hash of the user's encoded password, so that changing the
+ * password invalidates it. Revoked tokens are kept in memory until they would have expired anyway.
+ */
+@Component
+@Slf4j
+public class TokenService implements MeterBinder {
+    public static final String TOKEN_TYPE = "Bearer";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MIN_SECRET_LENGTH = 32;
+    private static final int CREDENTIALS_STAMP_LENGTH = 12;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final String HEADER = ENCODER.encodeToString(
+            "{\"alg\":\"HS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+
+    private final ObjectMapper objectMapper;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final Duration accessTtl;
+    private final Duration refreshTtl;
+    private final Clock clock;
+    /**
+     * Ids of revoked tokens, with the second they expire at
+     */
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TokenService(ObjectMapper objectMapper,
+                        @Value("${ads.auth.token.secret}") String secret,
+                        @Value("${ads.auth.token.access-ttl}") Duration accessTtl,
+                        @Value("${ads.auth.token.refresh-ttl}") Duration refreshTtl) {
+        this(objectMapper, secret, accessTtl, refreshTtl, Clock.systemUTC());
+    }
+
+    TokenService(ObjectMapper objectMapper, String secret, Duration accessTtl, Duration refreshTtl, Clock clock) {
+        this.objectMapper = objectMapper;
+        this.key = new SecretKeySpec(secret(secret), ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::mac);
+        this.accessTtl = accessTtl;
+        this.refreshTtl = refreshTtl;
+        this.clock = clock;
+        mac();
+    }
+
+    /**
+     * Kind of token: only access tokens authenticate requests, only refresh tokens get new ones
+     */
+    public enum Type {
+        ACCESS, REFRESH
+    }
+
+    /**
+     * A verified token
+     */
+    @Getter
+    public static class Token {
+        private final String id;
+        private final Type type;
+        private final AuthenticatedUser user;
+        /**
+         * Epoch second the token expires at
+         */
+        private final long expiresAt;
+        /**
+         * Keyed hash of the encoded password the token was issued for, {@code null} in access tokens
+         */
+        @Getter(AccessLevel.NONE)
+        private final String credentialsStamp;
+
+        Token(String id, Type type, AuthenticatedUser user, long expiresAt, String credentialsStamp) {
+            this.id = id;
+            this.type = type;
+            this.user = user;
+            this.expiresAt = expiresAt;
+            this.credentialsStamp = credentialsStamp;
+        }
+    }
+
+    /**
+     * Issue a pair of access and refresh tokens
+     *
+     * @param user     user
+     * @param password encoded password of the user, the refresh token is valid only while it is unchanged
+     * @return tokens
+     */
+    public TokenDto issue(AuthenticatedUser user, String password) {
+        return new TokenDto(sign(Type.ACCESS, user, accessTtl, null),
+                sign(Type.REFRESH, user, refreshTtl, credentialsStamp(password)),
+                TOKEN_TYPE,
+                accessTtl.toSeconds());
+    }
+
+    /**
+     * Verify the signature, expiry and type of a token, and that it is not revoked
+     *
+     * @param token token
+     * @param type  expected type
+     * @return the token
+     * @throws InvalidTokenException if the token is not valid
+     */
+    public Token verify(String token, Type type) {
+        int header = token.indexOf('.');
+        int payload = token.indexOf('.', header + 1);
+        if (header != HEADER.length() || payload < 0 || !token.startsWith(HEADER)) {
+            throw new InvalidTokenException("Malformed token");
+        }
+        byte[] signature;
+        try {
+            signature = DECODER.decode(token.substring(payload + 1));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidTokenException("Malformed token");
+        }
+        if (!MessageDigest.isEqual(signature, signature(token.substring(0, payload)))) {
+            throw new InvalidTokenException("Invalid token signature");
+        }
+        Token verified = parse(token.substring(header + 1, payload));
+        if (verified.getType() != type) {
+            throw new InvalidTokenException("Wrong token type");
+        }
+        if (verified.getExpiresAt() <= clock.instant().getEpochSecond()) {
+            throw new InvalidTokenException("Token expired");
+        }
+        if (revoked.containsKey(verified.getId())) {
+            throw new InvalidTokenException("Token revoked");
+        }
+        return verified;
+    }
+
+    /**
+     * Whether the token was issued while the user had this password
+     *
+     * @param token    verified refresh token
+     * @param password current encoded password of the user
+     */
+    public boolean matchesCredentials(Token token, String password) {
+        return token.credentialsStamp != null && MessageDigest.isEqual(
+                token.credentialsStamp.getBytes(StandardCharsets.US_ASCII),
+                credentialsStamp(password).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Reject the token from now on, until it expires
+     */
+    public void revoke(Token token) {
+        revoked.put(token.getId(), token.getExpiresAt());
+    }
+
+    /**
+     * Revoke the token unless it is revoked already, so that of concurrent calls with the same
+     * single-use token only one gets through
+     *
+     * @throws InvalidTokenException if the token has been revoked or consumed already
+     */
+    public void consume(Token token) {
+        if (revoked.putIfAbsent(token.getId(), token.getExpiresAt()) != null) {
+            throw new InvalidTokenException("Token revoked");
+        }
+    }
+
+    /**
+     * Forget revoked tokens that have expired
+     */
+    @Scheduled(fixedDelayString = "${ads.auth.token.purge-interval}")
+    public void purge() {
+        long now = clock.instant().getEpochSecond();
+        revoked.values().removeIf(expiresAt -> expiresAt <= now);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("ads.auth.tokens.revoked", revoked, Map::size)
+                .description("Revoked tokens not expired yet")
+                .register(registry);
+    }
+
+    private String sign(Type type, AuthenticatedUser user, Duration ttl, String credentialsStamp) {
+        long now = clock.instant().getEpochSecond();
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("jti", UUID.randomUUID().toString());
+        claims.put("typ", type.name());
+        claims.put("sub", user.getUsername());
+        claims.put("uid", user.getId());
+        claims.put("role", user.getRole().name());
+        claims.put("avatar", user.getAvatarId());
+        claims.put("iat", now);
+        claims.put("exp", now + ttl.toSeconds());
+        if (credentialsStamp != null) {
+            claims.put("cst", credentialsStamp);
+        }
+        String unsigned;
+        try {
+            unsigned = HEADER + '.' + ENCODER.encodeToString(objectMapper.writeValueAsBytes(claims));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return unsigned + '.' + ENCODER.encodeToString(signature(unsigned));
+    }
+
+    private Token parse(String payload) {
+        try {
+            JsonNode claims = objectMapper.readTree(DECODER.decode(payload));
+            return new Token(claims.get("jti").textValue(),
+                    Type.valueOf(claims.get("typ").textValue()),
+                    new AuthenticatedUser(claims.get("uid").intValue(),
+                            claims.get("sub").textValue(),
+                            Role.valueOf(claims.get("role").textValue()),
+                            claims.get("avatar").isNull() ? null : claims.get("avatar").intValue()),
+                    claims.get("exp").longValue(),
+                    claims.hasNonNull("cst") ? claims.get("cst").textValue() : null);
+        } catch (IOException | RuntimeException e) {
+            throw new InvalidTokenException("Malformed token");
+        }
+    }
+
+    private String credentialsStamp(String password) {
+        return ENCODER.encodeToString(Arrays.copyOf(signature("cst." + password), CREDENTIALS_STAMP_LENGTH));
+    }
+
+    private byte[] signature(String unsigned) {
+        return macs.get().doFinal(unsigned.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Mac mac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] secret(String secret) {
+        if (secret.isEmpty()) {
+            log.warn("ads.auth.token.secret is not set, tokens will not survive a restart");
+            byte[] random = new byte[MIN_SECRET_LENGTH];
+            new SecureRandom().nextBytes(random);
+            return random;
+        }
+        byte[] bytes = secret.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < MIN_SECRET_LENGTH) {
+            throw new IllegalArgumentException("ads.auth.token.secret must be at least " + MIN_SECRET_LENGTH + " bytes");
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,17 @@
+package ru.skypro.homework.security;
+
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Password authentication for HTTP Basic that makes an {@link AuthenticatedUser} the principal,
+ * as {@link TokenAuthenticationFilter} does for tokens.
+ */
+public class UserAuthenticationProvider extends DaoAuthenticationProvider {
+    @Override
+    protected Authentication createSuccessAuthentication(Object principal, Authentication authentication,
+                                                         UserDetails user) {
+        return super.createSuccessAuthentication(((UserDetailsImpl) user).toAuthenticatedUser(), authentication, user);
+    }
+}
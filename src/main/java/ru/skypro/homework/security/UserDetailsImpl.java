@@ -48,4 +48,8 @@ public class UserDetailsImpl implements UserDetails {
     public boolean isEnabled() {
         return user.isEnabled();
     }
+
+    public AuthenticatedUser toAuthenticatedUser() {
+        return new AuthenticatedUser(user.getId(), user.getUsername(), user.getRole(), user.getAvatarId());
+    }
 }
@@ -0,0 +1,31 @@
+package ru.skypro.homework.security;
+
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+import ru.skypro.homework.configuration.CacheConfig;
+import ru.skypro.homework.repository.UserRepository;
+
+/**
+ * Loads the id, username, password hash, role, enabled flag and avatar id of a user in one query by
+ * the unique username. Cached in {@link CacheConfig#USER_DETAILS}; {@link ru.skypro.homework.service.UserService}
+ * evicts a user whose password, role or avatar changes.
+ */
+@Service
+public class UserDetailsServiceImpl implements UserDetailsService {
+    private final UserRepository userRepository;
+
+    public UserDetailsServiceImpl(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @Override
+    @Cacheable(cacheNames = CacheConfig.USER_DETAILS, key = "#username")
+    public UserDetails loadUserByUsername(String username) {
+        return userRepository.findSecuringUserByUsername(username)
+                .map(UserDetailsImpl::new)
+                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+    }
+}
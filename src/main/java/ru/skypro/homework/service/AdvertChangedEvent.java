@@ -0,0 +1,39 @@
+package ru.skypro.homework.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import ru.skypro.homework.model.Advert;
+
+/**
+ * Published by {@link AdvertService} when an advert is created, updated or deleted.
+ * Carries the searchable and aggregated state before and after the change, so listeners do not have to
+ * read the adverts table again once the transaction has committed.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class AdvertChangedEvent {
+    private final int id;
+    /**
+     * State before the change, {@code null} for a created advert
+     */
+    private final State before;
+    /**
+     * State after the change, {@code null} for a deleted advert
+     */
+    private final State after;
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class State {
+        private final String title;
+        private final String description;
+        private final int price;
+
+        public static State of(Advert advert) {
+            return new State(advert.getTitle(), advert.getDescription(), advert.getPrice());
+        }
+    }
+}
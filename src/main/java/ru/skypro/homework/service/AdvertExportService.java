@@ -0,0 +1,90 @@
+package ru.skypro.homework.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import ru.skypro.homework.dto.AdsDto;
+import ru.skypro.homework.dto.AdsExportRequestDto;
+import ru.skypro.homework.dto.ResponseWrapperAdsDto;
+import ru.skypro.homework.mapper.AdvertMapper;
+import ru.skypro.homework.repository.AdsFilter;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.projection.AdsProjection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Service for writing whole advert listings as a stream, in constant memory. Adverts are read in
+ * keyset chunks of {@link #CHUNK_SIZE}, each in its own short transaction, so that no pooled
+ * connection is held while the response waits for a slow client.
+ */
+@Service
+@Slf4j
+public class AdvertExportService {
+    /**
+     * Adverts read per query, only these are held in memory at a time
+     */
+    public static final int CHUNK_SIZE = 500;
+
+    private final AdvertRepository advertRepository;
+    private final AdvertMapper advertMapper;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter advertWriter;
+
+    public AdvertExportService(AdvertRepository advertRepository,
+                               AdvertMapper advertMapper,
+                               ObjectMapper objectMapper) {
+        this.advertRepository = advertRepository;
+        this.advertMapper = advertMapper;
+        this.objectMapper = objectMapper;
+        this.advertWriter = objectMapper.writerFor(AdsDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Write all adverts matching the filters as a {@link ResponseWrapperAdsDto}, newest first.
+     * Chunks are read with {@link AdvertRepository#findPageById} and written one by one, so
+     * {@code count} follows {@code results} and there is no {@code next} page. Each chunk is read
+     * in a transaction of its own, so adverts created during the export are not included and
+     * adverts deleted during it may be.
+     *
+     * @param request filters
+     * @param out     response body, closed when done
+     * @return number of adverts written
+     */
+    public int writeAll(AdsExportRequestDto request, OutputStream out) throws IOException {
+        log.info("Export adverts: " + request);
+        AdsFilter filter = new AdsFilter(request.getAuthorId(), request.getPriceFrom(), request.getPriceTo(),
+                request.getHasImage());
+        Pageable chunk = PageRequest.of(0, CHUNK_SIZE);
+        int count = 0;
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("results");
+            List<AdsProjection> adverts;
+            int beforeId = Integer.MAX_VALUE;
+            do {
+                adverts = advertRepository.findPageById(filter, beforeId, chunk);
+                for (AdsProjection advert : adverts) {
+                    advertWriter.writeValue(json, advertMapper.projectionToAdsDto(advert));
+                    beforeId = advert.getId();
+                    count++;
+                }
+                json.flush();
+            } while (adverts.size() == CHUNK_SIZE);
+            json.writeEndArray();
+            json.writeNumberField("count", count);
+            json.writeNullField("next");
+            json.writeNullField("priceFacets");
+            json.writeEndObject();
+        }
+        return count;
+    }
+}
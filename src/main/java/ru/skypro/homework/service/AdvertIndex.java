@@ -0,0 +1,130 @@
+package ru.skypro.homework.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.projection.AdsTextProjection;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link InvertedIndex} over advert titles and descriptions, used by {@link SearchEngine#INDEX}.
+ * Built from {@link AdvertRepository} once the application is ready and kept up to date
+ * from {@link AdvertChangedEvent}s after their transactions commit.
+ * Does nothing when another search engine is configured.
+ */
+@Component
+@Slf4j
+public class AdvertIndex implements MeterBinder {
+    private static final int BATCH_SIZE = 10_000;
+
+    private final InvertedIndex index = new InvertedIndex();
+    private final AdvertRepository advertRepository;
+    private final boolean enabled;
+    /**
+     * Changes committed while the index is being built, replayed once it is complete
+     */
+    private final List<AdvertChangedEvent> pending = new ArrayList<>();
+    private volatile boolean ready;
+
+    public AdvertIndex(AdvertRepository advertRepository,
+                       @Value("${ads.search.engine}") SearchEngine searchEngine) {
+        this.advertRepository = advertRepository;
+        this.enabled = searchEngine == SearchEngine.INDEX;
+    }
+
+    /**
+     * Whether the index has been built and can answer queries
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @see InvertedIndex#search
+     */
+    public int[] search(String query, int beforeId, int limit) {
+        return index.search(query, beforeId, limit);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        int adverts = 0;
+        List<AdsTextProjection> batch;
+        int lastId = 0;
+        do {
+            batch = advertRepository.findTextPage(lastId, PageRequest.of(0, BATCH_SIZE));
+            for (AdsTextProjection advert : batch) {
+                index.update(advert.getId(), Set.of(), terms(advert.getTitle(), advert.getDescription()));
+                lastId = advert.getId();
+            }
+            adverts += batch.size();
+        } while (batch.size() == BATCH_SIZE);
+        synchronized (pending) {
+            pending.forEach(this::apply);
+            pending.clear();
+            ready = true;
+        }
+        log.info("Indexed " + adverts + " adverts, " + index.termCount() + " terms in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAdvertChanged(AdvertChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (pending) {
+            if (!ready) {
+                pending.add(event);
+                return;
+            }
+        }
+        apply(event);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("ads.search.index.memory", index, InvertedIndex::memoryBytes)
+                .description("Estimated heap used by the advert search index")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("ads.search.index.terms", index, InvertedIndex::termCount)
+                .description("Distinct terms in the advert search index")
+                .register(registry);
+    }
+
+    private void apply(AdvertChangedEvent event) {
+        Set<String> before = terms(event.getBefore());
+        Set<String> after = terms(event.getAfter());
+        Set<String> removed = new HashSet<>(before);
+        removed.removeAll(after);
+        after.removeAll(before);
+        index.update(event.getId(), removed, after);
+    }
+
+    private static Set<String> terms(AdvertChangedEvent.State state) {
+        return state == null ? new HashSet<>() : terms(state.getTitle(), state.getDescription());
+    }
+
+    private static Set<String> terms(String title, String description) {
+        Set<String> terms = InvertedIndex.terms(title);
+        terms.addAll(InvertedIndex.terms(description));
+        return terms;
+    }
+}
@@ -1,28 +1,47 @@
 package ru.skypro.homework.service;
 
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.security.core.Authentication;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
 import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.configuration.CacheConfig;
 import ru.skypro.homework.dto.AdsDto;
+import ru.skypro.homework.dto.AdsPageRequestDto;
+import ru.skypro.homework.dto.AdsSearchRequestDto;
+import ru.skypro.homework.dto.AdsSort;
 import ru.skypro.homework.dto.CreateAdsDto;
 import ru.skypro.homework.dto.FullAdsDto;
+import ru.skypro.homework.dto.PageCursor;
+import ru.skypro.homework.dto.PriceFacetDto;
 import ru.skypro.homework.dto.ResponseWrapperAdsDto;
 import ru.skypro.homework.exception.ActionForbiddenException;
 import ru.skypro.homework.exception.AdvertNotFoundException;
-import ru.skypro.homework.exception.UserUnauthorizedException;
 import ru.skypro.homework.mapper.AdvertMapper;
 import ru.skypro.homework.model.Advert;
 import ru.skypro.homework.model.Image;
-import ru.skypro.homework.model.User;
+import ru.skypro.homework.model.Role;
+import ru.skypro.homework.repository.AdsFilter;
 import ru.skypro.homework.repository.AdvertRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.repository.projection.AdsProjection;
+import ru.skypro.homework.repository.projection.AdsSearchProjection;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.function.ToLongFunction;
 
 /**
  * service for maintain adverts via {@link AdvertRepository}
@@ -30,39 +49,69 @@ import java.util.Optional;
 @Service
 @Slf4j
 public class AdvertService {
+    /**
+     * Upper bound of a listing page, whatever size the client asks for
+     */
+    public static final int MAX_PAGE_SIZE = 100;
+    /**
+     * Upper bound of the number of title suggestions
+     */
+    public static final int MAX_SUGGESTIONS = 20;
+
+    @Value("${ads.search.engine}")
+    private SearchEngine searchEngine;
+    @Value("${ads.search.fuzzy.threshold}")
+    private double fuzzyThreshold;
+    @Value("${ads.search.fuzzy.recency-weight}")
+    private double fuzzyRecencyWeight;
+
     private final AdvertRepository advertRepository;
     private final AdvertMapper advertMapper;
     private final UserRepository userRepository;
     private final PhotoService photoService;
     private final AuthenticationComponent auth;
+    private final AdvertIndex advertIndex;
+    private final TitleSuggester titleSuggester;
+    private final PriceHistogram priceHistogram;
+    private final ApplicationEventPublisher eventPublisher;
 
     public AdvertService(AdvertRepository advertRepository,
                          AdvertMapper advertMapper,
                          UserRepository userRepository,
                          PhotoService photoService,
-                         AuthenticationComponent auth) {
+                         AuthenticationComponent auth,
+                         AdvertIndex advertIndex,
+                         TitleSuggester titleSuggester,
+                         PriceHistogram priceHistogram,
+                         ApplicationEventPublisher eventPublisher) {
         this.advertRepository = advertRepository;
         this.advertMapper = advertMapper;
         this.userRepository = userRepository;
         this.photoService = photoService;
         this.auth = auth;
+        this.advertIndex = advertIndex;
+        this.titleSuggester = titleSuggester;
+        this.priceHistogram = priceHistogram;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
-     * Create advert via {@link AdvertRepository}
+     * Create advert via {@link AdvertRepository}, authored by the authorized user
      *
      * @param properties data to create advert
-     * @param file       image file
+     * @param upload     received image
      * @return advert DTO object
      */
     @Transactional
-    public AdsDto create(Authentication auth, CreateAdsDto properties, MultipartFile file) {
+    public AdsDto create(CreateAdsDto properties, PhotoUpload upload) {
         log.info("Creat advert with properties: " + properties);
-        Image image = photoService.uploadImage(file);
+        Image image = photoService.uploadImage(upload);
         Advert advert = advertMapper.createAdsDtoToAdvert(properties);
-        advert.setAuthor(userRepository.findByUsername(auth.getName()));
+        advert.setAuthor(userRepository.getReferenceById(auth.getUser().getId()));
         advert.setImage(image);
-        return advertMapper.advertToAdsDto(advertRepository.save(advert));
+        Advert saved = advertRepository.save(advert);
+        eventPublisher.publishEvent(new AdvertChangedEvent(saved.getId(), null, AdvertChangedEvent.State.of(saved)));
+        return advertMapper.advertToAdsDto(saved);
     }
 
     /**
@@ -71,12 +120,14 @@ public class AdvertService {
      * @param id advert id
      */
     @Transactional
+    @CacheEvict(cacheNames = CacheConfig.FULL_ADS, key = "#id")
     public void delete(int id) {
         log.info("Delete advert with id: " + id);
         Advert advert = findAdvertWithAuth(id);
         Image image = advert.getImage();
         advertRepository.delete(advert);
-        photoService.deleteFile(image);
+        photoService.release(image);
+        eventPublisher.publishEvent(new AdvertChangedEvent(id, AdvertChangedEvent.State.of(advert), null));
     }
 
     /**
@@ -87,26 +138,30 @@ public class AdvertService {
      * @return advert DTO object
      */
     @Transactional
+    @CacheEvict(cacheNames = CacheConfig.FULL_ADS, key = "#id")
     public AdsDto update(int id, CreateAdsDto properties) {
         log.info("Update advert with id: " + id);
         Advert advert = findAdvertWithAuth(id);
+        AdvertChangedEvent.State before = AdvertChangedEvent.State.of(advert);
         advertMapper.updateAdvert(properties, advert);
         advertRepository.save(advert);
+        eventPublisher.publishEvent(new AdvertChangedEvent(id, before, AdvertChangedEvent.State.of(advert)));
         return advertMapper.advertToAdsDto(advert);
     }
 
     /**
      * Update advert image
      *
-     * @param id   advert id
-     * @param file image file
+     * @param id     advert id
+     * @param upload received image
+     * @return stored image
      */
     @Transactional
-    public byte[] updateImage(int id, MultipartFile file) throws IOException {
+    @CacheEvict(cacheNames = CacheConfig.FULL_ADS, key = "#id")
+    public Image updateImage(int id, PhotoUpload upload) {
         log.info("Update advert image with id: " + id);
         Advert advert = findAdvertWithAuth(id);
-        photoService.uploadImage(advert, file);
-        return file.getBytes();
+        return photoService.uploadImage(advert, upload);
     }
 
     /**
@@ -117,51 +172,179 @@ public class AdvertService {
      */
     public Image downloadImage(int id) {
         log.info("Download advert image with id: " + id);
-        Advert advert = advertRepository.findById(id)
+        Advert advert = advertRepository.findWithImageById(id)
                 .orElseThrow(() -> new AdvertNotFoundException("Advert not found"));
         return advert.getImage();
     }
 
     /**
-     * Find all adverts via {@link AdvertRepository}
+     * Find a page of adverts via {@link AdvertRepository}. Count and price facets of an unfiltered
+     * listing come from {@link PriceHistogram} instead of the adverts table.
      *
-     * @return list of adverts
+     * @param page cursor, size, sort and filters of the page
+     * @return page of adverts
      */
-    public ResponseWrapperAdsDto findAll() {
-        log.info("Find all adverts");
-        List<Advert> adverts = advertRepository.findAll();
-        return advertMapper.listToRespWrapperAdsDto(adverts);
+    @Transactional(readOnly = true)
+    public ResponseWrapperAdsDto findAll(AdsPageRequestDto page) {
+        log.info("Find adverts page: " + page);
+        return findPage(page.getAuthorId(), page);
     }
 
     /**
-     * Find advert by id via {@link AdvertRepository}
+     * Find advert card by id via {@link AdvertRepository}. Cached in {@link CacheConfig#FULL_ADS}
+     * until the advert or its author changes, together with its entity tag, so that the tag sent
+     * with a card is always the one of the versions it was read at.
      *
      * @param id advert id
-     * @return advert DTO object
+     * @return advert card with its entity tag
      */
-    public FullAdsDto findById(int id) {
+    @Cacheable(cacheNames = CacheConfig.FULL_ADS, key = "#id")
+    public Card findById(int id) {
         log.info("Find advert by id: " + id);
         Advert advert = findAdvert(id);
-        return advertMapper.advertToFullAdsDto(advert);
+        long authorVersion = advert.getAuthor() == null ? 0 : advert.getAuthor().getVersion();
+        return new Card(advertMapper.advertToFullAdsDto(advert), advert.getVersion() + "." + authorVersion);
     }
 
     /**
-     * Find all adverts for authorized user via {@link AdvertRepository} and {@link UserRepository}
+     * Find a page of adverts for authorized user via {@link AdvertRepository}
      *
-     * @return list of adverts
+     * @param page cursor, size, sort and filters of the page; the author filter is the authorized user
+     * @return page of adverts
      */
-    public ResponseWrapperAdsDto findAllByAuthUser() {
+    @Transactional(readOnly = true)
+    public ResponseWrapperAdsDto findAllByAuthUser(AdsPageRequestDto page) {
         log.info("Find adverts by user name");
-        List<Advert> adverts = findAdvertsWithAuth();
-        return advertMapper.listToRespWrapperAdsDto(adverts);
+        return findPage(auth.getUser().getId(), page);
+    }
+
+    /**
+     * Search adverts by title and description with the configured {@link SearchEngine}.
+     * A fuzzy request matches misspelled titles by trigram similarity with {@link SearchEngine#FULL_TEXT}
+     * and is a plain search with the other engines.
+     *
+     * @param request query, cursor, size of the page and search mode
+     * @return page of adverts, most relevant first
+     */
+    @Transactional(readOnly = true)
+    public ResponseWrapperAdsDto search(AdsSearchRequestDto request) {
+        log.info("Search adverts: " + request);
+        int size = pageSize(request.getSize());
+        PageCursor cursor = request.getCursor() == null ? null : PageCursor.decode(request.getCursor());
+        String query = request.getQ() == null ? "" : request.getQ().trim();
+        if (query.isEmpty()) {
+            return advertMapper.projectionListToRespWrapperAdsDto(List.of());
+        }
+        List<AdsProjection> adverts;
+        int pin = 0;
+        if (searchEngine == SearchEngine.FULL_TEXT) {
+            double rank = cursor == null ? Double.MAX_VALUE : Double.longBitsToDouble(cursor.getKey());
+            int id = cursor == null ? Integer.MAX_VALUE : cursor.getId();
+            List<AdsSearchProjection> hits;
+            if (request.isFuzzy()) {
+                // recency is relative to the newest advert of the first page, so scores do not shift between pages
+                pin = cursor != null && cursor.getPin() > 0 ? cursor.getPin() : advertRepository.findMaxId();
+                hits = advertRepository.searchFuzzy(query, fuzzyThreshold, fuzzyRecencyWeight, pin, rank, id, size + 1);
+            } else {
+                hits = advertRepository.searchFullText(query, rank, id, size + 1);
+            }
+            adverts = Collections.unmodifiableList(hits);
+        } else if (searchEngine == SearchEngine.INDEX && advertIndex.isReady()) {
+            int[] ids = advertIndex.search(query, cursor == null ? Integer.MAX_VALUE : cursor.getId(), size + 1);
+            adverts = ids.length == 0 ? List.of()
+                    : advertRepository.findPageByIdIn(IntStream.of(ids).boxed().collect(Collectors.toList()));
+        } else {
+            adverts = advertRepository.searchLike("%" + escapeLike(query.toLowerCase()) + "%",
+                    cursor == null ? Integer.MAX_VALUE : cursor.getId(), PageRequest.of(0, size + 1));
+        }
+        return toPage(adverts, size, last -> last instanceof AdsSearchProjection
+                ? Double.doubleToLongBits(((AdsSearchProjection) last).getRank())
+                : last.getId(), pin);
+    }
+
+    /**
+     * Suggest advert titles while the user types, served by {@link TitleSuggester} without database access
+     *
+     * @param prefix beginning of the title
+     * @param size   maximum number of titles
+     * @return titles, most used and newest first
+     */
+    public List<String> suggest(String prefix, int size) {
+        if (prefix == null || prefix.isBlank()) {
+            return List.of();
+        }
+        return titleSuggester.suggest(prefix, Math.max(1, Math.min(size, MAX_SUGGESTIONS)));
+    }
+
+    private ResponseWrapperAdsDto findPage(Integer authorId, AdsPageRequestDto page) {
+        int size = pageSize(page.getSize());
+        PageCursor cursor = page.getCursor() == null ? null : PageCursor.decode(page.getCursor());
+        Pageable limit = PageRequest.of(0, size + 1);
+        AdsFilter filter = new AdsFilter(authorId, page.getPriceFrom(), page.getPriceTo(), page.getHasImage());
+        List<AdsProjection> adverts;
+        if (page.getSort() == AdsSort.PRICE) {
+            adverts = cursor == null
+                    ? advertRepository.findPageByPrice(filter, Integer.MIN_VALUE, Integer.MIN_VALUE, limit)
+                    : advertRepository.findPageByPrice(filter, (int) cursor.getKey(), cursor.getId(), limit);
+        } else {
+            adverts = advertRepository.findPageById(filter,
+                    cursor == null ? Integer.MAX_VALUE : cursor.getId(), limit);
+        }
+        ResponseWrapperAdsDto result = toPage(adverts, size,
+                last -> page.getSort() == AdsSort.PRICE ? last.getPrice() : last.getId(), 0);
+        long[] histogram = filter.isEmpty() ? priceHistogram.counts() : null;
+        if (page.isWithCount()) {
+            long count = histogram != null ? LongStream.of(histogram).sum() : advertRepository.countByFilter(filter);
+            result.setCount((int) count);
+        }
+        if (page.isWithFacets()) {
+            int[] bounds = priceHistogram.getBounds();
+            long[] counts = histogram != null ? histogram : advertRepository.countPriceBuckets(filter, bounds);
+            result.setPriceFacets(toPriceFacets(bounds, counts));
+        }
+        return result;
+    }
+
+    private static List<PriceFacetDto> toPriceFacets(int[] bounds, long[] counts) {
+        List<PriceFacetDto> facets = new ArrayList<>(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            facets.add(new PriceFacetDto(i == 0 ? null : bounds[i - 1], i == bounds.length ? null : bounds[i], counts[i]));
+        }
+        return facets;
+    }
+
+    /**
+     * Map at most {@code size} rows to a page; a row beyond that means there is a next page,
+     * whose cursor is built from the last returned row, its sort key and the pinned value
+     */
+    private ResponseWrapperAdsDto toPage(List<AdsProjection> adverts, int size,
+                                         ToLongFunction<AdsProjection> sortKey, int pin) {
+        boolean hasNext = adverts.size() > size;
+        if (hasNext) {
+            adverts = adverts.subList(0, size);
+        }
+        ResponseWrapperAdsDto result = advertMapper.projectionListToRespWrapperAdsDto(adverts);
+        if (hasNext) {
+            AdsProjection last = adverts.get(adverts.size() - 1);
+            result.setNext(new PageCursor(sortKey.applyAsLong(last), last.getId(), pin).encode());
+        }
+        return result;
+    }
+
+    private static int pageSize(int requested) {
+        return Math.max(1, Math.min(requested, MAX_PAGE_SIZE));
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
     private Advert findAdvert(int id) {
-        return advertRepository.findById(id).orElseThrow(() -> new AdvertNotFoundException("Advert not found"));
+        return advertRepository.findWithAuthorById(id).orElseThrow(() -> new AdvertNotFoundException("Advert not found"));
     }
 
     private Advert findAdvertWithAuth(int id) {
-        Optional<Advert> advert = advertRepository.findById(id);
+        Optional<Advert> advert = advertRepository.findWithAuthorById(id);
         if (!advert.isPresent()) {
             throw new AdvertNotFoundException("Advert not found");
         }
@@ -171,19 +354,24 @@ public class AdvertService {
         return advert.get();
     }
 
-    private List<Advert> findAdvertsWithAuth() {
-        User user = userRepository.findByUsername(auth.getAuth().getName());
-        if (user == null) {
-            throw new UserUnauthorizedException("User not found");
-        }
-        return advertRepository.findByAuthorId(user.getId());
+    /**
+     * Advert card with the entity tag derived from the versions of the advert and its author
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Card {
+        private final FullAdsDto ads;
+        private final String eTag;
     }
 
-    public void deleteByAdmin(int id, Authentication authentication) {
-        User user = userRepository.findByUsername(authentication.getName());
-        if (user.getRole().getAuthority().equals("ROLE_ADMIN")) {
+    @Transactional
+    @CacheEvict(cacheNames = CacheConfig.FULL_ADS, key = "#id")
+    public void deleteByAdmin(int id) {
+        if (auth.getUser().getRole() == Role.ADMIN) {
             Optional<Advert> advert = advertRepository.findById(id);
             advertRepository.delete(advert.get());
+            photoService.release(advert.get().getImage());
+            eventPublisher.publishEvent(new AdvertChangedEvent(id, AdvertChangedEvent.State.of(advert.get()), null));
         }
     }
 }
@@ -0,0 +1,97 @@
+package ru.skypro.homework.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.skypro.homework.repository.AdvertRepository;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Orders the commits of advert changes against snapshots of the adverts table, so that a component counting
+ * the table and then applying {@link AdvertChangedEvent}s knows which events the count already contains.
+ * <p>
+ * A transaction that publishes an {@link AdvertChangedEvent} holds the shared side of a lock from just before it
+ * commits until its after-commit listeners have run. {@link #read} takes the exclusive side only while it pins a
+ * repeatable read snapshot with a cheap statement: every change delivered before that is in the snapshot, every
+ * change delivered after it is not. Commits wait for at most {@code ads.snapshots.lock-timeout} meanwhile;
+ * a snapshot that can not be pinned within it is skipped.
+ */
+@Component
+public class AdvertSnapshotBarrier {
+    private final ReentrantReadWriteLock commits = new ReentrantReadWriteLock();
+    private final AdvertRepository advertRepository;
+    private final TransactionTemplate repeatableRead;
+    private final Duration lockTimeout;
+
+    public AdvertSnapshotBarrier(AdvertRepository advertRepository,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${ads.snapshots.lock-timeout}") Duration lockTimeout) {
+        this.advertRepository = advertRepository;
+        this.repeatableRead = new TransactionTemplate(transactionManager);
+        this.repeatableRead.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.repeatableRead.setReadOnly(true);
+        this.lockTimeout = lockTimeout;
+    }
+
+    /**
+     * Hold the commit of the publishing transaction against {@link #read} until the event has been delivered
+     */
+    @EventListener
+    public void onAdvertChanged(AdvertChangedEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                commits.readLock().lock();
+                // registered after the synchronizations of the after-commit listeners, so it completes after them
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        commits.readLock().unlock();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read a snapshot of the adverts table
+     *
+     * @param pinned called right after the snapshot is pinned, while no advert change is between its commit and
+     *               its delivery: the changes delivered before are in the snapshot, those delivered after are not
+     * @param read   reads the snapshot
+     * @return what was read, empty if commits kept the snapshot from being pinned
+     */
+    public <T> Optional<T> read(Runnable pinned, Supplier<T> read) {
+        return repeatableRead.execute(status -> {
+            try {
+                if (!commits.writeLock().tryLock(lockTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    return Optional.empty();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            }
+            try {
+                // the first statement takes the snapshot of a repeatable read transaction
+                advertRepository.findMaxId();
+                pinned.run();
+            } finally {
+                commits.writeLock().unlock();
+            }
+            return Optional.ofNullable(read.get());
+        });
+    }
+}
@@ -1,9 +1,15 @@
 package ru.skypro.homework.service;
 
+import org.springframework.security.core.Authentication;
 import ru.skypro.homework.dto.RegisterReqDto;
+import ru.skypro.homework.dto.TokenDto;
 import ru.skypro.homework.model.Role;
 
+import java.util.Optional;
+
 public interface AuthService {
-    boolean login(String userName, String password);
+    Optional<TokenDto> login(String userName, String password);
+    TokenDto refresh(String refreshToken);
+    void logout(Authentication auth, String refreshToken);
     boolean register(RegisterReqDto registerReq, Role role);
 }
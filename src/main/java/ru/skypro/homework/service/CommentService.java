@@ -12,10 +12,10 @@ import ru.skypro.homework.exception.CommentNotFoundException;
 import ru.skypro.homework.mapper.CommentMapper;
 import ru.skypro.homework.model.Advert;
 import ru.skypro.homework.model.Comment;
-import ru.skypro.homework.model.User;
 import ru.skypro.homework.repository.AdvertRepository;
 import ru.skypro.homework.repository.CommentRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.repository.projection.CommentsVersionProjection;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -56,10 +56,9 @@ public class CommentService {
     public CommentDto create(Integer advertId, CommentDto commentDto) {
         log.info("creating comment:" + commentDto.getText() + " for advert with id: " + advertId);
         Advert advert = findAdvert(advertId);
-        User user = userRepository.findByUsername(auth.getAuth().getName());
         Comment comment = commentMapper.commentDtoToComment(commentDto);
         comment.setCreatedAt(LocalDateTime.now());
-        comment.setAuthor(user);
+        comment.setAuthor(userRepository.getReferenceById(auth.getUser().getId()));
         comment.setAdvert(advert);
         commentRepository.save(comment);
         return commentMapper.commentToCommentDto(comment);
@@ -108,13 +107,25 @@ public class CommentService {
         return commentMapper.listToRespWrapperCommentDto(comments);
     }
 
+    /**
+     * Entity tag of the comments of an advert, changes whenever a comment or its author does
+     *
+     * @param advertId advert id
+     * @return entity tag
+     */
+    public String findETag(Integer advertId) {
+        CommentsVersionProjection versions = commentRepository.findVersionByAdvertId(advertId);
+        return versions.getCount() + "." + versions.getMaxId() + "."
+                + versions.getCommentVersions() + "." + versions.getAuthorVersions();
+    }
+
     private Advert findAdvert(int id) {
         return advertRepository.findById(id)
                 .orElseThrow(() -> new AdvertNotFoundException("Advert not found"));
     }
 
     public Comment findCommentWithAuth(Advert advert, int id) {
-        Optional<Comment> comment = commentRepository.findById(id);
+        Optional<Comment> comment = commentRepository.findWithAuthorById(id);
         if (!comment.isPresent()) {
             throw new CommentNotFoundException("Comment not found");
         }
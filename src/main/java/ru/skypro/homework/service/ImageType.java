@@ -0,0 +1,49 @@
+package ru.skypro.homework.service;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Image formats accepted for upload, recognized by their leading bytes rather than
+ * by the content type or file name the client sent
+ */
+public enum ImageType {
+    JPEG("image/jpeg", "jpeg", 0, new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}),
+    PNG("image/png", "png", 0, new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}),
+    GIF("image/gif", "gif", 0, new byte[]{'G', 'I', 'F', '8'}),
+    WEBP("image/webp", "webp", 8, new byte[]{'W', 'E', 'B', 'P'});
+
+    /**
+     * Bytes that have to be read to tell the formats apart
+     */
+    public static final int SIGNATURE_LENGTH = 12;
+
+    @Getter
+    private final String contentType;
+    @Getter
+    private final String extension;
+    private final int offset;
+    private final byte[] signature;
+
+    ImageType(String contentType, String extension, int offset, byte[] signature) {
+        this.contentType = contentType;
+        this.extension = extension;
+        this.offset = offset;
+        this.signature = signature;
+    }
+
+    /**
+     * Format of the file starting with the given bytes, or {@code null} if it is not a supported image
+     */
+    public static ImageType detect(byte[] head, int length) {
+        for (ImageType type : values()) {
+            int end = type.offset + type.signature.length;
+            if (length >= end && Arrays.equals(head, type.offset, end, type.signature, 0, type.signature.length)
+                    && (type != WEBP || Arrays.equals(head, 0, 4, new byte[]{'R', 'I', 'F', 'F'}, 0, 4))) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,396 @@
+package ru.skypro.homework.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index from terms to advert ids.
+ * <p>
+ * Every term owns a sorted {@code int[]} posting list, so there is no boxing per document.
+ * Queries walk the posting lists from the newest id down and stop as soon as a page is full,
+ * so their cost depends on the page size rather than on the number of matching adverts.
+ * <p>
+ * Query syntax: whitespace separated terms must all match, {@code OR} (or {@code |})
+ * separates alternatives and a trailing {@code *} turns a term into a prefix.
+ * Thread safe: queries share a read lock, changes take the write lock.
+ */
+public class InvertedIndex {
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final int END = Integer.MIN_VALUE;
+    /**
+     * Rough per term overhead: tree map entry, string header and posting list header
+     */
+    private static final int TERM_OVERHEAD_BYTES = 40 + 40 + 32;
+
+    private final NavigableMap<String, Postings> terms = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Split a text into lower-cased letter and digit runs, {@code ё} is folded into {@code е}
+     */
+    public static Set<String> terms(String text) {
+        Set<String> result = new HashSet<>();
+        if (text == null) {
+            return result;
+        }
+        for (String term : SEPARATORS.split(normalize(text))) {
+            if (!term.isEmpty()) {
+                result.add(term);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the advert to the posting lists of {@code added} and remove it from those of
+     * {@code removed}. Adding an id that is already there is a no-op.
+     */
+    public void update(int id, Collection<String> removed, Collection<String> added) {
+        lock.writeLock().lock();
+        try {
+            for (String term : removed) {
+                Postings postings = terms.get(term);
+                if (postings != null && postings.remove(id) && postings.size == 0) {
+                    terms.remove(term);
+                }
+            }
+            for (String term : added) {
+                terms.computeIfAbsent(term, t -> new Postings()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find ids matching the query, newest first
+     *
+     * @param query    terms, {@code OR} and prefixes as described in the class comment
+     * @param beforeId only ids below it are returned, {@link Integer#MAX_VALUE} for the first page
+     * @param limit    maximum number of ids
+     * @return matching ids in descending order
+     */
+    public int[] search(String query, int beforeId, int limit) {
+        List<List<String>> groups = parse(query);
+        int[] result = new int[limit];
+        int found = 0;
+        lock.readLock().lock();
+        try {
+            IdIterator matches = or(groups);
+            if (matches == null) {
+                return new int[0];
+            }
+            for (int id = matches.seek(beforeId - 1); id != END && found < limit; id = matches.seek(id - 1)) {
+                result[found++] = id;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    /**
+     * Number of distinct terms
+     */
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimated heap footprint of the terms and their posting lists
+     */
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                bytes += TERM_OVERHEAD_BYTES + 2L * entry.getKey().length() + 4L * entry.getValue().ids.length;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT).replace('ё', 'е');
+    }
+
+    /**
+     * Parse the query into alternatives of required terms; a prefix term keeps its trailing {@code *}
+     */
+    private static List<List<String>> parse(String query) {
+        List<List<String>> groups = new ArrayList<>();
+        List<String> group = new ArrayList<>();
+        for (String token : query.trim().split("\\s+")) {
+            if (token.equals("OR") || token.equals("|")) {
+                if (!group.isEmpty()) {
+                    groups.add(group);
+                    group = new ArrayList<>();
+                }
+                continue;
+            }
+            boolean prefix = token.endsWith("*");
+            String[] parts = SEPARATORS.split(normalize(token));
+            for (int i = 0; i < parts.length; i++) {
+                if (!parts[i].isEmpty()) {
+                    group.add(prefix && i == parts.length - 1 ? parts[i] + "*" : parts[i]);
+                }
+            }
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    private IdIterator or(List<List<String>> groups) {
+        List<IdIterator> alternatives = new ArrayList<>();
+        for (List<String> group : groups) {
+            IdIterator alternative = and(group);
+            if (alternative != null) {
+                alternatives.add(alternative);
+            }
+        }
+        return union(alternatives);
+    }
+
+    private IdIterator and(List<String> group) {
+        List<IdIterator> required = new ArrayList<>();
+        for (String term : group) {
+            IdIterator matches = term.endsWith("*") ? prefix(term.substring(0, term.length() - 1)) : term(term);
+            if (matches == null) {
+                return null;
+            }
+            required.add(matches);
+        }
+        if (required.size() == 1) {
+            return required.get(0);
+        }
+        required.sort(Comparator.comparingLong(IdIterator::cost));
+        return new Intersection(required.toArray(new IdIterator[0]));
+    }
+
+    private IdIterator term(String term) {
+        Postings postings = terms.get(term);
+        return postings == null ? null : new PostingIterator(postings);
+    }
+
+    private IdIterator prefix(String prefix) {
+        List<IdIterator> matches = new ArrayList<>();
+        for (Postings postings : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            matches.add(new PostingIterator(postings));
+        }
+        return union(matches);
+    }
+
+    private static IdIterator union(List<IdIterator> iterators) {
+        if (iterators.isEmpty()) {
+            return null;
+        }
+        return iterators.size() == 1 ? iterators.get(0) : new Union(iterators.toArray(new IdIterator[0]));
+    }
+
+    /**
+     * Sorted, growable array of ids. Ids are generated in ascending order,
+     * so adding a new advert is an append.
+     */
+    private static class Postings {
+        private int[] ids = new int[2];
+        private int size;
+
+        void add(int id) {
+            if (size == 0 || ids[size - 1] < id) {
+                ensureCapacity();
+                ids[size++] = id;
+                return;
+            }
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                return;
+            }
+            at = -at - 1;
+            ensureCapacity();
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0) {
+                return false;
+            }
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            size--;
+            if (size > 0 && size < ids.length / 4) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            return true;
+        }
+
+        private void ensureCapacity() {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+        }
+    }
+
+    /**
+     * Descending walk over matching ids
+     */
+    private interface IdIterator {
+        /**
+         * Move to the greatest matching id not above {@code target}. Targets never increase.
+         *
+         * @return that id or {@link #END}
+         */
+        int seek(int target);
+
+        /**
+         * Id found by the last seek, or an upper bound of the next match before the first one
+         */
+        int current();
+
+        /**
+         * Upper bound of the number of matches, used to lead intersections with the rarest term
+         */
+        long cost();
+    }
+
+    private static class PostingIterator implements IdIterator {
+        private final int[] ids;
+        private int position;
+
+        PostingIterator(Postings postings) {
+            this.ids = postings.ids;
+            this.position = postings.size - 1;
+        }
+
+        @Override
+        public int seek(int target) {
+            if (position < 0) {
+                return END;
+            }
+            if (ids[position] > target) {
+                int at = Arrays.binarySearch(ids, 0, position, target);
+                position = at >= 0 ? at : -at - 2;
+                if (position < 0) {
+                    return END;
+                }
+            }
+            return ids[position];
+        }
+
+        @Override
+        public int current() {
+            return position < 0 ? END : ids[position];
+        }
+
+        @Override
+        public long cost() {
+            return position + 1L;
+        }
+    }
+
+    /**
+     * Max-heap of iterators by their current id, so a seek only moves the iterators above the target
+     */
+    private static class Union implements IdIterator {
+        private final PriorityQueue<IdIterator> heap;
+        private final long cost;
+
+        Union(IdIterator[] iterators) {
+            heap = new PriorityQueue<>(iterators.length, Comparator.comparingInt(IdIterator::current).reversed());
+            long total = 0;
+            for (IdIterator iterator : iterators) {
+                heap.add(iterator);
+                total += iterator.cost();
+            }
+            cost = total;
+        }
+
+        @Override
+        public int seek(int target) {
+            while (!heap.isEmpty() && heap.peek().current() > target) {
+                IdIterator iterator = heap.poll();
+                if (iterator.seek(target) != END) {
+                    heap.add(iterator);
+                }
+            }
+            return heap.isEmpty() ? END : heap.peek().current();
+        }
+
+        @Override
+        public int current() {
+            return heap.isEmpty() ? END : heap.peek().current();
+        }
+
+        @Override
+        public long cost() {
+            return cost;
+        }
+    }
+
+    private static class Intersection implements IdIterator {
+        private final IdIterator[] iterators;
+        private int current = Integer.MAX_VALUE;
+
+        Intersection(IdIterator[] iterators) {
+            this.iterators = iterators;
+        }
+
+        @Override
+        public int seek(int target) {
+            if (current <= target) {
+                return current;
+            }
+            int candidate = target;
+            boolean agreed = false;
+            while (!agreed) {
+                agreed = true;
+                for (IdIterator iterator : iterators) {
+                    int id = iterator.seek(candidate);
+                    if (id == END) {
+                        current = END;
+                        return END;
+                    }
+                    if (id != candidate) {
+                        candidate = id;
+                        agreed = false;
+                    }
+                }
+            }
+            current = candidate;
+            return candidate;
+        }
+
+        @Override
+        public int current() {
+            return current;
+        }
+
+        @Override
+        public long cost() {
+            return iterators[0].cost();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package ru.skypro.homework.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.skypro.homework.dto.AdsDto;
+import ru.skypro.homework.dto.AdsPageRequestDto;
+import ru.skypro.homework.dto.ResponseWrapperAdsDto;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pre-rendered JSON of the default public listing, the first page of {@code GET /ads}
+ * without parameters. The read path only hands out the current {@link Rendered} bytes.
+ * <p>
+ * Rendered when the application is ready and again on a background thread after an
+ * {@link AdvertChangedEvent} that can change the page: a created advert, or a change of
+ * an advert not older than the last one on the page. Changes arriving while rendering
+ * are coalesced into one more rendering.
+ */
+@Component
+@Slf4j
+public class ListingSnapshot {
+    private static final AdsPageRequestDto DEFAULT_PAGE = new AdsPageRequestDto();
+
+    private final AdvertService advertService;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final boolean gzip;
+    private final Executor executor;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * Prefix of the entity tags, so that tags handed out before a restart never match
+     */
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+    /**
+     * Number of committed advert changes
+     */
+    private final AtomicLong changes = new AtomicLong();
+    private volatile Rendered current;
+    private long version;
+
+    @Autowired
+    public ListingSnapshot(AdvertService advertService,
+                           ObjectMapper objectMapper,
+                           @Value("${ads.listing.snapshot.enabled}") boolean enabled,
+                           @Value("${ads.listing.snapshot.gzip}") boolean gzip) {
+        this(advertService, objectMapper, enabled, gzip,
+                Executors.newSingleThreadExecutor(task -> {
+                    Thread thread = new Thread(task, "listing-snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+    }
+
+    ListingSnapshot(AdvertService advertService, ObjectMapper objectMapper,
+                    boolean enabled, boolean gzip, Executor executor) {
+        this.advertService = advertService;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.gzip = gzip;
+        this.executor = executor;
+    }
+
+    /**
+     * Rendered listing for the page, or {@code null} if the page is not the default one
+     * or nothing has been rendered yet
+     */
+    public Rendered find(AdsPageRequestDto page) {
+        return DEFAULT_PAGE.equals(page) ? current : null;
+    }
+
+    /**
+     * Entity tag of any listing that is not pre-rendered: the listing consists of advert rows only,
+     * so it can only change with an {@link AdvertChangedEvent}. Read it before the listing itself.
+     */
+    public String listingETag() {
+        return epoch + "." + changes.get();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleRender() {
+        if (enabled && scheduled.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                scheduled.set(false);
+                try {
+                    render();
+                } catch (RuntimeException e) {
+                    current = null;
+                    log.error("Failed to render the public listing", e);
+                }
+            });
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAdvertChanged(AdvertChangedEvent event) {
+        changes.incrementAndGet();
+        Rendered rendered = current;
+        if (event.getBefore() == null || rendered == null || event.getId() >= rendered.oldestId) {
+            scheduleRender();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    private void render() {
+        ResponseWrapperAdsDto listing = advertService.findAll(DEFAULT_PAGE);
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(listing);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        int oldestId = listing.getNext() == null ? Integer.MIN_VALUE
+                : listing.getResults().stream().mapToInt(AdsDto::getPk).min().orElse(Integer.MIN_VALUE);
+        version++;
+        current = new Rendered(version, epoch + ".r" + version, json, gzip ? gzip(json) : null, oldestId);
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * One rendering of the listing. The arrays are shared and must not be modified.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Rendered {
+        /**
+         * Increases with every rendering
+         */
+        private final long version;
+        @Getter(AccessLevel.NONE)
+        private final String eTag;
+        private final byte[] json;
+        /**
+         * Gzip of {@link #json}, {@code null} when compression is off
+         */
+        private final byte[] gzip;
+        /**
+         * Changes of older adverts do not affect the page; {@link Integer#MIN_VALUE} if every advert is on it
+         */
+        private final int oldestId;
+
+        /**
+         * Strong entity tag of the plain or the gzip-encoded rendering
+         */
+        public String eTag(boolean gzipped) {
+            return gzipped ? eTag + ".gz" : eTag;
+        }
+    }
+}
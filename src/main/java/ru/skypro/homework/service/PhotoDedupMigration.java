@@ -0,0 +1,132 @@
+package ru.skypro.homework.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.model.PhotoSize;
+import ru.skypro.homework.repository.PhotoRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves photos stored by id to content-addressed storage.
+ * Run once with {@code --ads.photos.dedup.migrate=true}; the application serves requests meanwhile.
+ * <p>
+ * Each file is hashed and linked under its hash before the photo row is renamed or merged into the
+ * photo that already has the content, so the row never points at a missing file. The file stored
+ * by id and its size variants are deleted once {@code ads.photos.sharding.grace-period} has passed after
+ * each batch, so requests that read the photo before its row changed still find them, and variants are
+ * queued for the photo that remains.
+ */
+@Component
+@ConditionalOnProperty(name = "ads.photos.dedup.migrate", havingValue = "true")
+@Slf4j
+public class PhotoDedupMigration implements ApplicationRunner {
+    private static final int BATCH_SIZE = 500;
+
+    private final PhotoRepository photoRepository;
+    private final PhotoService photoService;
+    private final PhotoCache photoCache;
+    private final PhotoVariantGenerator photoVariantGenerator;
+    private final PhotoStorage photoStorage;
+    private final Duration gracePeriod;
+
+    public PhotoDedupMigration(PhotoRepository photoRepository,
+                               PhotoService photoService,
+                               PhotoCache photoCache,
+                               PhotoVariantGenerator photoVariantGenerator,
+                               PhotoStorage photoStorage,
+                               @Value("${ads.photos.sharding.grace-period}") Duration gracePeriod) {
+        this.photoRepository = photoRepository;
+        this.photoService = photoService;
+        this.photoCache = photoCache;
+        this.photoVariantGenerator = photoVariantGenerator;
+        this.photoStorage = photoStorage;
+        this.gracePeriod = gracePeriod;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException, InterruptedException {
+        log.info("Deduplicate photos");
+        int renamed = 0;
+        int merged = 0;
+        long reclaimed = 0;
+        int lastId = 0;
+        List<Photo> photos;
+        do {
+            photos = photoRepository.findBySha256IsNullAndIdGreaterThanOrderByIdAsc(lastId, PageRequest.ofSize(BATCH_SIZE));
+            List<Path> legacy = new ArrayList<>();
+            for (Photo photo : photos) {
+                lastId = photo.getId();
+                Path file = photo.getFilePath();
+                if (!Files.exists(file)) {
+                    log.warn("Photo id " + photo.getId() + " has no file " + file);
+                    continue;
+                }
+                long size = Files.size(file);
+                Photo kept = migrate(photo, file, legacy);
+                if (kept.getId() == photo.getId()) {
+                    renamed++;
+                } else {
+                    merged++;
+                    reclaimed += size;
+                }
+            }
+            if (!legacy.isEmpty()) {
+                Thread.sleep(gracePeriod.toMillis());
+            }
+            for (Path path : legacy) {
+                Files.deleteIfExists(path);
+                photoCache.invalidate(path);
+            }
+        } while (photos.size() == BATCH_SIZE);
+        log.info("Deduplicated photos: " + renamed + " renamed, " + merged + " merged, "
+                + reclaimed + " bytes reclaimed");
+    }
+
+    /**
+     * Link the file of the photo under its hash and rename the photo, or merge it into the photo with that content
+     *
+     * @param legacy collects the files stored by id, to delete once no request reads them any more
+     * @return the photo that remains
+     */
+    Photo migrate(Photo photo, Path file, List<Path> legacy) throws IOException, InterruptedException {
+        legacy.add(file);
+        for (PhotoSize size : PhotoSize.VARIANTS) {
+            legacy.add(photo.getVariantPath(size));
+        }
+        String sha256 = PhotoService.sha256(file);
+        photo.setSha256(sha256);
+        Path target = photo.getFilePath();
+        boolean linked = false;
+        if (photoStorage.find(photo, PhotoSize.ORIGINAL) == null) {
+            photoStorage.linkInto(file, target);
+            linked = true;
+        }
+        Photo kept;
+        try {
+            kept = photoService.deduplicate(photo.getId(), sha256);
+        } catch (RuntimeException e) {
+            if (linked) {
+                Files.deleteIfExists(target);
+            }
+            throw e;
+        }
+        if (photoStorage.find(kept, PhotoSize.THUMB) == null) {
+            photoVariantGenerator.enqueue(kept);
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,321 @@
+package ru.skypro.homework.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Avatar;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.repository.PhotoRepository;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deletes photo files that no photo refers to any more, e.g. left by an upload that failed half way
+ * or a delete that failed after commit. Runs every {@code ads.photos.gc.interval} on its own thread.
+ * <p>
+ * Each image and avatar directory on every volume is reconciled against the {@code photos} table
+ * in content hash order: shard directories are listed in name order and merged with pages of the
+ * hashes of the photos in that directory, so memory stays constant however many photos there are.
+ * Files of photos still stored by id are looked up in batches. Files changed within
+ * {@code ads.photos.gc.min-age} are kept, which covers uploads and copies whose photo is not
+ * committed yet; temporary files are deleted once that old too. Markers and files of other names
+ * are never touched. At most {@code ads.photos.gc.files-per-second} files are examined per second.
+ * With {@code ads.photos.gc.dry-run} orphans are only logged and counted.
+ */
+@Component
+@Slf4j
+public class PhotoGarbageCollector implements MeterBinder {
+    private static final int BATCH_SIZE = 500;
+    private static final Pattern SHARD = Pattern.compile("[0-9a-f]{2}");
+    private static final Pattern HASHED = Pattern.compile("([0-9a-f]{64})(-[a-z]+)?\\.[a-z0-9]+");
+    private static final Pattern STORED_BY_ID = Pattern.compile("(\\d+)(-[a-z]+)?\\.[a-z0-9]+");
+    private static final Pattern TEMPORARY = Pattern.compile("(upload|variant|copy|link)-\\d+\\.tmp");
+
+    private final PhotoRepository photoRepository;
+    private final PhotoCache photoCache;
+    private final PhotoStorage photoStorage;
+    private final Map<String, Class<? extends Photo>> dirs = new LinkedHashMap<>();
+    private final Duration minAge;
+    private final int filesPerSecond;
+    private final boolean dryRun;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final AtomicLong orphaned = new AtomicLong();
+
+    public PhotoGarbageCollector(PhotoRepository photoRepository,
+                                 PhotoCache photoCache,
+                                 PhotoStorage photoStorage,
+                                 @Value("${path.to.images.folder}") String imagesDir,
+                                 @Value("${path.to.avatars.folder}") String avatarsDir,
+                                 @Value("${ads.photos.gc.min-age}") Duration minAge,
+                                 @Value("${ads.photos.gc.files-per-second}") int filesPerSecond,
+                                 @Value("${ads.photos.gc.dry-run}") boolean dryRun) {
+        this.photoRepository = photoRepository;
+        this.photoCache = photoCache;
+        this.photoStorage = photoStorage;
+        this.dirs.put(imagesDir, Image.class);
+        this.dirs.put(avatarsDir, Avatar.class);
+        this.minAge = minAge;
+        this.filesPerSecond = filesPerSecond;
+        this.dryRun = dryRun;
+    }
+
+    @Scheduled(initialDelayString = "${ads.photos.gc.interval}", fixedDelayString = "${ads.photos.gc.interval}")
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                sweep();
+            } catch (IOException | RuntimeException e) {
+                log.error("Photo garbage collection failed", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.set(false);
+            }
+        }, "photo-gc");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Reconcile every photo directory with the table
+     *
+     * @return bytes of orphaned files found, deleted unless in dry run
+     */
+    long sweep() throws IOException, InterruptedException {
+        Sweep sweep = new Sweep();
+        for (Map.Entry<String, Class<? extends Photo>> base : dirs.entrySet()) {
+            for (Path dir : photoStorage.directories(base.getKey())) {
+                if (Files.isDirectory(dir)) {
+                    sweepShards(base.getValue(), dir, sweep);
+                    sweepFlat(dir, sweep);
+                }
+            }
+        }
+        orphaned.set(sweep.bytes);
+        log.info((dryRun ? "Found " : "Deleted ") + sweep.orphans + " orphaned photo files of " + sweep.bytes
+                + " bytes, examined " + sweep.files);
+        return sweep.bytes;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("ads.photos.gc.deleted", deleted, AtomicLong::get)
+                .description("Orphaned photo files deleted")
+                .register(registry);
+        FunctionCounter.builder("ads.photos.gc.reclaimed", reclaimed, AtomicLong::get)
+                .baseUnit("bytes")
+                .description("Space reclaimed from orphaned photo files")
+                .register(registry);
+        Gauge.builder("ads.photos.gc.orphaned", orphaned, AtomicLong::get)
+                .baseUnit("bytes")
+                .description("Orphaned photo files found by the last sweep, deleted unless in dry run")
+                .register(registry);
+    }
+
+    /**
+     * Merge the files of the shard directories, in hash order, with the hashes of the photos in the directory
+     */
+    private void sweepShards(Class<? extends Photo> type, Path dir, Sweep sweep) throws IOException, InterruptedException {
+        ReferencedHashes referenced = new ReferencedHashes(type, dir.toString());
+        for (Path first : list(dir, PhotoGarbageCollector::isShard)) {
+            for (Path second : list(first, PhotoGarbageCollector::isShard)) {
+                for (Path file : list(second, Files::isRegularFile)) {
+                    String name = file.getFileName().toString();
+                    Matcher hashed = HASHED.matcher(name);
+                    if (hashed.matches() ? !referenced.contains(hashed.group(1)) : TEMPORARY.matcher(name).matches()) {
+                        collect(file, sweep);
+                    }
+                    sweep.pace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Files directly in the photo directory: uploads being received, and files of photos stored by id.
+     * Hash-named files there are left to {@link PhotoShardMigrator}.
+     */
+    private void sweepFlat(Path dir, Sweep sweep) throws IOException, InterruptedException {
+        Map<Integer, List<Path>> batch = new LinkedHashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, Files::isRegularFile)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher storedById = STORED_BY_ID.matcher(name);
+                if (storedById.matches()) {
+                    batch.computeIfAbsent(Integer.valueOf(storedById.group(1)), id -> new ArrayList<>()).add(file);
+                    if (batch.size() == BATCH_SIZE) {
+                        collectStoredById(batch, sweep);
+                    }
+                } else if (TEMPORARY.matcher(name).matches()) {
+                    collect(file, sweep);
+                }
+                sweep.pace();
+            }
+        }
+        collectStoredById(batch, sweep);
+    }
+
+    private void collectStoredById(Map<Integer, List<Path>> batch, Sweep sweep) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<Integer> referenced = new HashSet<>(photoRepository.findStoredByIdIn(batch.keySet()));
+        for (Map.Entry<Integer, List<Path>> files : batch.entrySet()) {
+            if (!referenced.contains(files.getKey())) {
+                for (Path file : files.getValue()) {
+                    collect(file, sweep);
+                }
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * Delete an orphaned file, unless it changed too recently to be sure
+     */
+    private void collect(Path file, Sweep sweep) throws IOException {
+        long size;
+        try {
+            if (changed(file).toInstant().isAfter(Instant.now().minus(minAge))) {
+                return;
+            }
+            size = Files.size(file);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        sweep.orphans++;
+        sweep.bytes += size;
+        if (dryRun) {
+            log.info("Orphaned photo file " + file + ", " + size + " bytes");
+            return;
+        }
+        if (Files.deleteIfExists(file)) {
+            photoCache.invalidate(file);
+            deleted.incrementAndGet();
+            reclaimed.addAndGet(size);
+        }
+    }
+
+    /**
+     * Last change of the file or its links: a hard link or a rename into place counts as a change
+     */
+    private static FileTime changed(Path file) throws IOException {
+        FileTime modified = Files.readAttributes(file, BasicFileAttributes.class).lastModifiedTime();
+        try {
+            FileTime changed = (FileTime) Files.getAttribute(file, "unix:ctime");
+            return changed.compareTo(modified) > 0 ? changed : modified;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return modified;
+        }
+    }
+
+    private static boolean isShard(Path entry) {
+        return SHARD.matcher(entry.getFileName().toString()).matches() && Files.isDirectory(entry);
+    }
+
+    /**
+     * Entries of the directory in name order
+     */
+    private static List<Path> list(Path dir, DirectoryStream.Filter<Path> filter) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, filter)) {
+            stream.forEach(entries::add);
+        } catch (NoSuchFileException e) {
+            return entries;
+        }
+        entries.sort(null);
+        return entries;
+    }
+
+    /**
+     * Hashes of the photos in a directory, read page by page in order as the files are walked
+     */
+    private class ReferencedHashes {
+        private final Class<? extends Photo> type;
+        private final String dir;
+        private List<String> page = List.of();
+        private int index;
+        private boolean last;
+
+        ReferencedHashes(Class<? extends Photo> type, String dir) {
+            this.type = type;
+            this.dir = dir;
+        }
+
+        /**
+         * Whether a photo has the hash; hashes are asked for in ascending order
+         */
+        boolean contains(String sha256) {
+            while (true) {
+                if (index == page.size()) {
+                    if (last) {
+                        return false;
+                    }
+                    String after = page.isEmpty() ? "" : page.get(page.size() - 1);
+                    page = photoRepository.findSha256s(type, dir, after, PageRequest.ofSize(BATCH_SIZE));
+                    index = 0;
+                    last = page.size() < BATCH_SIZE;
+                    continue;
+                }
+                int order = page.get(index).compareTo(sha256);
+                if (order >= 0) {
+                    return order == 0;
+                }
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Counts of one sweep, and the pace it examines files at
+     */
+    private class Sweep {
+        private long files;
+        private long orphans;
+        private long bytes;
+        private long second = System.nanoTime();
+
+        void pace() throws InterruptedException {
+            if (++files % filesPerSecond != 0) {
+                return;
+            }
+            long elapsed = (System.nanoTime() - second) / 1_000_000;
+            if (elapsed < 1000) {
+                Thread.sleep(1000 - elapsed);
+            }
+            second = System.nanoTime();
+        }
+    }
+}
@@ -1,130 +1,391 @@
 package ru.skypro.homework.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.StringUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoFileOperations;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.configuration.CacheConfig;
+import ru.skypro.homework.exception.PhotoStoredConcurrentlyException;
+import ru.skypro.homework.exception.PhotoTooLargeException;
 import ru.skypro.homework.exception.PhotoUploadException;
 import ru.skypro.homework.model.*;
 import ru.skypro.homework.repository.PhotoRepository;
 import ru.skypro.homework.repository.UserRepository;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 @Service
 @Slf4j
 public class PhotoService {
+    private static final int BUFFER_SIZE = 8192;
+
     @Value("${path.to.images.folder}")
     private String imagesDir;
     @Value("${path.to.avatars.folder}")
     private String avatarsDir;
+    @Value("${ads.photos.max-size}")
+    private DataSize maxSize;
 
     private final PhotoRepository photoRepository;
     private final UserRepository userRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final PhotoCache photoCache;
+    private final PhotoStorage photoStorage;
+    private final PhotoFileOperations photoFileOperations;
+    private final CacheManager cacheManager;
+    private final TransactionTemplate newTransaction;
 
-    public PhotoService(PhotoRepository photoRepository, UserRepository userRepository) {
+    public PhotoService(PhotoRepository photoRepository,
+                        UserRepository userRepository,
+                        ApplicationEventPublisher eventPublisher,
+                        PhotoCache photoCache,
+                        PhotoStorage photoStorage,
+                        PhotoFileOperations photoFileOperations,
+                        CacheManager cacheManager,
+                        PlatformTransactionManager transactionManager) {
         this.photoRepository = photoRepository;
         this.userRepository = userRepository;
+        this.eventPublisher = eventPublisher;
+        this.photoCache = photoCache;
+        this.photoStorage = photoStorage;
+        this.photoFileOperations = photoFileOperations;
+        this.cacheManager = cacheManager;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
     }
 
     /**
-     * Upload new advert image
+     * Receive an advert image, before the transaction that stores it
      *
      * @param file image file
+     * @return received upload, to be closed once stored
+     */
+    public PhotoUpload receiveImage(MultipartFile file) {
+        return receive(file, imagesDir);
+    }
+
+    /**
+     * Receive a user avatar, before the transaction that stores it
+     *
+     * @param file avatar file
+     * @return received upload, to be closed once stored
+     */
+    public PhotoUpload receiveAvatar(MultipartFile file) {
+        return receive(file, avatarsDir);
+    }
+
+    /**
+     * Upload new advert image
+     *
+     * @param upload received image
      * @return photo object
      */
     @Transactional
-    public Image uploadImage(MultipartFile file) {
+    public Image uploadImage(PhotoUpload upload) {
         log.info("upload new advert image");
-        try {
-            Image image = new Image(imagesDir);
-            mapFileToPhoto(file, image);
-            image = photoRepository.save(image);
-            upload(image, file);
-            return image;
-        } catch (Exception e) {
-            throw new PhotoUploadException(e.getMessage());
-        }
+        return store(new Image(imagesDir), upload);
     }
 
     /**
-     * Update advert image
+     * Replace advert image, releasing the previous one
      *
      * @param advert advert object
-     * @param file   image file
+     * @param upload received image
      * @return photo object
      */
     @Transactional
-    public Image uploadImage(Advert advert, MultipartFile file) {
+    public Image uploadImage(Advert advert, PhotoUpload upload) {
         log.info("upload advert image");
-        try {
-            Image image = advert.getImage();
-            mapFileToPhoto(file, image);
-            image = photoRepository.save(image);
-            upload(image, file);
-            return image;
-        } catch (Exception e) {
-            throw new PhotoUploadException(e.getMessage());
-        }
+        Image previous = advert.getImage();
+        Image image = store(new Image(imagesDir), upload);
+        advert.setImage(image);
+        release(previous);
+        return image;
     }
 
     /**
-     * Update user avatar
+     * Replace user avatar, releasing the previous one
      *
-     * @param file avatar file
+     * @param upload received avatar
      * @return photo object
      */
     @Transactional
-    public Avatar uploadAvatar(User user, MultipartFile file) {
+    public Avatar uploadAvatar(User user, PhotoUpload upload) {
         log.info("upload user avatar");
+        Avatar previous = user.getAvatar();
+        Avatar avatar = store(new Avatar(avatarsDir), upload);
+        user.setAvatar(avatar);
+        userRepository.save(user);
+        release(previous);
+        return avatar;
+    }
+
+    /**
+     * Run a transaction that stores an upload, and run it once more if an identical upload stored
+     * the same content meanwhile: the unique content hash rejects the photo saved later, which rolls
+     * back the whole transaction, and the retry adds a reference to the photo stored first instead.
+     * Called outside of a transaction.
+     *
+     * @param transaction stores the upload in a transaction of its own
+     * @return what the transaction returned
+     */
+    public <T> T retryConcurrentUpload(Supplier<T> transaction) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("An upload can not be retried within a transaction");
+        }
         try {
-            Avatar avatar = user.getAvatar();
-            if (avatar == null) {
-                avatar = new Avatar(avatarsDir);
-            }
-            mapFileToPhoto(file, avatar);
-            avatar = photoRepository.save(avatar);
-            upload(avatar, file);
-            user.setAvatar(avatar);
-            userRepository.save(user);
-            return avatar;
-        } catch (Exception e) {
-            throw new PhotoUploadException(e.getMessage());
+            return transaction.get();
+        } catch (PhotoStoredConcurrentlyException e) {
+            log.info("photo stored concurrently, retry its upload");
+            return transaction.get();
         }
     }
 
     /**
-     * Delete photo from file system
+     * Drop one reference to the photo. The last reference deletes the photo, and its file
+     * and size variants once the transaction commits, unless the same content has been stored
+     * again in the same directory by then.
      *
      * @param photo photo
      */
     @Transactional
-    public void deleteFile(Photo photo) {
-        if (photo != null) {
+    public void release(Photo photo) {
+        if (photo == null) {
+            return;
+        }
+        List<Path> files = photoStorage.locations(photo);
+        Class<?> entity = Hibernate.getClass(photo);
+        Class<? extends Photo> type = entity.asSubclass(Photo.class);
+        String sha256 = photo.getSha256();
+        String photoDir = photo.getPhotoDir();
+        photoRepository.addReferences(photo.getId(), -1);
+        if (photoRepository.deleteUnreferenced(photo.getId()) == 0) {
+            return;
+        }
+        log.info("delete photo id " + photo.getId());
+        photoFileOperations.afterCommit(photo.getFileKey(), () -> {
+            // the delete is queued only after other commit callbacks, so a photo with the same content may
+            // have been stored in the same files and queued its move meanwhile; that photo owns them now
+            if (sha256 != null && photoRepository.existsByTypeAndSha256AndDir(type, sha256, photoDir)) {
+                log.info("keep files of photo " + sha256 + ", stored again");
+                return;
+            }
+            for (Path path : files) {
+                Files.deleteIfExists(path);
+                photoCache.invalidate(path);
+            }
+        });
+    }
+
+    /**
+     * Name a photo stored by id after its content hash, or merge it into the photo of the same type
+     * that already has this content, moving the references over
+     *
+     * @param id     photo stored by id
+     * @param sha256 hash of its file
+     * @return photo that now holds the content
+     */
+    @Transactional
+    public Photo deduplicate(int id, String sha256) {
+        Photo photo = photoRepository.findById(id).orElseThrow();
+        Optional<Photo> existing = photoRepository.findByTypeAndSha256(photo.getClass(), sha256);
+        if (existing.isEmpty()) {
+            photo.setSha256(sha256);
+            return photoRepository.save(photo);
+        }
+        Photo target = existing.get();
+        int references = photoRepository.moveImageReferences(id, target.getId())
+                + photoRepository.moveAvatarReferences(id, target.getId());
+        photoRepository.addReferences(target.getId(), references);
+        photoRepository.delete(photo);
+        return target;
+    }
+
+    /**
+     * Point a photo at the directory its files were copied to
+     *
+     * @param id  photo
+     * @param dir photo directory on another volume
+     * @return {@code false} if the photo was released meanwhile
+     */
+    @Transactional
+    public boolean relocate(int id, String dir) {
+        return photoRepository.relocate(id, dir) == 1;
+    }
+
+    /**
+     * Hex SHA-256 of a file
+     */
+    static String sha256(Path path) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Add a reference to the photo of the same type with the same content, or save a new photo.
+     * The file of a new photo is moved into place under its content hash, on the volume
+     * {@link PhotoStorage} places the content on, once the transaction commits; its size variants
+     * are generated after that. If the file can not be moved, the photo is dropped again.
+     *
+     * @throws PhotoStoredConcurrentlyException if an identical upload saved its photo first, see
+     *                                          {@link #retryConcurrentUpload}
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Photo> T store(T photo, PhotoUpload upload) {
+        upload.describe(photo);
+        Optional<Photo> existing = photoRepository.findByTypeAndSha256(photo.getClass(), photo.getSha256());
+        // a photo released meanwhile by its last reference is gone, store the file again
+        if (existing.isPresent() && photoRepository.addReferences(existing.get().getId(), 1) == 1) {
+            return (T) existing.get();
+        }
+        photo.setPhotoDir(photoStorage.directory(photo.getPhotoDir(), photo.getSha256()));
+        T saved;
+        try {
+            saved = photoRepository.save(photo);
+        } catch (DataIntegrityViolationException e) {
+            // the same content was stored concurrently, the unique hash lets one upload through
+            throw new PhotoStoredConcurrentlyException(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            throw new PhotoUploadException(e.getMessage());
+        }
+        Path target = saved.getFilePath();
+        int id = saved.getId();
+        upload.setStored(photoFileOperations.afterCommit(saved.getFileKey(), () -> {
             try {
-                log.info("delete photo id " + photo.getId());
-                Files.deleteIfExists(photo.getFilePath().toAbsolutePath().toFile().toPath());
-            } catch (IOException exception) {
-                throw new PhotoUploadException(exception.getMessage());
+                photoStorage.moveInto(upload.getFile(), target);
+            } catch (IOException | RuntimeException e) {
+                drop(id);
+                throw e;
+            }
+            eventPublisher.publishEvent(new PhotoStoredEvent(saved));
+        }, () -> Files.deleteIfExists(upload.getFile())));
+        return saved;
+    }
+
+    /**
+     * Delete a committed photo whose file could not be moved into place, in a transaction of its own.
+     * The adverts and users that refer to it by then, including those that shared it meanwhile, are left
+     * without an image or avatar rather than pointing at a missing file; an upload of the same content
+     * stores a new photo.
+     */
+    private void drop(int id) {
+        try {
+            newTransaction.executeWithoutResult(status -> {
+                // lock the row, so that no upload shares the photo between the detach and the delete
+                if (photoRepository.addReferences(id, 0) == 0) {
+                    return;
+                }
+                List<Integer> adverts = photoRepository.findAdvertIdsByImageId(id);
+                List<String> users = photoRepository.findUsernamesByAvatarId(id);
+                photoRepository.detachImage(id);
+                photoRepository.detachAvatar(id);
+                photoRepository.forceDelete(id);
+                evict(CacheConfig.FULL_ADS, adverts);
+                evict(CacheConfig.USER_DETAILS, users);
+            });
+            log.warn("Dropped photo id " + id + ", its file could not be stored");
+        } catch (RuntimeException e) {
+            log.error("Failed to drop photo id " + id + " without a file", e);
+        }
+    }
+
+    private void evict(String cacheName, List<?> keys) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            keys.forEach(cache::evict);
+        }
+    }
+
+    /**
+     * Copy the upload to a temporary file in the photo directory of a volume, checking its size and content
+     * and hashing it as it streams
+     */
+    private PhotoUpload receive(MultipartFile file, String baseDir) {
+        Path temp = null;
+        try {
+            Path dir = photoStorage.staging(baseDir);
+            Files.createDirectories(dir);
+            temp = Files.createTempFile(dir, "upload-", ".tmp");
+            try (InputStream in = file.getInputStream();
+                 OutputStream out = Files.newOutputStream(temp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read = in.readNBytes(buffer, 0, ImageType.SIGNATURE_LENGTH);
+                ImageType type = ImageType.detect(buffer, read);
+                if (type == null) {
+                    throw new PhotoUploadException("Unsupported image format");
+                }
+                MessageDigest digest = sha256();
+                long size = 0;
+                do {
+                    size += read;
+                    if (size > maxSize.toBytes()) {
+                        throw new PhotoTooLargeException("Image is larger than " + maxSize.toMegabytes() + " MB");
+                    }
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                } while ((read = in.read(buffer)) != -1);
+                photoStorage.recordWrite(temp, size);
+                return new PhotoUpload(temp, file.getOriginalFilename(), type, size, hex(digest.digest()));
             }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(temp);
+            throw e instanceof PhotoUploadException ? (PhotoUploadException) e : new PhotoUploadException(e.getMessage());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 
-    private void upload(Photo photo, MultipartFile file) throws IOException {
-        Path filePath = photo.getFilePath();
-        Files.createDirectories(filePath.getParent());
-        Files.deleteIfExists(filePath);
-        Files.write(filePath, file.getBytes());
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
     }
 
-    private void mapFileToPhoto(MultipartFile file, Photo photo) {
-        photo.setFileType(file.getContentType());
-        photo.setFileName(file.getOriginalFilename());
-        photo.setFileExtension(StringUtils.getFilenameExtension(file.getOriginalFilename()));
-        photo.setFileSize(file.getSize());
+    private static void deleteQuietly(Path path) {
+        if (path != null) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Failed to delete " + path, e);
+            }
+        }
     }
 }
@@ -0,0 +1,112 @@
+package ru.skypro.homework.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Photo;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Moves content-addressed photo files from the flat image and avatar directories into their shard
+ * directories, in the background while the application serves requests.
+ * <p>
+ * Runs when the application is ready, for the directories on every volume without a {@value #MARKER} file.
+ * Files are hard linked into their shard first, or copied where the file system has no links, through a
+ * temporary file renamed into place, so a reader never sees a half copied file; a shard file whose size
+ * differs from the flat file, left by a crash, is replaced. {@link PhotoStorage} prefers the sharded path as soon
+ * as it exists, so once {@code ads.photos.sharding.grace-period} has passed no request is still reading
+ * the flat path, and it is deleted. Photos stored by id are moved by {@link PhotoDedupMigration} instead.
+ */
+@Component
+@Slf4j
+public class PhotoShardMigrator {
+    static final String MARKER = ".sharded";
+    private static final Pattern HASHED = Pattern.compile("([0-9a-f]{64})(-[a-z]+)?\\.[a-z0-9]+");
+
+    private final PhotoCache photoCache;
+    private final PhotoStorage photoStorage;
+    private final List<Path> dirs;
+    private final Duration gracePeriod;
+
+    public PhotoShardMigrator(PhotoCache photoCache,
+                              PhotoStorage photoStorage,
+                              @Value("${path.to.images.folder}") String imagesDir,
+                              @Value("${path.to.avatars.folder}") String avatarsDir,
+                              @Value("${ads.photos.sharding.grace-period}") Duration gracePeriod) {
+        this.photoCache = photoCache;
+        this.photoStorage = photoStorage;
+        this.dirs = new ArrayList<>(photoStorage.directories(imagesDir));
+        this.dirs.addAll(photoStorage.directories(avatarsDir));
+        this.gracePeriod = gracePeriod;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (dirs.stream().allMatch(dir -> Files.exists(dir.resolve(MARKER)))) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            for (Path dir : dirs) {
+                try {
+                    migrate(dir);
+                } catch (IOException e) {
+                    log.error("Failed to shard " + dir, e);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "photo-shards");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Move the flat content-addressed files of the directory into shards and mark it as done
+     *
+     * @return number of files moved
+     */
+    int migrate(Path dir) throws IOException, InterruptedException {
+        Files.createDirectories(dir);
+        if (Files.exists(dir.resolve(MARKER))) {
+            return 0;
+        }
+        log.info("Shard photos in " + dir);
+        List<Path> linked = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Matcher name = HASHED.matcher(file.getFileName().toString());
+                if (!name.matches() || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                Path target = Photo.shard(dir, name.group(1)).resolve(file.getFileName());
+                if (!Files.exists(target) || Files.size(target) != Files.size(file)) {
+                    photoStorage.linkInto(file, target);
+                }
+                linked.add(file);
+            }
+        }
+        if (!linked.isEmpty()) {
+            Thread.sleep(gracePeriod.toMillis());
+        }
+        for (Path file : linked) {
+            Files.deleteIfExists(file);
+            photoCache.invalidate(file);
+        }
+        Files.createFile(dir.resolve(MARKER));
+        log.info("Sharded " + linked.size() + " photo files in " + dir);
+        return linked.size();
+    }
+}
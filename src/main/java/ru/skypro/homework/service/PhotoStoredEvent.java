@@ -0,0 +1,16 @@
+package ru.skypro.homework.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import ru.skypro.homework.model.Photo;
+
+/**
+ * Published by {@link PhotoService} when a new photo file has been moved into place
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class PhotoStoredEvent {
+    private final Photo photo;
+}
@@ -0,0 +1,87 @@
+package ru.skypro.homework.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import ru.skypro.homework.exception.PhotoUploadException;
+import ru.skypro.homework.model.Photo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * An uploaded photo received into a temporary file by {@link PhotoService#receiveImage} or
+ * {@link PhotoService#receiveAvatar}, before the transaction that stores it begins.
+ * <p>
+ * Closing it waits until the file has been moved into place after the commit, and deletes the
+ * temporary file if it was not needed.
+ */
+@Getter
+@Slf4j
+public class PhotoUpload implements AutoCloseable {
+    private final Path file;
+    private final String fileName;
+    private final ImageType type;
+    private final long size;
+    private final String sha256;
+    private volatile CompletableFuture<Void> stored = CompletableFuture.completedFuture(null);
+
+    PhotoUpload(Path file, String fileName, ImageType type, long size, String sha256) {
+        this.file = file;
+        this.fileName = fileName;
+        this.type = type;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Describe the photo by what was received
+     */
+    void describe(Photo photo) {
+        photo.setFileType(type.getContentType());
+        photo.setFileName(fileName);
+        photo.setFileExtension(type.getExtension());
+        photo.setFileSize(size);
+        photo.setSha256(sha256);
+    }
+
+    void setStored(CompletableFuture<Void> stored) {
+        this.stored = stored;
+    }
+
+    /**
+     * Wait until the file is in place, once the transaction that stored it has committed
+     *
+     * @throws PhotoUploadException if the file could not be moved into place; the photo has been dropped then
+     */
+    public void awaitStored() {
+        try {
+            stored.join();
+        } catch (CompletionException e) {
+            throw new PhotoUploadException(e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Wait until the file is in place, like {@link #awaitStored}, for a caller whose other changes are
+     * committed whether or not the photo is
+     *
+     * @return {@code false} if the file could not be moved into place; the photo has been dropped then,
+     * and nothing refers to it any more
+     */
+    public boolean tryAwaitStored() {
+        return stored.handle((result, e) -> e == null).join();
+    }
+
+    @Override
+    public void close() {
+        stored.exceptionally(e -> null).join();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete " + file, e);
+        }
+    }
+}
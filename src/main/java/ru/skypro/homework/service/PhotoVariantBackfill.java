@@ -0,0 +1,58 @@
+package ru.skypro.homework.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.model.PhotoSize;
+import ru.skypro.homework.repository.PhotoRepository;
+
+import java.util.List;
+
+/**
+ * Queues variant generation for photos stored before variants existed.
+ * Run once with {@code --ads.photos.variants.backfill=true}; the application serves requests meanwhile.
+ * Photos that already have a thumbnail are skipped, photos too small for one are only read up to their header.
+ */
+@Component
+@ConditionalOnProperty(name = "ads.photos.variants.backfill", havingValue = "true")
+@Slf4j
+public class PhotoVariantBackfill implements ApplicationRunner {
+    private static final int BATCH_SIZE = 500;
+
+    private final PhotoRepository photoRepository;
+    private final PhotoVariantGenerator photoVariantGenerator;
+    private final PhotoStorage photoStorage;
+
+    public PhotoVariantBackfill(PhotoRepository photoRepository,
+                                PhotoVariantGenerator photoVariantGenerator,
+                                PhotoStorage photoStorage) {
+        this.photoRepository = photoRepository;
+        this.photoVariantGenerator = photoVariantGenerator;
+        this.photoStorage = photoStorage;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        log.info("Backfill photo variants");
+        int queued = 0;
+        int lastId = 0;
+        List<Photo> photos;
+        do {
+            photos = photoRepository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.ofSize(BATCH_SIZE));
+            for (Photo photo : photos) {
+                lastId = photo.getId();
+                if (photoStorage.find(photo, PhotoSize.ORIGINAL) != null
+                        && photoStorage.find(photo, PhotoSize.THUMB) == null) {
+                    photoVariantGenerator.enqueue(photo);
+                    queued++;
+                }
+            }
+        } while (photos.size() == BATCH_SIZE);
+        log.info("Queued variants of " + queued + " photos, last photo id " + lastId);
+    }
+}
@@ -0,0 +1,237 @@
+package ru.skypro.homework.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.model.PhotoSize;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the downscaled {@link PhotoSize#VARIANTS} of stored photos on a bounded pool of
+ * {@code ads.photos.variants.workers} threads with a queue of {@code ads.photos.variants.queue-capacity} jobs.
+ * <p>
+ * A job is queued once the upload has committed. Photos are decoded once with source subsampling,
+ * so a large upload never expands to its full size in memory, and each variant is downscaled from it
+ * in halving steps. Variants are written to a temporary file and moved into place, and discarded if
+ * the photo was replaced meanwhile. Photos that are smaller than a variant, or that {@link ImageIO}
+ * cannot decode, get no variant: downloads fall back to the original.
+ */
+@Component
+@Slf4j
+public class PhotoVariantGenerator implements MeterBinder {
+    private final PhotoStorage photoStorage;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public PhotoVariantGenerator(PhotoStorage photoStorage,
+                                 @Value("${ads.photos.variants.workers}") int workers,
+                                 @Value("${ads.photos.variants.queue-capacity}") int queueCapacity) {
+        this.photoStorage = photoStorage;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), task -> {
+            Thread thread = new Thread(task, "photo-variants-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.executor.prestartAllCoreThreads();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPhotoStored(PhotoStoredEvent event) {
+        try {
+            executor.execute(job(event.getPhoto()));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            log.warn("Photo variant queue is full, photo id " + event.getPhoto().getId() + " is served in original size");
+        }
+    }
+
+    /**
+     * Queue a job, waiting for room in the queue rather than dropping it
+     */
+    public void enqueue(Photo photo) throws InterruptedException {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Photo variant generator is shut down");
+        }
+        // all workers are prestarted, so a queued job is always picked up
+        executor.getQueue().put(job(photo));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("ads.photos.variants.queue", executor, e -> e.getQueue().size())
+                .description("Photos waiting for their size variants")
+                .register(registry);
+        FunctionCounter.builder("ads.photos.variants.generated", generated, AtomicLong::get)
+                .description("Size variants written")
+                .register(registry);
+        FunctionCounter.builder("ads.photos.variants.rejected", rejected, AtomicLong::get)
+                .description("Photos left without variants because the queue was full")
+                .register(registry);
+        FunctionCounter.builder("ads.photos.variants.failed", failed, AtomicLong::get)
+                .description("Photos whose variants could not be generated")
+                .register(registry);
+    }
+
+    private Runnable job(Photo photo) {
+        return () -> {
+            try {
+                generate(photo);
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+                log.warn("Failed to generate variants of photo id " + photo.getId(), e);
+            }
+        };
+    }
+
+    /**
+     * Write the variants of the photo that are smaller than the photo itself
+     *
+     * @return number of variants written
+     */
+    int generate(Photo photo) throws IOException {
+        Path original = photoStorage.find(photo, PhotoSize.ORIGINAL);
+        if (original == null) {
+            return 0;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(original, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(original.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return 0;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int dimension = Math.max(width, height);
+                int written = 0;
+                BufferedImage source = null;
+                for (PhotoSize size : PhotoSize.VARIANTS) {
+                    if (dimension <= size.getMaxDimension()) {
+                        continue;
+                    }
+                    if (source == null) {
+                        int step = Math.max(1, dimension / (2 * size.getMaxDimension()));
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceSubsampling(step, step, 0, 0);
+                        source = reader.read(0, param);
+                        photoStorage.recordRead(original, attributes.size());
+                    }
+                    double scale = (double) size.getMaxDimension() / dimension;
+                    BufferedImage variant = scale(source,
+                            Math.max(1, (int) Math.round(width * scale)),
+                            Math.max(1, (int) Math.round(height * scale)));
+                    if (!write(photo, size, variant, original, attributes)) {
+                        break;
+                    }
+                    written++;
+                }
+                generated.addAndGet(written);
+                return written;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Downscale in halving steps, which keeps bilinear filtering from skipping source pixels
+     */
+    private static BufferedImage scale(BufferedImage source, int width, int height) {
+        BufferedImage current = source;
+        int w = source.getWidth();
+        int h = source.getHeight();
+        do {
+            w = Math.max(width, w / 2);
+            h = Math.max(height, h / 2);
+            BufferedImage next = new BufferedImage(w, h,
+                    source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (w != width || h != height);
+        return current;
+    }
+
+    /**
+     * Move the variant into place unless the photo has been replaced since it was read
+     *
+     * @return whether the variant was written
+     */
+    private boolean write(Photo photo, PhotoSize size, BufferedImage variant,
+                                 Path original, BasicFileAttributes read) throws IOException {
+        Path target = photo.getVariantPath(size);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), "variant-", ".tmp");
+        try {
+            if (!ImageIO.write(variant, photo.getVariantExtension(), temp.toFile())) {
+                return false;
+            }
+            BasicFileAttributes current;
+            try {
+                current = Files.readAttributes(original, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            if (current.size() != read.size() || !current.lastModifiedTime().equals(read.lastModifiedTime())) {
+                return false;
+            }
+            long length = Files.size(temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            photoStorage.recordWrite(target, length);
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
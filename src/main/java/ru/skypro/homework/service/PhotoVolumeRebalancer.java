@@ -0,0 +1,127 @@
+package ru.skypro.homework.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Avatar;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.model.PhotoSize;
+import ru.skypro.homework.repository.PhotoRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves photos to the volume that owns their content hash, after {@code ads.photos.volumes.roots} changed.
+ * Run once with {@code --ads.photos.volumes.rebalance=true}; the application serves requests meanwhile.
+ * <p>
+ * With consistent hashing only the share of photos taken over by an added volume moves, and every photo
+ * of a removed volume. The files of a photo are copied before the row is pointed at the new directory,
+ * and the old files are deleted once {@code ads.photos.sharding.grace-period} has passed after each batch.
+ * Photos stored by id are left to {@link PhotoDedupMigration}.
+ */
+@Component
+@ConditionalOnProperty(name = "ads.photos.volumes.rebalance", havingValue = "true")
+@Slf4j
+public class PhotoVolumeRebalancer implements ApplicationRunner {
+    private static final int BATCH_SIZE = 500;
+
+    private final PhotoRepository photoRepository;
+    private final PhotoService photoService;
+    private final PhotoCache photoCache;
+    private final PhotoStorage photoStorage;
+    private final String imagesDir;
+    private final String avatarsDir;
+    private final Duration gracePeriod;
+
+    public PhotoVolumeRebalancer(PhotoRepository photoRepository,
+                                 PhotoService photoService,
+                                 PhotoCache photoCache,
+                                 PhotoStorage photoStorage,
+                                 @Value("${path.to.images.folder}") String imagesDir,
+                                 @Value("${path.to.avatars.folder}") String avatarsDir,
+                                 @Value("${ads.photos.sharding.grace-period}") Duration gracePeriod) {
+        this.photoRepository = photoRepository;
+        this.photoService = photoService;
+        this.photoCache = photoCache;
+        this.photoStorage = photoStorage;
+        this.imagesDir = imagesDir;
+        this.avatarsDir = avatarsDir;
+        this.gracePeriod = gracePeriod;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException, InterruptedException {
+        log.info("Rebalance photo volumes");
+        int moved = 0;
+        int lastId = 0;
+        List<Photo> photos;
+        do {
+            photos = photoRepository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.ofSize(BATCH_SIZE));
+            List<Path> old = new ArrayList<>();
+            for (Photo photo : photos) {
+                lastId = photo.getId();
+                if (photo.getSha256() != null && move(photo, old)) {
+                    moved++;
+                }
+            }
+            if (!old.isEmpty()) {
+                Thread.sleep(gracePeriod.toMillis());
+            }
+            for (Path path : old) {
+                Files.deleteIfExists(path);
+                photoCache.invalidate(path);
+            }
+        } while (photos.size() == BATCH_SIZE);
+        log.info("Moved " + moved + " photos between volumes, last photo id " + lastId);
+    }
+
+    /**
+     * Copy the files of the photo to the volume owning its hash and point the photo there
+     *
+     * @param old collects the files to delete once no request reads them any more
+     * @return whether the photo was moved
+     */
+    boolean move(Photo photo, List<Path> old) throws IOException {
+        String dir = photoStorage.directory(photo instanceof Avatar ? avatarsDir : imagesDir, photo.getSha256());
+        if (Paths.get(dir).equals(Paths.get(photo.getPhotoDir()))) {
+            return false;
+        }
+        List<Path> sources = new ArrayList<>();
+        List<Path> copies = new ArrayList<>();
+        String from = photo.getPhotoDir();
+        for (PhotoSize size : PhotoSize.values()) {
+            Path source = photoStorage.find(photo, size);
+            if (source == null) {
+                continue;
+            }
+            photo.setPhotoDir(dir);
+            Path target = photo.getVariantPath(size);
+            photo.setPhotoDir(from);
+            photoStorage.copyInto(source, target);
+            sources.add(source);
+            copies.add(target);
+        }
+        if (sources.isEmpty()) {
+            log.warn("Photo id " + photo.getId() + " has no file in " + from);
+            return false;
+        }
+        if (!photoService.relocate(photo.getId(), dir)) {
+            old.addAll(copies);
+            return false;
+        }
+        old.addAll(sources);
+        return true;
+    }
+}
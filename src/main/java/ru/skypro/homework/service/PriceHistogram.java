@@ -0,0 +1,132 @@
+package ru.skypro.homework.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.skypro.homework.repository.AdsFilter;
+import ru.skypro.homework.repository.AdvertRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Advert counts per price bucket over the whole table, for the facets of unfiltered listings.
+ * <p>
+ * Counted once by {@link AdvertRepository#countPriceBuckets} when the application is ready,
+ * then kept current from {@link AdvertChangedEvent}s after commit, so a listing does not
+ * group the whole table. Recounted every {@code ads.facets.resync-interval} to correct any drift;
+ * the changes committed after the recount took its snapshot, see {@link AdvertSnapshotBarrier}, are applied
+ * to the new counts as well.
+ */
+@Component
+@Slf4j
+public class PriceHistogram {
+    private final AdvertRepository advertRepository;
+    private final AdvertSnapshotBarrier advertSnapshotBarrier;
+    private final int[] bounds;
+    private final Object lock = new Object();
+    /**
+     * Counts per bucket, {@code null} until the first count
+     */
+    private long[] counts;
+    /**
+     * Changes delivered after the snapshot of a recount, {@code null} when not recounting
+     */
+    private List<AdvertChangedEvent> pending;
+
+    public PriceHistogram(AdvertRepository advertRepository,
+                          AdvertSnapshotBarrier advertSnapshotBarrier,
+                          @Value("${ads.facets.price-bounds}") int[] bounds) {
+        if (bounds.length == 0) {
+            throw new IllegalArgumentException("ads.facets.price-bounds must not be empty");
+        }
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i - 1] >= bounds[i]) {
+                throw new IllegalArgumentException("ads.facets.price-bounds must be ascending");
+            }
+        }
+        this.advertRepository = advertRepository;
+        this.advertSnapshotBarrier = advertSnapshotBarrier;
+        this.bounds = bounds.clone();
+    }
+
+    /**
+     * Ascending bucket bounds, see {@link AdvertRepository#countPriceBuckets}
+     */
+    public int[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Current counts per bucket, or {@code null} if they have not been counted yet
+     */
+    public long[] counts() {
+        synchronized (lock) {
+            return counts == null ? null : counts.clone();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${ads.facets.resync-interval}", fixedDelayString = "${ads.facets.resync-interval}")
+    public void recount() {
+        long[] fresh;
+        try {
+            fresh = advertSnapshotBarrier.read(() -> {
+                synchronized (lock) {
+                    pending = new ArrayList<>();
+                }
+            }, () -> advertRepository.countPriceBuckets(AdsFilter.NONE, bounds)).orElse(null);
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                pending = null;
+            }
+            throw e;
+        }
+        if (fresh == null) {
+            synchronized (lock) {
+                pending = null;
+            }
+            log.warn("Price histogram not recounted, advert commits kept it from taking a snapshot");
+            return;
+        }
+        synchronized (lock) {
+            pending.forEach(event -> apply(fresh, event));
+            if (counts != null && !Arrays.equals(counts, fresh)) {
+                log.warn("Price histogram drifted: " + Arrays.toString(counts) + " counted " + Arrays.toString(fresh));
+            }
+            counts = fresh;
+            pending = null;
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAdvertChanged(AdvertChangedEvent event) {
+        synchronized (lock) {
+            if (pending != null) {
+                pending.add(event);
+            }
+            if (counts != null) {
+                apply(counts, event);
+            }
+        }
+    }
+
+    private void apply(long[] target, AdvertChangedEvent event) {
+        if (event.getBefore() != null) {
+            target[bucketOf(event.getBefore().getPrice())]--;
+        }
+        if (event.getAfter() != null) {
+            target[bucketOf(event.getAfter().getPrice())]++;
+        }
+    }
+
+    private int bucketOf(int price) {
+        int at = Arrays.binarySearch(bounds, price);
+        return at >= 0 ? at + 1 : -at - 1;
+    }
+}
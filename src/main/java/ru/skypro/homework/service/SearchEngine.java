@@ -0,0 +1,20 @@
+package ru.skypro.homework.service;
+
+/**
+ * Backend of {@link AdvertService#search}, selected by the {@code ads.search.engine} property
+ */
+public enum SearchEngine {
+    /**
+     * PostgreSQL full-text search with ranking, needs the {@code adverts.search_vector} column.
+     * Fuzzy requests use {@code pg_trgm} similarity on titles instead
+     */
+    FULL_TEXT,
+    /**
+     * Case-insensitive substring match on title and description, newest first. Portable (H2)
+     */
+    LIKE,
+    /**
+     * In-memory {@link AdvertIndex}, newest first. Falls back to {@link #LIKE} until the index is built
+     */
+    INDEX
+}
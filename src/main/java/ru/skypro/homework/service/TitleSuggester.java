@@ -0,0 +1,332 @@
+package ru.skypro.homework.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.projection.TitleCountProjection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Title suggestions for {@code GET /ads/suggest}.
+ * <p>
+ * Distinct titles are kept in an immutable {@link Snapshot}: sorted by their normalized form,
+ * so a prefix is a binary searched range, with a segment tree over the weights to take the
+ * top k of that range without scanning it. A title weighs the number of live adverts using it,
+ * ties go to the newest advert. The snapshot is cut to {@code ads.suggest.memory-budget},
+ * dropping the lightest titles first.
+ * <p>
+ * {@link AdvertChangedEvent}s are queued after commit and folded into a new snapshot
+ * every {@code ads.suggest.refresh-interval}. A build drops the queued changes that its count of the
+ * database already contains, see {@link AdvertSnapshotBarrier}. The counts of titles dropped by the budget
+ * are lost to that fold, so a cut snapshot is rebuilt from the database every
+ * {@code ads.suggest.rebuild-interval}, as is one whose build was skipped.
+ */
+@Component
+@Slf4j
+public class TitleSuggester implements MeterBinder {
+    /**
+     * Rough per title overhead: string headers of the title and its normalized key, array slots
+     * and segment tree nodes
+     */
+    private static final int TITLE_OVERHEAD_BYTES = 40 + 40 + 4 + 4 + 4 + 4 + 8;
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private final AdvertRepository advertRepository;
+    private final AdvertSnapshotBarrier advertSnapshotBarrier;
+    private final long memoryBudget;
+    private final Queue<AdvertChangedEvent> pending = new ConcurrentLinkedQueue<>();
+    private volatile Snapshot snapshot = new Snapshot(List.of(), false);
+    /**
+     * Whether the snapshot has been built from the database at least once
+     */
+    private volatile boolean built;
+
+    public TitleSuggester(AdvertRepository advertRepository,
+                          AdvertSnapshotBarrier advertSnapshotBarrier,
+                          @Value("${ads.suggest.memory-budget}") DataSize memoryBudget) {
+        this.advertRepository = advertRepository;
+        this.advertSnapshotBarrier = advertSnapshotBarrier;
+        this.memoryBudget = memoryBudget.toBytes();
+    }
+
+    /**
+     * Titles starting with the prefix, case-insensitive, heaviest first
+     *
+     * @param prefix typed text
+     * @param limit  maximum number of titles
+     */
+    public List<String> suggest(String prefix, int limit) {
+        return snapshot.top(normalize(prefix), limit);
+    }
+
+    /**
+     * Build the snapshot from the titles in the database; the changes queued before its snapshot are already there
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void build() {
+        long start = System.nanoTime();
+        Optional<List<TitleCountProjection>> titles = advertSnapshotBarrier.read(pending::clear,
+                advertRepository::countTitles);
+        if (titles.isEmpty()) {
+            log.warn("Title suggestions not built, advert commits kept them from taking a snapshot");
+            return;
+        }
+        Map<String, Entry> entries = new HashMap<>();
+        for (TitleCountProjection title : titles.get()) {
+            if (title.getTitle() != null) {
+                entries.computeIfAbsent(normalize(title.getTitle()), key -> new Entry(title.getTitle()))
+                        .add((int) title.getCount(), title.getNewestId());
+            }
+        }
+        snapshot = fitBudget(entries.values());
+        built = true;
+        log.info("Built title suggestions: " + snapshot.titles.length + " titles in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAdvertChanged(AdvertChangedEvent event) {
+        pending.add(event);
+    }
+
+    /**
+     * Fold the queued changes into a new snapshot
+     */
+    @Scheduled(fixedDelayString = "${ads.suggest.refresh-interval}")
+    public synchronized void refresh() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Snapshot current = snapshot;
+        Map<String, Entry> entries = new HashMap<>();
+        for (int i = 0; i < current.titles.length; i++) {
+            Entry entry = new Entry(current.titles[i]);
+            entry.add(current.counts[i], current.newestIds[i]);
+            entries.put(current.keys[i], entry);
+        }
+        for (AdvertChangedEvent event = pending.poll(); event != null; event = pending.poll()) {
+            if (event.getBefore() != null && event.getBefore().getTitle() != null) {
+                Entry entry = entries.get(normalize(event.getBefore().getTitle()));
+                if (entry != null) {
+                    entry.add(-1, 0);
+                }
+            }
+            if (event.getAfter() != null && event.getAfter().getTitle() != null) {
+                String title = event.getAfter().getTitle();
+                entries.computeIfAbsent(normalize(title), key -> new Entry(title)).add(1, event.getId());
+            }
+        }
+        entries.values().removeIf(entry -> entry.count <= 0);
+        snapshot = fitBudget(entries.values());
+    }
+
+    /**
+     * Rebuild a snapshot cut by the memory budget, restoring the counts of the titles it dropped,
+     * or build one that was skipped
+     */
+    @Scheduled(fixedDelayString = "${ads.suggest.rebuild-interval}",
+            initialDelayString = "${ads.suggest.rebuild-interval}")
+    public void rebuild() {
+        if (!built || snapshot.truncated) {
+            build();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("ads.suggest.titles", this, suggester -> suggester.snapshot.titles.length)
+                .description("Distinct titles available for suggestions")
+                .register(registry);
+        Gauge.builder("ads.suggest.memory", this, suggester -> suggester.snapshot.bytes)
+                .description("Estimated heap used by the title suggestions")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    static String normalize(String text) {
+        return SPACES.matcher(text.trim()).replaceAll(" ").toLowerCase(Locale.ROOT).replace('ё', 'е');
+    }
+
+    private static long bytes(String title) {
+        return TITLE_OVERHEAD_BYTES + 4L * title.length();
+    }
+
+    /**
+     * Snapshot of the heaviest titles whose estimated size fits into the memory budget
+     */
+    private Snapshot fitBudget(Collection<Entry> entries) {
+        List<Entry> byWeight = new ArrayList<>(entries);
+        byWeight.sort(Comparator.comparingLong(Entry::weight).reversed());
+        long total = 0;
+        int fits = 0;
+        while (fits < byWeight.size() && total + bytes(byWeight.get(fits).title) <= memoryBudget) {
+            total += bytes(byWeight.get(fits++).title);
+        }
+        if (fits < byWeight.size()) {
+            log.warn("Title suggestions over budget, " + (byWeight.size() - fits) + " titles dropped");
+        }
+        return new Snapshot(byWeight.subList(0, fits), fits < byWeight.size());
+    }
+
+    private static class Entry {
+        private final String title;
+        private int count;
+        private int newestId;
+
+        Entry(String title) {
+            this.title = title;
+        }
+
+        void add(int count, int newestId) {
+            this.count += count;
+            this.newestId = Math.max(this.newestId, newestId);
+        }
+
+        long weight() {
+            return weightOf(count, newestId);
+        }
+
+        static long weightOf(int count, int newestId) {
+            return (long) count << 32 | newestId;
+        }
+    }
+
+    /**
+     * Immutable titles sorted by normalized form with an iterative segment tree,
+     * whose node {@code i} holds the index of the heaviest title of its range
+     */
+    private static class Snapshot {
+        private final String[] titles;
+        /**
+         * Normalized titles, in the same order
+         */
+        private final String[] keys;
+        private final int[] counts;
+        private final int[] newestIds;
+        private final int[] tree;
+        private final long bytes;
+        /**
+         * Whether titles were dropped to fit the memory budget
+         */
+        private final boolean truncated;
+
+        Snapshot(List<Entry> entries, boolean truncated) {
+            int n = entries.size();
+            String[] unsorted = new String[n];
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                unsorted[i] = normalize(entries.get(i).title);
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(i -> unsorted[i]));
+            titles = new String[n];
+            keys = new String[n];
+            counts = new int[n];
+            newestIds = new int[n];
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                Entry entry = entries.get(order[i]);
+                titles[i] = entry.title;
+                keys[i] = unsorted[order[i]];
+                counts[i] = entry.count;
+                newestIds[i] = entry.newestId;
+                total += TitleSuggester.bytes(entry.title);
+            }
+            bytes = total;
+            this.truncated = truncated;
+            tree = new int[2 * n];
+            for (int i = 0; i < n; i++) {
+                tree[n + i] = i;
+            }
+            for (int i = n - 1; i > 0; i--) {
+                tree[i] = heavier(tree[2 * i], tree[2 * i + 1]);
+            }
+        }
+
+        List<String> top(String prefix, int limit) {
+            int from = lowerBound(prefix);
+            int to = lowerBound(prefix + Character.MAX_VALUE);
+            List<String> result = new ArrayList<>(limit);
+            PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                    Comparator.comparingLong((int[] range) -> weight(range[2])).reversed());
+            offer(ranges, from, to);
+            while (!ranges.isEmpty() && result.size() < limit) {
+                int[] range = ranges.poll();
+                result.add(titles[range[2]]);
+                offer(ranges, range[0], range[2]);
+                offer(ranges, range[2] + 1, range[1]);
+            }
+            return result;
+        }
+
+        /**
+         * Push the half open range with its heaviest index, unless it is empty
+         */
+        private void offer(PriorityQueue<int[]> ranges, int from, int to) {
+            if (from < to) {
+                ranges.add(new int[]{from, to, heaviest(from, to)});
+            }
+        }
+
+        private int heaviest(int from, int to) {
+            int n = titles.length;
+            int best = from;
+            for (int l = from + n, r = to + n; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    best = heavier(best, tree[l++]);
+                }
+                if ((r & 1) == 1) {
+                    best = heavier(best, tree[--r]);
+                }
+            }
+            return best;
+        }
+
+        private int heavier(int a, int b) {
+            return weight(a) >= weight(b) ? a : b;
+        }
+
+        private long weight(int i) {
+            return Entry.weightOf(counts[i], newestIds[i]);
+        }
+
+        /**
+         * First index whose normalized title is not below the key
+         */
+        private int lowerBound(String key) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
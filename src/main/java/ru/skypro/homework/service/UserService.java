@@ -1,12 +1,13 @@
 package ru.skypro.homework.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.provisioning.JdbcUserDetailsManager;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
 import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.configuration.CacheConfig;
 import ru.skypro.homework.dto.NewPasswordDto;
 import ru.skypro.homework.dto.RegisterReqDto;
 import ru.skypro.homework.model.Role;
@@ -16,11 +17,11 @@ import ru.skypro.homework.exception.UserUnauthorizedException;
 import ru.skypro.homework.mapper.UserMapper;
 import ru.skypro.homework.model.Avatar;
 import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdvertRepository;
 import ru.skypro.homework.repository.UserRepository;
-import ru.skypro.homework.dto.SecuringUserDto;
-import ru.skypro.homework.security.UserDetailsImpl;
+import ru.skypro.homework.repository.projection.UserVersionProjection;
 
-import java.io.IOException;
+import java.util.Objects;
 
 /**
  * service for maintain users via {@link UserRepository}
@@ -30,23 +31,26 @@ import java.io.IOException;
 public class UserService {
     private final UserRepository userRepository;
     private final UserMapper userMapper;
-    private final JdbcUserDetailsManager manager;
     private final PasswordEncoder encoder;
     private final PhotoService photoService;
     private final AuthenticationComponent auth;
+    private final AdvertRepository advertRepository;
+    private final CacheManager cacheManager;
 
     public UserService(UserRepository userRepository,
                        UserMapper userMapper,
-                       JdbcUserDetailsManager manager,
                        PasswordEncoder encoder,
                        PhotoService photoService,
-                       AuthenticationComponent auth) {
+                       AuthenticationComponent auth,
+                       AdvertRepository advertRepository,
+                       CacheManager cacheManager) {
         this.userRepository = userRepository;
         this.userMapper = userMapper;
-        this.manager = manager;
         this.encoder = encoder;
         this.photoService = photoService;
         this.auth = auth;
+        this.advertRepository = advertRepository;
+        this.cacheManager = cacheManager;
     }
 
     /**
@@ -58,15 +62,27 @@ public class UserService {
     @Transactional
     public void create(RegisterReqDto reqDto, Role role) {
         log.info("create new user");
-        SecuringUserDto securingUserDto = new SecuringUserDto(reqDto.getUsername(),
-                encoder.encode(reqDto.getPassword()), role, true);
-        UserDetailsImpl userDetails = new UserDetailsImpl(securingUserDto);
-        manager.createUser(userDetails);
-        update(reqDto, role);
+        User user = new User();
+        user.setUsername(reqDto.getUsername());
+        user.setPassword(encoder.encode(reqDto.getPassword()));
+        user.setEnabled(true);
+        userMapper.updateUser(reqDto, user);
+        user.setRole(role);
+        userRepository.save(user);
+    }
+
+    /**
+     * Whether a user with the username exists
+     *
+     * @param username username
+     * @return true if it exists
+     */
+    public boolean exists(String username) {
+        return userRepository.existsByUsername(username);
     }
 
     /**
-     * Update user info
+     * Update user info. The cached user details are evicted after commit, as the role may have changed.
      *
      * @param reqDto user data
      */
@@ -80,10 +96,12 @@ public class UserService {
         userMapper.updateUser(reqDto, user);
         user.setRole(role);
         userRepository.save(user);
+        evictUserDetails(user.getUsername());
     }
 
     /**
-     * Update user info via {@link UserRepository}
+     * Update user info via {@link UserRepository}. Cached cards of the user's adverts
+     * are evicted after commit if the name or phone has changed.
      *
      * @param userDto user DTO object
      * @return user DTO object
@@ -91,37 +109,45 @@ public class UserService {
     @Transactional
     public UserDto update(UserDto userDto) {
         log.info("update user info: " + userDto);
-        User user = userRepository.findByUsername(auth.getAuth().getName());
-        if (user == null) {
-            throw new UserUnauthorizedException("User not found");
-        }
+        User user = findAuthUser();
+        boolean contactsChanged = !Objects.equals(user.getFirstName(), userDto.getFirstName())
+                || !Objects.equals(user.getLastName(), userDto.getLastName())
+                || !Objects.equals(user.getPhone(), userDto.getPhone());
         userMapper.updateUser(userDto, user);
         userRepository.save(user);
+        if (contactsChanged) {
+            evictAdverts(user.getId());
+        }
         return userMapper.userToUserDto(user);
     }
 
     /**
-     * Change user password
+     * Change user password. The cached user details are evicted after commit.
      *
      * @param newPassword new password
      */
     @Transactional
     public void setPassword(NewPasswordDto newPassword) {
         log.info("set new password");
-        manager.changePassword(newPassword.getCurrentPassword(), encoder.encode(newPassword.getNewPassword()));
+        User user = findAuthUser();
+        user.setPassword(encoder.encode(newPassword.getNewPassword()));
+        userRepository.save(user);
+        evictUserDetails(user.getUsername());
     }
 
     /**
-     * Update user image
+     * Update user image. The cached user details, which hold the avatar id, are evicted after commit.
      *
-     * @param image image
+     * @param upload received image
+     * @return stored avatar
      */
     @Transactional
-    public byte[] updateAvatar(MultipartFile image) throws IOException {
+    public Avatar updateAvatar(PhotoUpload upload) {
         log.info("update user image");
-        User user = userRepository.findByUsername(auth.getAuth().getName());
-        photoService.uploadAvatar(user, image);
-        return image.getBytes();
+        User user = findAuthUser();
+        Avatar avatar = photoService.uploadAvatar(user, upload);
+        evictUserDetails(user.getUsername());
+        return avatar;
     }
 
     /**
@@ -130,8 +156,9 @@ public class UserService {
      * @return avatar object
      */
     public Avatar downloadAvatar() {
-        log.info("Download user image with email: " + auth.getAuth().getName());
-        User user = userRepository.findByUsername(auth.getAuth().getName());
+        log.info("Download user image with email: " + auth.getUser().getUsername());
+        User user = userRepository.findWithAvatarById(auth.getUser().getId())
+                .orElseThrow(() -> new UserUnauthorizedException("User not found"));
         return user.getAvatar();
     }
 
@@ -143,7 +170,7 @@ public class UserService {
      */
     public Avatar downloadAvatarByUserId(int id) {
         log.info("Download user image with id: " + id);
-        User user = userRepository.findById(id)
+        User user = userRepository.findWithAvatarById(id)
                 .orElseThrow(() -> new UserNotFoundException("User not found"));
         return user.getAvatar();
     }
@@ -154,7 +181,36 @@ public class UserService {
      * @return user DTO object
      */
     public UserDto findInfo() {
-        User user = userRepository.findByUsername(auth.getAuth().getName());
-        return userMapper.userToUserDto(user);
+        return userMapper.userToUserDto(findAuthUser());
+    }
+
+    /**
+     * Entity tag of the authorized user's info, derived from the user id and version
+     *
+     * @return entity tag
+     */
+    public String findETag() {
+        UserVersionProjection user = userRepository.findVersionById(auth.getUser().getId())
+                .orElseThrow(() -> new UserUnauthorizedException("User not found"));
+        return user.getId() + "." + user.getVersion();
+    }
+
+    private User findAuthUser() {
+        return userRepository.findById(auth.getUser().getId())
+                .orElseThrow(() -> new UserUnauthorizedException("User not found"));
+    }
+
+    private void evictUserDetails(String username) {
+        Cache userDetails = cacheManager.getCache(CacheConfig.USER_DETAILS);
+        if (userDetails != null) {
+            userDetails.evict(username);
+        }
+    }
+
+    private void evictAdverts(int authorId) {
+        Cache fullAds = cacheManager.getCache(CacheConfig.FULL_ADS);
+        if (fullAds != null) {
+            advertRepository.findIdsByAuthorId(authorId).forEach(fullAds::evict);
+        }
     }
 }
@@ -1,30 +1,42 @@
 package ru.skypro.homework.service.impl;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.provisioning.JdbcUserDetailsManager;
 import org.springframework.stereotype.Service;
 import ru.skypro.homework.dto.RegisterReqDto;
+import ru.skypro.homework.dto.TokenDto;
+import ru.skypro.homework.exception.InvalidTokenException;
 import ru.skypro.homework.model.Role;
+import ru.skypro.homework.security.TokenService;
+import ru.skypro.homework.security.UserDetailsImpl;
 import ru.skypro.homework.service.AuthService;
 import ru.skypro.homework.service.UserService;
 
+import java.util.Optional;
+
 @Service
 @Slf4j
 public class AuthServiceImpl implements AuthService {
 
-    private final JdbcUserDetailsManager manager;
+    private final UserDetailsService userDetailsService;
 
     private final PasswordEncoder encoder;
 
     private final UserService userService;
 
+    private final TokenService tokenService;
+
 
-    public AuthServiceImpl(JdbcUserDetailsManager manager, PasswordEncoder passwordEncoder, UserService userService) {
-        this.manager = manager;
+    public AuthServiceImpl(UserDetailsService userDetailsService, PasswordEncoder passwordEncoder,
+                           UserService userService, TokenService tokenService) {
+        this.userDetailsService = userDetailsService;
         this.encoder = passwordEncoder;
         this.userService = userService;
+        this.tokenService = tokenService;
     }
 
     /**
@@ -32,16 +44,71 @@ public class AuthServiceImpl implements AuthService {
      *
      * @param userName username
      * @param password password
-     * @return true - success login, false - login failed
+     * @return access and refresh tokens, empty if login failed
      */
     @Override
-    public boolean login(String userName, String password) {
+    public Optional<TokenDto> login(String userName, String password) {
         log.info("login user: " + userName);
-        if (!manager.userExists(userName)) {
-            return false;
+        UserDetails userDetails;
+        try {
+            userDetails = userDetailsService.loadUserByUsername(userName);
+        } catch (UsernameNotFoundException e) {
+            return Optional.empty();
+        }
+        if (!userDetails.isEnabled() || !encoder.matches(password, userDetails.getPassword())) {
+            return Optional.empty();
+        }
+        return Optional.of(tokenService.issue(((UserDetailsImpl) userDetails).toAuthenticatedUser(),
+                userDetails.getPassword()));
+    }
+
+    /**
+     * Exchange a refresh token for new tokens; the refresh token is consumed, so it can not be used
+     * again, not even by a concurrent call.
+     * The user is read again, so a changed role or avatar or a disabled user takes effect, and
+     * refresh tokens issued before the last password change are rejected.
+     *
+     * @param refreshToken refresh token
+     * @return new access and refresh tokens
+     * @throws InvalidTokenException if the refresh token is not valid or the user is gone
+     */
+    @Override
+    public TokenDto refresh(String refreshToken) {
+        TokenService.Token token = tokenService.verify(refreshToken, TokenService.Type.REFRESH);
+        UserDetails userDetails;
+        try {
+            userDetails = userDetailsService.loadUserByUsername(token.getUser().getUsername());
+        } catch (UsernameNotFoundException e) {
+            throw new InvalidTokenException("User not found");
+        }
+        if (!userDetails.isEnabled()) {
+            throw new InvalidTokenException("User disabled");
+        }
+        if (!tokenService.matchesCredentials(token, userDetails.getPassword())) {
+            throw new InvalidTokenException("Password changed");
+        }
+        tokenService.consume(token);
+        return tokenService.issue(((UserDetailsImpl) userDetails).toAuthenticatedUser(), userDetails.getPassword());
+    }
+
+    /**
+     * Revoke the access token of the request and the refresh token, if given
+     *
+     * @param auth         authentication of the request
+     * @param refreshToken refresh token, may be null
+     */
+    @Override
+    public void logout(Authentication auth, String refreshToken) {
+        log.info("logout user: " + auth.getName());
+        if (auth.getDetails() instanceof TokenService.Token) {
+            tokenService.revoke((TokenService.Token) auth.getDetails());
+        }
+        if (refreshToken != null) {
+            TokenService.Token token = tokenService.verify(refreshToken, TokenService.Type.REFRESH);
+            if (token.getUser().getUsername().equals(auth.getName())) {
+                tokenService.revoke(token);
+            }
         }
-        UserDetails userDetails = manager.loadUserByUsername(userName);
-        return encoder.matches(password, userDetails.getPassword());
     }
 
     /**
@@ -54,7 +121,7 @@ public class AuthServiceImpl implements AuthService {
     @Override
     public boolean register(RegisterReqDto registerReq, Role role) {
         log.info("register new user");
-        if (manager.userExists(registerReq.getUsername())) {
+        if (userService.exists(registerReq.getUsername())) {
             return false;
         }
         userService.create(registerReq, role);
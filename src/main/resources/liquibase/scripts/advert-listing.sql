@@ -0,0 +1,5 @@
+-- liquibase formatted sql
+
+-- changeSet 11th:7
+create index adverts_price_id_idx on adverts (price, id);
+create index adverts_user_id_id_idx on adverts (user_id, id);
@@ -0,0 +1,11 @@
+-- liquibase formatted sql
+
+-- changeSet 11th:5 dbms:postgresql
+alter table adverts add column search_vector tsvector
+    generated always as (setweight(to_tsvector('russian', coalesce(title, '')), 'A') ||
+                         setweight(to_tsvector('russian', coalesce(description, '')), 'B')) stored;
+create index adverts_search_vector_idx on adverts using gin (search_vector);
+
+-- changeSet 11th:6 dbms:postgresql
+create extension if not exists pg_trgm;
+create index adverts_title_trgm_idx on adverts using gin (title gin_trgm_ops);
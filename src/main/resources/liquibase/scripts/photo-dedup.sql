@@ -0,0 +1,6 @@
+-- liquibase formatted sql
+
+-- changeSet 11th:9
+alter table photos add column sha256 varchar(64);
+alter table photos add column ref_count integer not null default 1;
+create unique index photos_type_sha256_idx on photos (photo_type, sha256);
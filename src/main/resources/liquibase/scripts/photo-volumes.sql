@@ -0,0 +1,4 @@
+-- liquibase formatted sql
+
+-- changeSet 11th:10
+alter table photos alter column photo_dir type varchar(255);
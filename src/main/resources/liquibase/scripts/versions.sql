@@ -0,0 +1,6 @@
+-- liquibase formatted sql
+
+-- changeSet 11th:8
+alter table adverts add column version bigint not null default 0;
+alter table comments add column version bigint not null default 0;
+alter table users add column version bigint not null default 0;
@@ -0,0 +1,28 @@
+package ru.skypro.homework;
+
+import net.ttddyy.dsproxy.QueryCount;
+import net.ttddyy.dsproxy.QueryCountHolder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Statement budget assertions over the counts collected by
+ * {@link ru.skypro.homework.configuration.DataSourceProxyBeanPostProcessor}.
+ * Call {@link #reset()} right before the code under test.
+ */
+public final class QueryBudget {
+    private QueryBudget() {
+    }
+
+    public static void reset() {
+        QueryCountHolder.clear();
+    }
+
+    public static void assertStatementsAtMost(long budget, String operation) {
+        QueryCount count = QueryCountHolder.getGrandTotal();
+        assertTrue(count.getTotal() <= budget, () -> operation + " executed " + count.getTotal()
+                + " statements (select " + count.getSelect() + ", insert " + count.getInsert()
+                + ", update " + count.getUpdate() + ", delete " + count.getDelete()
+                + "), budget is " + budget);
+    }
+}
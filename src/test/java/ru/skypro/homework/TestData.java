@@ -0,0 +1,52 @@
+package ru.skypro.homework;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bulk fixtures for {@code @DataJpaTest} slices, inserted with plain JDBC so that the
+ * persistence context under test starts empty.
+ * <p>
+ * Users get ids {@code 1..users} and usernames {@code user<id>@gmail.com}, each with an avatar.
+ * Adverts get ids {@code 1..adverts}, price {@code id % 10000}, an image and the author
+ * {@code id % users + 1}.
+ */
+public final class TestData {
+    private TestData() {
+    }
+
+    public static void insertUsersAndAdverts(JdbcTemplate jdbcTemplate, int users, int adverts) {
+        List<Object[]> photos = new ArrayList<>();
+        List<Object[]> userRows = new ArrayList<>();
+        for (int i = 1; i <= users; i++) {
+            photos.add(new Object[]{i, "AVATAR"});
+            userRows.add(new Object[]{i, username(i), "first name " + i, i});
+        }
+        List<Object[]> advertRows = new ArrayList<>();
+        for (int i = 1; i <= adverts; i++) {
+            photos.add(new Object[]{users + i, "IMAGE"});
+            advertRows.add(new Object[]{i, "title " + i, "description " + i, i % 10_000, i % users + 1, users + i});
+        }
+        jdbcTemplate.batchUpdate("insert into photos (id, photo_type, file_extension, file_size) " +
+                "values (?, ?, 'jpeg', 0)", photos);
+        jdbcTemplate.batchUpdate("insert into users (id, username, first_name, avatar_id, role, enabled) " +
+                "values (?, ?, ?, ?, 'USER', true)", userRows);
+        jdbcTemplate.batchUpdate("insert into adverts (id, title, description, price, user_id, image_id) " +
+                "values (?, ?, ?, ?, ?, ?)", advertRows);
+    }
+
+    public static void insertComments(JdbcTemplate jdbcTemplate, int advertId, int comments, int users) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 1; i <= comments; i++) {
+            rows.add(new Object[]{advertId * 100_000 + i, "comment " + i, i % users + 1, advertId});
+        }
+        jdbcTemplate.batchUpdate("insert into comments (id, text, author_id, advert_id, created_at) " +
+                "values (?, ?, ?, ?, current_timestamp)", rows);
+    }
+
+    public static String username(int userId) {
+        return "user" + userId + "@gmail.com";
+    }
+}
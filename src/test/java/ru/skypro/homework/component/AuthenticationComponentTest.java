@@ -0,0 +1,40 @@
+package ru.skypro.homework.component;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import ru.skypro.homework.exception.UserUnauthorizedException;
+import ru.skypro.homework.model.Role;
+import ru.skypro.homework.security.AuthenticatedUser;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuthenticationComponentTest {
+    private final AuthenticationComponent authenticationComponent = new AuthenticationComponent();
+
+    @AfterEach
+    public void clearAuthentication() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void getUser() {
+        AuthenticatedUser user = new AuthenticatedUser(1, "user@gmail.com", Role.ADMIN, 5);
+        SecurityContextHolder.getContext().setAuthentication(
+                new TestingAuthenticationToken(user, null, Role.ADMIN.getAuthority()));
+        assertSame(user, authenticationComponent.getUser());
+        assertEquals("user@gmail.com", authenticationComponent.getAuth().getName());
+        assertTrue(authenticationComponent.checkAdminRole());
+    }
+
+    @Test
+    public void getUserOfUnauthenticatedRequest() {
+        assertThrows(UserUnauthorizedException.class, authenticationComponent::getUser);
+        SecurityContextHolder.getContext().setAuthentication(new AnonymousAuthenticationToken("key", "anonymousUser",
+                AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS")));
+        assertThrows(UserUnauthorizedException.class, authenticationComponent::getUser);
+    }
+}
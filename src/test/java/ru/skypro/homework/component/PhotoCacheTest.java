@@ -0,0 +1,104 @@
+package ru.skypro.homework.component;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.PhotoSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhotoCacheTest {
+    private final PhotoCache photoCache = new PhotoCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(16), 2,
+            Runnable::run);
+    @TempDir
+    Path dir;
+
+    @Test
+    public void servesContentUntilFileChanges() throws IOException {
+        Path path = write("a.jpeg", 1000, (byte) 1);
+        ByteBuffer first = hot(path);
+        assertEquals(1000, first.remaining());
+        assertTrue(first.isDirect());
+        assertTrue(first.isReadOnly());
+        assertEquals(1, first.get(999));
+
+        Files.write(path, filled(1000, (byte) 2));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        assertEquals(2, hot(path).get(999));
+    }
+
+    @Test
+    public void admitsRepeatedMissesInBackground() throws IOException {
+        List<Runnable> loads = new ArrayList<>();
+        PhotoCache photoCache = new PhotoCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(16), 3, loads::add);
+        Path path = write("a.jpeg", 1000, (byte) 1);
+        assertNull(photoCache.get(path, attributes(path)));
+        assertNull(photoCache.get(path, attributes(path)));
+        assertTrue(loads.isEmpty());
+        assertNull(photoCache.get(path, attributes(path)));
+        assertNull(photoCache.get(path, attributes(path)));
+        assertEquals(1, loads.size());
+
+        loads.get(0).run();
+        assertEquals(1000, photoCache.get(path, attributes(path)).remaining());
+    }
+
+    @Test
+    public void skipsFilesOverTheEntryLimit() throws IOException {
+        Path path = write("large.jpeg", 16 * 1024 + 1, (byte) 1);
+        assertNull(photoCache.get(path, attributes(path)));
+    }
+
+    @Test
+    public void invalidatesPhotoWithVariants() throws IOException {
+        Image image = new Image(dir.toString());
+        image.setId(1);
+        image.setFileExtension("jpeg");
+        Path original = write(image.getFilePath().getFileName().toString(), 100, (byte) 1);
+        Path thumb = write(image.getVariantPath(PhotoSize.THUMB).getFileName().toString(), 10, (byte) 1);
+        BasicFileAttributes attributes = attributes(original);
+        hot(original);
+        hot(thumb);
+
+        Files.write(original, filled(100, (byte) 3));
+        Files.setLastModifiedTime(original, attributes.lastModifiedTime());
+        assertEquals(1, photoCache.get(original, attributes(original)).get(0));
+        photoCache.invalidate(image);
+        assertNull(photoCache.get(thumb, attributes(thumb)));
+        assertEquals(3, hot(original).get(0));
+    }
+
+    /**
+     * Contents of the file once it has been missed often enough to be admitted
+     */
+    private ByteBuffer hot(Path path) throws IOException {
+        assertNull(photoCache.get(path, attributes(path)));
+        assertNull(photoCache.get(path, attributes(path)));
+        return photoCache.get(path, attributes(path));
+    }
+
+    private Path write(String name, int size, byte value) throws IOException {
+        return Files.write(dir.resolve(name), filled(size, value));
+    }
+
+    private static byte[] filled(int size, byte value) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
+
+    private static BasicFileAttributes attributes(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+}
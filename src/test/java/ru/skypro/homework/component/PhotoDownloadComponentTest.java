@@ -0,0 +1,163 @@
+package ru.skypro.homework.component;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.PhotoSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhotoDownloadComponentTest {
+    private static final int LENGTH = 100_000;
+
+    private final PhotoCache photoCache = new PhotoCache(DataSize.ofMegabytes(1), DataSize.ofKilobytes(1), 2);
+    private final PhotoDownloadComponent photoDownload = new PhotoDownloadComponent(Duration.ofDays(1), photoCache,
+            new PhotoStorage(List.of(".")));
+    private final byte[] content = new byte[LENGTH];
+    private Image image;
+
+    @BeforeEach
+    public void setup(@TempDir Path dir) throws IOException {
+        for (int i = 0; i < LENGTH; i++) {
+            content[i] = (byte) i;
+        }
+        image = new Image(dir.toString());
+        image.setId(7);
+        image.setFileExtension("jpeg");
+        image.setFileType("image/jpeg");
+        Files.write(image.getFilePath(), content);
+    }
+
+    @Test
+    public void sendsWholeFile() throws IOException {
+        MockHttpServletResponse response = send(new MockHttpServletRequest("GET", "/ads/1/image"));
+        assertEquals(200, response.getStatus());
+        assertEquals(LENGTH, response.getContentLengthLong());
+        assertArrayEquals(content, response.getContentAsByteArray());
+        assertEquals("image/jpeg", response.getContentType());
+        assertEquals("max-age=86400, public", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertNotNull(response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void sendsSingleRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ads/1/image");
+        request.addHeader(HttpHeaders.RANGE, "bytes=1000-1999");
+        MockHttpServletResponse response = send(request);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 1000-1999/" + LENGTH, response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), response.getContentAsByteArray());
+
+        request = new MockHttpServletRequest("GET", "/ads/1/image");
+        request.addHeader(HttpHeaders.RANGE, "bytes=-10");
+        response = send(request);
+        assertArrayEquals(Arrays.copyOfRange(content, LENGTH - 10, LENGTH), response.getContentAsByteArray());
+    }
+
+    @Test
+    public void ignoresRangeWhenIfRangeDoesNotMatch() throws IOException {
+        String eTag = send(new MockHttpServletRequest("GET", "/ads/1/image")).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ads/1/image");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, eTag);
+        assertEquals(206, send(request).getStatus());
+
+        request = new MockHttpServletRequest("GET", "/ads/1/image");
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"stale\"");
+        MockHttpServletResponse response = send(request);
+        assertEquals(200, response.getStatus());
+        assertEquals(LENGTH, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void rejectsUnsatisfiableRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ads/1/image");
+        request.addHeader(HttpHeaders.RANGE, "bytes=" + LENGTH + "-");
+        MockHttpServletResponse response = send(request);
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */" + LENGTH, response.getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    public void answersHeadAndConditionalRequestsWithoutBody() throws IOException {
+        MockHttpServletResponse head = send(new MockHttpServletRequest("HEAD", "/ads/1/image"));
+        assertEquals(200, head.getStatus());
+        assertEquals(LENGTH, head.getContentLengthLong());
+        assertEquals(0, head.getContentAsByteArray().length);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ads/1/image");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, head.getHeader(HttpHeaders.ETAG));
+        MockHttpServletResponse response = send(request);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void handsFileToTomcatSendfile() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ads/1/image");
+        request.setAttribute("org.apache.tomcat.sendfile.support", true);
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-");
+        MockHttpServletResponse response = send(request);
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertEquals(image.getFilePath().toAbsolutePath().toString(),
+                request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(10L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals((long) LENGTH, request.getAttribute("org.apache.tomcat.sendfile.end"));
+    }
+
+    @Test
+    public void servesCachedFileFromMemory() throws IOException {
+        PhotoDownloadComponent cached = new PhotoDownloadComponent(Duration.ofDays(1),
+                new PhotoCache(DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), 1, Runnable::run),
+                new PhotoStorage(List.of(".")));
+        MockHttpServletRequest miss = new MockHttpServletRequest("GET", "/ads/1/image");
+        miss.setAttribute("org.apache.tomcat.sendfile.support", true);
+        cached.send(image, PhotoSize.ORIGINAL, miss, new MockHttpServletResponse());
+        assertNotNull(miss.getAttribute("org.apache.tomcat.sendfile.filename"));
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ads/1/image");
+        request.setAttribute("org.apache.tomcat.sendfile.support", true);
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-19");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cached.send(image, PhotoSize.ORIGINAL, request, response);
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(Arrays.copyOfRange(content, 10, 20), response.getContentAsByteArray());
+        assertNull(request.getAttribute("org.apache.tomcat.sendfile.filename"));
+    }
+
+    @Test
+    public void sendsVariantOnceGenerated() throws IOException {
+        MockHttpServletResponse fallback = new MockHttpServletResponse();
+        photoDownload.send(image, PhotoSize.THUMB, new MockHttpServletRequest("GET", "/ads/1/image"), fallback);
+        assertArrayEquals(content, fallback.getContentAsByteArray());
+
+        byte[] thumb = Arrays.copyOf(content, 100);
+        Files.write(image.getVariantPath(PhotoSize.THUMB), thumb);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        photoDownload.send(image, PhotoSize.THUMB, new MockHttpServletRequest("GET", "/ads/1/image"), response);
+        assertArrayEquals(thumb, response.getContentAsByteArray());
+        assertEquals("image/jpeg", response.getContentType());
+        assertNotEquals(fallback.getHeader(HttpHeaders.ETAG), response.getHeader(HttpHeaders.ETAG));
+    }
+
+    private MockHttpServletResponse send(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        photoDownload.send(image, PhotoSize.ORIGINAL, request, response);
+        return response;
+    }
+}
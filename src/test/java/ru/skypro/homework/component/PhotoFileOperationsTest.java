@@ -0,0 +1,78 @@
+package ru.skypro.homework.component;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhotoFileOperationsTest {
+    private final PhotoFileOperations operations = new PhotoFileOperations(2, 10);
+    private final List<String> log = new ArrayList<>();
+
+    @AfterEach
+    public void shutdown() throws InterruptedException {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        operations.shutdown();
+    }
+
+    @Test
+    public void runsOperationOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        CompletableFuture<Void> done = operations.afterCommit("a", () -> record("store"), () -> record("undo"));
+        assertFalse(done.isDone());
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        done.join();
+        assertEquals(List.of("store"), log);
+    }
+
+    @Test
+    public void compensatesRollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        CompletableFuture<Void> done = operations.afterCommit("a", () -> record("store"), () -> record("undo"));
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        done.join();
+        assertEquals(List.of("undo"), log);
+    }
+
+    @Test
+    public void compensatesFailedOperation() {
+        CompletableFuture<Void> done = operations.afterCommit("a", () -> {
+            throw new IOException("disk full");
+        }, () -> record("undo"));
+        assertThrows(CompletionException.class, done::join);
+        assertEquals(List.of("undo"), log);
+    }
+
+    @Test
+    public void runsOperationsOnSameKeyInOrder() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            String step = String.valueOf(i);
+            operations.afterCommit("a", () -> record(step));
+        }
+        operations.shutdown();
+        assertEquals(List.of("0", "1", "2", "3", "4"), log);
+    }
+
+    private void complete(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, status);
+    }
+
+    private void record(String step) {
+        synchronized (log) {
+            log.add(step);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ru.skypro.homework.component;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhotoStorageTest {
+    private static final int HASHES = 10_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void keepsSingleVolumeLayout() {
+        PhotoStorage storage = new PhotoStorage(List.of("."));
+        assertEquals("images", storage.directory("images", hash(new Random(1))));
+        assertEquals(Path.of("images"), storage.staging("images"));
+        assertEquals(dir.toString(), storage.directory(dir.toString(), hash(new Random(1))));
+    }
+
+    @Test
+    public void spreadsContentOverVolumes() {
+        PhotoStorage storage = new PhotoStorage(List.of("/data1", "/data2", "/data3"));
+        Random random = new Random(1);
+        int[] counts = new int[3];
+        for (int i = 0; i < HASHES; i++) {
+            counts[storage.directory("images", hash(random)).charAt(5) - '1']++;
+        }
+        for (int count : counts) {
+            assertTrue(count > HASHES / 3 * 0.8 && count < HASHES / 3 * 1.2, "uneven spread " + count);
+        }
+        Set<Path> staging = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            staging.add(storage.staging("images"));
+        }
+        assertEquals(Set.copyOf(storage.directories("images")), staging);
+    }
+
+    @Test
+    public void addedVolumeTakesOverOnlyItsShare() {
+        PhotoStorage before = new PhotoStorage(List.of("/data1", "/data2", "/data3"));
+        PhotoStorage after = new PhotoStorage(List.of("/data1", "/data2", "/data3", "/data4"));
+        Random random = new Random(2);
+        int moved = 0;
+        for (int i = 0; i < HASHES; i++) {
+            String hash = hash(random);
+            String dir = after.directory("images", hash);
+            if (!dir.equals(before.directory("images", hash))) {
+                assertEquals("/data4/images", dir);
+                moved++;
+            }
+        }
+        assertTrue(moved > HASHES / 4 * 0.8 && moved < HASHES / 4 * 1.2, "moved " + moved);
+    }
+
+    @Test
+    public void countsBytesPerVolume() throws IOException {
+        PhotoStorage storage = new PhotoStorage(List.of(dir.resolve("a").toString(), dir.resolve("b").toString()));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        storage.bindTo(registry);
+        Path source = Files.createDirectories(dir.resolve("a").resolve("images")).resolve("x.jpeg");
+        Files.write(source, new byte[10]);
+        storage.copyInto(source, dir.resolve("b").resolve("images").resolve("ab").resolve("x.jpeg"));
+        storage.recordRead(source, 4);
+        storage.recordRead(dir.resolve("c"), 100);
+
+        assertEquals(10, registry.get("ads.photos.volume.written").tag("volume", dir.resolve("b").toString())
+                .functionCounter().count());
+        assertEquals(4, registry.get("ads.photos.volume.read").tag("volume", dir.resolve("a").toString())
+                .functionCounter().count());
+        assertTrue(registry.get("ads.photos.volume.free").tag("volume", dir.resolve("a").toString())
+                .gauge().value() > 0);
+    }
+
+    private static String hash(Random random) {
+        StringBuilder hash = new StringBuilder(64);
+        for (int i = 0; i < 64; i++) {
+            hash.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return hash.toString();
+    }
+}
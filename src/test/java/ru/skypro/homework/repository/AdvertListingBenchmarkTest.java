@@ -0,0 +1,80 @@
+package ru.skypro.homework.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.skypro.homework.TestData;
+import ru.skypro.homework.dto.ResponseWrapperAdsDto;
+import ru.skypro.homework.mapper.AdvertMapper;
+import ru.skypro.homework.mapper.AdvertMapperImpl;
+
+import javax.persistence.EntityManager;
+import java.util.Comparator;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the entity based listing ({@link AdvertMapper#listToRespWrapperAdsDto}) with the
+ * projection based one at 100k adverts. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+@DataJpaTest
+@ActiveProfiles("test")
+@Import(AdvertMapperImpl.class)
+public class AdvertListingBenchmarkTest {
+    private static final int ADVERTS = 100_000;
+    private static final int USERS = 1_000;
+    private static final int WARMUP = 3;
+    private static final int RUNS = 5;
+
+    @Autowired
+    private AdvertRepository advertRepository;
+    @Autowired
+    private AdvertMapper advertMapper;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private EntityManager entityManager;
+
+    @BeforeEach
+    public void setup() {
+        TestData.insertUsersAndAdverts(jdbcTemplate, USERS, ADVERTS);
+    }
+
+    @Test
+    public void projectionListingAgainstEntityListing() {
+        ResponseWrapperAdsDto entities = measure("entity", () ->
+                advertMapper.listToRespWrapperAdsDto(advertRepository.findAll()));
+        ResponseWrapperAdsDto projections = measure("projection", () ->
+                advertMapper.projectionListToRespWrapperAdsDto(
+                        advertRepository.findPageById(AdsFilter.NONE, Integer.MAX_VALUE, Pageable.unpaged())));
+
+        assertEquals(ADVERTS, entities.getCount());
+        entities.getResults().sort(Comparator.comparingInt(a -> -a.getPk()));
+        assertEquals(entities.getResults(), projections.getResults());
+    }
+
+    private ResponseWrapperAdsDto measure(String name, Supplier<ResponseWrapperAdsDto> listing) {
+        ResponseWrapperAdsDto result = null;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            entityManager.clear();
+            long start = System.nanoTime();
+            result = listing.get();
+            long elapsed = System.nanoTime() - start;
+            if (i >= WARMUP) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        System.out.printf("%s listing of %d adverts: best of %d runs %d ms%n",
+                name, ADVERTS, RUNS, best / 1_000_000);
+        return result;
+    }
+}
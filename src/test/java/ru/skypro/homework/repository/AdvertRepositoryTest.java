@@ -0,0 +1,165 @@
+package ru.skypro.homework.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.skypro.homework.TestData;
+import ru.skypro.homework.configuration.DataSourceProxyBeanPostProcessor;
+import ru.skypro.homework.model.Advert;
+import ru.skypro.homework.repository.projection.AdsProjection;
+import ru.skypro.homework.repository.projection.TitleCountProjection;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ru.skypro.homework.QueryBudget.assertStatementsAtMost;
+import static ru.skypro.homework.QueryBudget.reset;
+
+@DataJpaTest
+@ActiveProfiles("test")
+@Import(DataSourceProxyBeanPostProcessor.class)
+public class AdvertRepositoryTest {
+    private static final int USERS = 5;
+    private static final int ADVERTS = 50;
+    private static final int PAGE = 20;
+
+    @Autowired
+    private AdvertRepository advertRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setup() {
+        TestData.insertUsersAndAdverts(jdbcTemplate, USERS, ADVERTS);
+    }
+
+    @Test
+    public void findPageById() {
+        reset();
+        List<AdsProjection> first = advertRepository.findPageById(AdsFilter.NONE, Integer.MAX_VALUE, PageRequest.of(0, PAGE));
+        List<AdsProjection> second = advertRepository.findPageById(AdsFilter.NONE, first.get(PAGE - 1).getId(), PageRequest.of(0, PAGE));
+        assertStatementsAtMost(2, "two pages of " + PAGE + " adverts");
+        assertEquals(ADVERTS, first.get(0).getId());
+        assertEquals(ADVERTS - PAGE, second.get(0).getId());
+        assertEquals(PAGE, second.size());
+        assertNotNull(first.get(0).getImageId());
+    }
+
+    @Test
+    public void findPageByIdOfAuthor() {
+        reset();
+        List<AdsProjection> page = advertRepository.findPageById(new AdsFilter(1, null, null, null), Integer.MAX_VALUE, PageRequest.of(0, PAGE));
+        assertStatementsAtMost(1, "page of author adverts");
+        assertEquals(ADVERTS / USERS, page.size());
+        assertTrue(page.stream().allMatch(a -> a.getAuthorId() == 1));
+    }
+
+    @Test
+    public void findPageByPrice() {
+        jdbcTemplate.update("update adverts set price = 7 where id in (3, 4, 5)");
+        reset();
+        List<AdsProjection> first = advertRepository.findPageByPrice(AdsFilter.NONE, Integer.MIN_VALUE, Integer.MIN_VALUE,
+                PageRequest.of(0, 6));
+        AdsProjection last = first.get(first.size() - 1);
+        List<AdsProjection> second = advertRepository.findPageByPrice(AdsFilter.NONE, last.getPrice(), last.getId(),
+                PageRequest.of(0, 6));
+        assertStatementsAtMost(2, "two pages of adverts by price");
+        assertEquals(List.of(1, 2, 6, 3, 4, 5), ids(first));
+        assertEquals(List.of(7, 8, 9, 10, 11, 12), ids(second));
+    }
+
+    @Test
+    public void findPageByFilter() {
+        jdbcTemplate.update("update adverts set image_id = null where id in (10, 20)");
+        AdsFilter filter = new AdsFilter(null, 10, 25, false);
+        reset();
+        List<AdsProjection> byId = advertRepository.findPageById(filter, Integer.MAX_VALUE, PageRequest.of(0, PAGE));
+        List<AdsProjection> byPrice = advertRepository.findPageByPrice(filter, Integer.MIN_VALUE, Integer.MIN_VALUE,
+                PageRequest.of(0, PAGE));
+        long count = advertRepository.countByFilter(filter);
+        assertStatementsAtMost(3, "filtered pages and count");
+        assertEquals(List.of(20, 10), ids(byId));
+        assertEquals(List.of(10, 20), ids(byPrice));
+        assertEquals(2, count);
+        assertEquals(ADVERTS - 2, advertRepository.countByFilter(new AdsFilter(null, null, null, true)));
+    }
+
+    @Test
+    public void countPriceBuckets() {
+        reset();
+        long[] all = advertRepository.countPriceBuckets(AdsFilter.NONE, new int[]{10, 50});
+        long[] ofAuthor = advertRepository.countPriceBuckets(new AdsFilter(1, 20, null, true), new int[]{10, 50});
+        assertStatementsAtMost(2, "two histograms");
+        assertArrayEquals(new long[]{9, 40, ADVERTS - 49}, all);
+        long authorAdverts = advertRepository.countByFilter(new AdsFilter(1, null, null, null));
+        assertEquals(advertRepository.countByFilter(new AdsFilter(1, 20, null, null)),
+                ofAuthor[1] + ofAuthor[2]);
+        assertEquals(0, ofAuthor[0]);
+        assertTrue(ofAuthor[1] + ofAuthor[2] < authorAdverts);
+    }
+
+    @Test
+    public void searchLike() {
+        jdbcTemplate.update("update adverts set description = 'Пушистый КОТ' where id in (7, 30)");
+        jdbcTemplate.update("update adverts set title = '100% кот' where id = 12");
+        reset();
+        List<AdsProjection> hits = advertRepository.searchLike("%кот%", Integer.MAX_VALUE, PageRequest.of(0, PAGE));
+        List<AdsProjection> escaped = advertRepository.searchLike("%100\\%%", Integer.MAX_VALUE, PageRequest.of(0, PAGE));
+        assertStatementsAtMost(2, "two searches");
+        assertEquals(List.of(30, 12, 7), ids(hits));
+        assertEquals(List.of(12), ids(escaped));
+    }
+
+    @Test
+    public void countTitles() {
+        jdbcTemplate.update("update adverts set title = 'Кот' where id in (3, 9, 5)");
+        reset();
+        List<TitleCountProjection> titles = advertRepository.countTitles();
+        assertStatementsAtMost(1, "distinct titles");
+        assertEquals(ADVERTS - 2, titles.size());
+        TitleCountProjection cat = titles.stream().filter(t -> t.getTitle().equals("Кот")).findFirst().orElseThrow();
+        assertEquals(3, cat.getCount());
+        assertEquals(9, cat.getNewestId());
+    }
+
+    @Test
+    public void findWithAuthorById() {
+        reset();
+        Advert advert = advertRepository.findWithAuthorById(1).orElseThrow();
+        assertEquals("first name 2", advert.getAuthor().getFirstName());
+        assertNotNull(advert.getImage());
+        assertStatementsAtMost(1, "advert with author");
+    }
+
+    @Test
+    public void findWithImageById() {
+        reset();
+        Advert advert = advertRepository.findWithImageById(1).orElseThrow();
+        assertEquals("jpeg", advert.getImage().getFileExtension());
+        assertStatementsAtMost(1, "advert with image");
+    }
+
+    @Test
+    public void versionsFollowUpdates() {
+        Advert advert = advertRepository.findWithAuthorById(1).orElseThrow();
+        assertEquals(0, advert.getVersion());
+        assertEquals(0, advert.getAuthor().getVersion());
+
+        advert.setTitle("changed");
+        advert.getAuthor().setFirstName("changed");
+        advertRepository.saveAndFlush(advert);
+        assertEquals(1, jdbcTemplate.queryForObject("select version from adverts where id = 1", Long.class));
+        assertEquals(1, jdbcTemplate.queryForObject("select u.version from users u join adverts a on a.user_id = u.id"
+                + " where a.id = 1", Long.class));
+    }
+
+    private static List<Integer> ids(List<AdsProjection> adverts) {
+        return adverts.stream().map(AdsProjection::getId).collect(Collectors.toList());
+    }
+}
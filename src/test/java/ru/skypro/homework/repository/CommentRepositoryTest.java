@@ -0,0 +1,82 @@
+package ru.skypro.homework.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.skypro.homework.TestData;
+import ru.skypro.homework.configuration.DataSourceProxyBeanPostProcessor;
+import ru.skypro.homework.dto.ResponseWrapperCommentDto;
+import ru.skypro.homework.mapper.CommentMapper;
+import ru.skypro.homework.mapper.CommentMapperImpl;
+import ru.skypro.homework.model.Comment;
+import ru.skypro.homework.repository.projection.CommentsVersionProjection;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ru.skypro.homework.QueryBudget.assertStatementsAtMost;
+import static ru.skypro.homework.QueryBudget.reset;
+
+@DataJpaTest
+@ActiveProfiles("test")
+@Import({DataSourceProxyBeanPostProcessor.class, CommentMapperImpl.class})
+public class CommentRepositoryTest {
+    private static final int USERS = 5;
+    private static final int COMMENTS = 30;
+
+    @Autowired
+    private CommentRepository commentRepository;
+    @Autowired
+    private CommentMapper commentMapper;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setup() {
+        TestData.insertUsersAndAdverts(jdbcTemplate, USERS, 2);
+        TestData.insertComments(jdbcTemplate, 1, COMMENTS, USERS);
+        TestData.insertComments(jdbcTemplate, 2, 3, USERS);
+    }
+
+    @Test
+    public void findAllByAdvertIdMappedToDto() {
+        reset();
+        ResponseWrapperCommentDto comments = commentMapper
+                .listToRespWrapperCommentDto(commentRepository.findAllByAdvertId(1));
+        assertStatementsAtMost(1, "mapped list of " + COMMENTS + " comments");
+        assertEquals(COMMENTS, comments.getCount());
+        assertTrue(comments.getResults().stream().allMatch(c -> c.getAuthorImage() != null
+                && c.getAuthorFirstName() != null));
+    }
+
+    @Test
+    public void findWithAuthorById() {
+        reset();
+        Comment comment = commentRepository.findWithAuthorById(100_001).orElseThrow();
+        assertEquals(TestData.username(2), comment.getAuthor().getUsername());
+        assertEquals(1, comment.getAdvert().getId());
+        assertStatementsAtMost(1, "comment with author");
+    }
+
+    @Test
+    public void findVersionByAdvertIdChangesWithComments() {
+        reset();
+        CommentsVersionProjection initial = commentRepository.findVersionByAdvertId(2);
+        assertStatementsAtMost(1, "comment versions");
+        assertEquals(3, initial.getCount());
+        assertEquals(200_003, initial.getMaxId());
+
+        Comment comment = commentRepository.findWithAuthorById(200_001).orElseThrow();
+        comment.setText("changed");
+        commentRepository.saveAndFlush(comment);
+        CommentsVersionProjection updated = commentRepository.findVersionByAdvertId(2);
+        assertEquals(initial.getCommentVersions() + 1, updated.getCommentVersions());
+
+        commentRepository.deleteById(200_003);
+        commentRepository.flush();
+        assertEquals(2, commentRepository.findVersionByAdvertId(2).getCount());
+        assertEquals(0, commentRepository.findVersionByAdvertId(3).getCount());
+    }
+}
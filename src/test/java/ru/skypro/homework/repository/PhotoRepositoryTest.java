@@ -0,0 +1,78 @@
+package ru.skypro.homework.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.skypro.homework.TestData;
+import ru.skypro.homework.model.Avatar;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.Photo;
+
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@ActiveProfiles("test")
+public class PhotoRepositoryTest {
+    private static final int USERS = 2;
+    private static final int ADVERTS = 3;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setup() {
+        TestData.insertUsersAndAdverts(jdbcTemplate, USERS, ADVERTS);
+        jdbcTemplate.update("update photos set sha256 = 'aa' where id in (1, 3)");
+    }
+
+    @Test
+    public void findByTypeAndSha256() {
+        Photo image = photoRepository.findByTypeAndSha256(Image.class, "aa").orElseThrow();
+        assertEquals(3, image.getId());
+        assertTrue(image instanceof Image);
+        assertEquals(1, photoRepository.findByTypeAndSha256(Avatar.class, "aa").orElseThrow().getId());
+        assertTrue(photoRepository.findByTypeAndSha256(Image.class, "bb").isEmpty());
+    }
+
+    @Test
+    public void existsByTypeAndSha256AndDir() {
+        String dir = "images";
+        jdbcTemplate.update("update photos set photo_dir = ? where id = 3", dir);
+        assertTrue(photoRepository.existsByTypeAndSha256AndDir(Image.class, "aa", dir));
+        assertFalse(photoRepository.existsByTypeAndSha256AndDir(Image.class, "aa", dir + "-other"));
+        assertFalse(photoRepository.existsByTypeAndSha256AndDir(Image.class, "bb", dir));
+    }
+
+    @Test
+    public void findStoredById() {
+        assertEquals("2,4,5", photoRepository.findBySha256IsNullAndIdGreaterThanOrderByIdAsc(0, PageRequest.ofSize(10))
+                .stream().map(photo -> String.valueOf(photo.getId())).collect(Collectors.joining(",")));
+    }
+
+    @Test
+    public void deletesLastReferenceOnly() {
+        assertEquals(1, photoRepository.addReferences(3, 1));
+        assertEquals(0, photoRepository.addReferences(100, 1));
+        assertEquals(1, photoRepository.moveImageReferences(3, 4));
+        assertEquals(0, photoRepository.deleteUnreferenced(3));
+
+        assertEquals(1, photoRepository.addReferences(3, -2));
+        assertEquals(1, photoRepository.deleteUnreferenced(3));
+        assertEquals(0, photoRepository.deleteUnreferenced(4));
+        assertEquals(2, jdbcTemplate.queryForObject("select count(*) from adverts where image_id = 4", Integer.class));
+    }
+
+    @Test
+    public void moveAvatarReferences() {
+        assertEquals(1, photoRepository.moveAvatarReferences(2, 1));
+        assertEquals(2, jdbcTemplate.queryForObject("select count(*) from users where avatar_id = 1", Integer.class));
+    }
+}
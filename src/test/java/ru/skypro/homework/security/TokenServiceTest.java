@@ -0,0 +1,140 @@
+package ru.skypro.homework.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import ru.skypro.homework.dto.TokenDto;
+import ru.skypro.homework.exception.InvalidTokenException;
+import ru.skypro.homework.model.Role;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenServiceTest {
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+    private static final Instant NOW = Instant.parse("2023-05-01T10:00:00Z");
+    private static final AuthenticatedUser USER = new AuthenticatedUser(1, "user@gmail.com", Role.USER, null);
+    private static final AuthenticatedUser ADMIN = new AuthenticatedUser(2, "admin@gmail.com", Role.ADMIN, 7);
+
+    private static final String PASSWORD = "$2a$10$7EqJtq98hPqEX7fNZaFWoOHi5BVdyF/sQ1s6vmLQ7lU0XJg4ZrG4e";
+
+    private final TokenService tokenService = tokenService(SECRET, NOW);
+
+    @Test
+    public void verifiesIssuedTokens() {
+        TokenDto tokens = tokenService.issue(ADMIN, PASSWORD);
+        assertEquals("Bearer", tokens.getTokenType());
+        assertEquals(900, tokens.getExpiresIn());
+
+        TokenService.Token access = tokenService.verify(tokens.getAccessToken(), TokenService.Type.ACCESS);
+        assertEquals(2, access.getUser().getId());
+        assertEquals("admin@gmail.com", access.getUser().getUsername());
+        assertEquals(Role.ADMIN, access.getUser().getRole());
+        assertEquals(7, access.getUser().getAvatarId());
+        assertEquals(NOW.plusSeconds(900).getEpochSecond(), access.getExpiresAt());
+        TokenService.Token refresh = tokenService.verify(tokens.getRefreshToken(), TokenService.Type.REFRESH);
+        assertNotEquals(access.getId(), refresh.getId());
+        assertNull(tokenService.verify(tokenService.issue(USER, PASSWORD).getAccessToken(), TokenService.Type.ACCESS)
+                .getUser().getAvatarId());
+    }
+
+    @Test
+    public void rejectsTokenOfOtherType() {
+        TokenDto tokens = tokenService.issue(USER, PASSWORD);
+        assertThrows(InvalidTokenException.class,
+                () -> tokenService.verify(tokens.getRefreshToken(), TokenService.Type.ACCESS));
+        assertThrows(InvalidTokenException.class,
+                () -> tokenService.verify(tokens.getAccessToken(), TokenService.Type.REFRESH));
+    }
+
+    @Test
+    public void rejectsTamperedToken() {
+        String token = tokenService.issue(USER, PASSWORD).getAccessToken();
+        String[] parts = token.split("\\.");
+        String forged = tokenService.issue(ADMIN, PASSWORD).getAccessToken().split("\\.")[1];
+        assertThrows(InvalidTokenException.class,
+                () -> tokenService.verify(parts[0] + "." + forged + "." + parts[2], TokenService.Type.ACCESS));
+        assertThrows(InvalidTokenException.class,
+                () -> tokenService.verify("eyJhbGciOiJub25lIn0." + parts[1] + ".", TokenService.Type.ACCESS));
+        assertThrows(InvalidTokenException.class,
+                () -> tokenService.verify("garbage", TokenService.Type.ACCESS));
+        assertThrows(InvalidTokenException.class,
+                () -> tokenService(SECRET.toUpperCase(), NOW).verify(token, TokenService.Type.ACCESS));
+    }
+
+    @Test
+    public void rejectsExpiredToken() {
+        String token = tokenService.issue(USER, PASSWORD).getAccessToken();
+        assertDoesNotThrow(() -> tokenService(SECRET, NOW.plusSeconds(899)).verify(token, TokenService.Type.ACCESS));
+        assertThrows(InvalidTokenException.class,
+                () -> tokenService(SECRET, NOW.plusSeconds(900)).verify(token, TokenService.Type.ACCESS));
+    }
+
+    @Test
+    public void rejectsRevokedToken() {
+        TokenDto tokens = tokenService.issue(USER, PASSWORD);
+        tokenService.revoke(tokenService.verify(tokens.getRefreshToken(), TokenService.Type.REFRESH));
+        assertThrows(InvalidTokenException.class,
+                () -> tokenService.verify(tokens.getRefreshToken(), TokenService.Type.REFRESH));
+        tokenService.purge();
+        assertThrows(InvalidTokenException.class,
+                () -> tokenService.verify(tokens.getRefreshToken(), TokenService.Type.REFRESH));
+        assertDoesNotThrow(() -> tokenService.verify(tokens.getAccessToken(), TokenService.Type.ACCESS));
+    }
+
+    @Test
+    public void bindsRefreshTokenToPassword() {
+        TokenDto tokens = tokenService.issue(USER, PASSWORD);
+        TokenService.Token refresh = tokenService.verify(tokens.getRefreshToken(), TokenService.Type.REFRESH);
+        assertTrue(tokenService.matchesCredentials(refresh, PASSWORD));
+        assertFalse(tokenService.matchesCredentials(refresh, PASSWORD.replace('e', 'f')));
+        assertFalse(tokenService(SECRET.toUpperCase(), NOW).matchesCredentials(refresh, PASSWORD));
+        assertFalse(tokenService.matchesCredentials(
+                tokenService.verify(tokens.getAccessToken(), TokenService.Type.ACCESS), PASSWORD));
+        assertFalse(tokens.getRefreshToken().contains(PASSWORD));
+    }
+
+    @Test
+    public void consumesTokenOnce() throws InterruptedException {
+        TokenService.Token refresh = tokenService.verify(tokenService.issue(USER, PASSWORD).getRefreshToken(),
+                TokenService.Type.REFRESH);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger consumed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    tokenService.consume(refresh);
+                    consumed.incrementAndGet();
+                } catch (InterruptedException | InvalidTokenException e) {
+                    // another call consumed it
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, consumed.get());
+        assertThrows(InvalidTokenException.class, () -> tokenService.consume(refresh));
+    }
+
+    @Test
+    public void rejectsShortSecret() {
+        assertThrows(IllegalArgumentException.class, () -> tokenService("secret", NOW));
+    }
+
+    private static TokenService tokenService(String secret, Instant now) {
+        return new TokenService(new ObjectMapper(), secret, Duration.ofMinutes(15), Duration.ofDays(14),
+                Clock.fixed(now, ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,56 @@
+package ru.skypro.homework.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.skypro.homework.TestData;
+import ru.skypro.homework.configuration.CacheConfig;
+import ru.skypro.homework.configuration.DataSourceProxyBeanPostProcessor;
+import ru.skypro.homework.model.Role;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ru.skypro.homework.QueryBudget.assertStatementsAtMost;
+import static ru.skypro.homework.QueryBudget.reset;
+
+/**
+ * Statement budget of loading a user for authentication, on a cache miss and on a hit.
+ */
+@DataJpaTest
+@ActiveProfiles("test")
+@Import({DataSourceProxyBeanPostProcessor.class, CacheConfig.class, UserDetailsServiceImpl.class})
+public class UserDetailsServiceImplQueryBudgetTest {
+    @Autowired
+    private UserDetailsServiceImpl userDetailsService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Not in a test transaction, since the cache only takes puts once a transaction commits
+     */
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void loadUserByUsername() {
+        TestData.insertUsersAndAdverts(jdbcTemplate, 1, 0);
+        reset();
+        UserDetails user = userDetailsService.loadUserByUsername("user1@gmail.com");
+        assertStatementsAtMost(1, "loading a user on a cache miss");
+        assertEquals("user1@gmail.com", user.getUsername());
+        assertTrue(user.getAuthorities().contains(Role.USER));
+
+        reset();
+        assertSame(user, userDetailsService.loadUserByUsername("user1@gmail.com"));
+        assertStatementsAtMost(0, "loading a user on a cache hit");
+    }
+
+    @Test
+    public void loadUnknownUser() {
+        assertThrows(UsernameNotFoundException.class, () -> userDetailsService.loadUserByUsername("nobody@gmail.com"));
+    }
+}
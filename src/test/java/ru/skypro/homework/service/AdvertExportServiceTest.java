@@ -0,0 +1,76 @@
+package ru.skypro.homework.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.skypro.homework.TestData;
+import ru.skypro.homework.configuration.DataSourceProxyBeanPostProcessor;
+import ru.skypro.homework.dto.AdsDto;
+import ru.skypro.homework.dto.AdsExportRequestDto;
+import ru.skypro.homework.dto.ResponseWrapperAdsDto;
+import ru.skypro.homework.mapper.AdvertMapperImpl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ru.skypro.homework.QueryBudget.assertStatementsAtMost;
+import static ru.skypro.homework.QueryBudget.reset;
+
+@DataJpaTest
+@ActiveProfiles("test")
+@Import({DataSourceProxyBeanPostProcessor.class, AdvertExportService.class, AdvertMapperImpl.class,
+        JacksonAutoConfiguration.class})
+public class AdvertExportServiceTest {
+    private static final int USERS = 5;
+    private static final int ADVERTS = AdvertExportService.CHUNK_SIZE * 2 + 7;
+
+    @Autowired
+    private AdvertExportService advertExportService;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setup() {
+        TestData.insertUsersAndAdverts(jdbcTemplate, USERS, ADVERTS);
+    }
+
+    @Test
+    public void writeAllInChunks() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reset();
+        int count = advertExportService.writeAll(new AdsExportRequestDto(), out);
+        assertStatementsAtMost(3, "export of " + ADVERTS + " adverts in chunks of " + AdvertExportService.CHUNK_SIZE);
+
+        ResponseWrapperAdsDto adverts = objectMapper.readValue(out.toByteArray(), ResponseWrapperAdsDto.class);
+        assertEquals(ADVERTS, count);
+        assertEquals(ADVERTS, adverts.getCount());
+        assertEquals(ADVERTS, adverts.getResults().size());
+        assertNull(adverts.getNext());
+        AdsDto newest = adverts.getResults().get(0);
+        assertEquals(ADVERTS, newest.getPk());
+        assertEquals("/ads/" + ADVERTS + "/image", newest.getImage());
+        assertEquals(ADVERTS, adverts.getResults().stream().mapToInt(AdsDto::getPk).distinct().count());
+    }
+
+    @Test
+    public void writeAllFiltered() throws IOException {
+        AdsExportRequestDto request = new AdsExportRequestDto();
+        request.setAuthorId(1);
+        request.setPriceTo(100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        advertExportService.writeAll(request, out);
+
+        ResponseWrapperAdsDto adverts = objectMapper.readValue(out.toByteArray(), ResponseWrapperAdsDto.class);
+        assertFalse(adverts.getResults().isEmpty());
+        assertTrue(adverts.getResults().stream().allMatch(a -> a.getAuthor() == 1 && a.getPrice() <= 100));
+    }
+}
@@ -0,0 +1,127 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import ru.skypro.homework.TestData;
+import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoFileOperations;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.configuration.DataSourceProxyBeanPostProcessor;
+import ru.skypro.homework.dto.AdsPageRequestDto;
+import ru.skypro.homework.dto.AdsSort;
+import ru.skypro.homework.dto.FullAdsDto;
+import ru.skypro.homework.dto.PriceFacetDto;
+import ru.skypro.homework.dto.ResponseWrapperAdsDto;
+import ru.skypro.homework.mapper.AdvertMapperImpl;
+import ru.skypro.homework.model.Role;
+import ru.skypro.homework.security.AuthenticatedUser;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ru.skypro.homework.QueryBudget.assertStatementsAtMost;
+import static ru.skypro.homework.QueryBudget.reset;
+
+/**
+ * Statement budgets of the {@link AdvertService} read endpoints over real repositories and mappers.
+ */
+@DataJpaTest
+@ActiveProfiles("test")
+@Import({DataSourceProxyBeanPostProcessor.class, AdvertService.class, AdvertMapperImpl.class,
+        PhotoService.class, PhotoCache.class, PhotoStorage.class, PhotoFileOperations.class,
+        AuthenticationComponent.class, AdvertIndex.class,
+        TitleSuggester.class, PriceHistogram.class, AdvertSnapshotBarrier.class, ConcurrentMapCacheManager.class})
+public class AdvertServiceQueryBudgetTest {
+    private static final int USERS = 5;
+    private static final int ADVERTS = 200;
+    private static final int PAGE = 50;
+
+    @Autowired
+    private AdvertService advertService;
+    @Autowired
+    private PriceHistogram priceHistogram;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setup() {
+        TestData.insertUsersAndAdverts(jdbcTemplate, USERS, ADVERTS);
+        priceHistogram.recount();
+    }
+
+    @AfterEach
+    public void clearAuthentication() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void findAll() {
+        AdsPageRequestDto page = new AdsPageRequestDto();
+        page.setSize(PAGE);
+        page.setSort(AdsSort.PRICE);
+        reset();
+        ResponseWrapperAdsDto adverts = advertService.findAll(page);
+        assertStatementsAtMost(1, "GET /ads with " + PAGE + " adverts");
+        assertEquals(PAGE, adverts.getResults().size());
+        assertNotNull(adverts.getNext());
+    }
+
+    @Test
+    public void findAllWithCount() {
+        AdsPageRequestDto page = new AdsPageRequestDto();
+        page.setSize(PAGE);
+        page.setWithCount(true);
+        reset();
+        ResponseWrapperAdsDto adverts = advertService.findAll(page);
+        assertStatementsAtMost(1, "GET /ads?withCount=true with " + PAGE + " adverts");
+        assertEquals(ADVERTS, adverts.getCount());
+    }
+
+    @Test
+    public void findAllWithFacets() {
+        AdsPageRequestDto page = new AdsPageRequestDto();
+        page.setSize(PAGE);
+        page.setWithFacets(true);
+        reset();
+        ResponseWrapperAdsDto unfiltered = advertService.findAll(page);
+        assertStatementsAtMost(1, "GET /ads?withFacets=true with " + PAGE + " adverts");
+        assertEquals(ADVERTS, unfiltered.getPriceFacets().stream().mapToLong(PriceFacetDto::getCount).sum());
+
+        page.setPriceTo(99);
+        page.setWithCount(true);
+        reset();
+        ResponseWrapperAdsDto filtered = advertService.findAll(page);
+        assertStatementsAtMost(3, "GET /ads?priceTo=99&withCount=true&withFacets=true with " + PAGE + " adverts");
+        assertEquals(99, filtered.getCount());
+        assertEquals(99, filtered.getPriceFacets().get(0).getCount());
+    }
+
+    @Test
+    public void findAllByAuthUser() {
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(
+                new AuthenticatedUser(1, "user1@gmail.com", Role.USER, USERS + 1), null, Role.USER.getAuthority()));
+        AdsPageRequestDto page = new AdsPageRequestDto();
+        page.setSize(PAGE);
+        reset();
+        ResponseWrapperAdsDto adverts = advertService.findAllByAuthUser(page);
+        assertStatementsAtMost(1, "GET /ads/me with " + ADVERTS / USERS + " adverts");
+        assertEquals(ADVERTS / USERS, adverts.getResults().size());
+    }
+
+    @Test
+    public void findById() {
+        reset();
+        FullAdsDto advert = advertService.findById(1).getAds();
+        assertStatementsAtMost(1, "GET /ads/{id}");
+        assertEquals("first name 2", advert.getAuthorFirstName());
+        assertEquals("/ads/1/image", advert.getImage());
+    }
+}
@@ -6,32 +6,37 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.Resource;
-import org.springframework.http.MediaType;
-import org.springframework.mock.web.MockMultipartFile;
-import org.springframework.security.core.Authentication;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
 import ru.skypro.homework.component.AuthenticationComponent;
 import ru.skypro.homework.dto.AdsDto;
+import ru.skypro.homework.dto.AdsPageRequestDto;
+import ru.skypro.homework.dto.AdsSearchRequestDto;
+import ru.skypro.homework.dto.AdsSort;
 import ru.skypro.homework.dto.CreateAdsDto;
 import ru.skypro.homework.dto.FullAdsDto;
+import ru.skypro.homework.dto.PageCursor;
+import ru.skypro.homework.dto.PriceFacetDto;
 import ru.skypro.homework.dto.ResponseWrapperAdsDto;
 import ru.skypro.homework.exception.ActionForbiddenException;
 import ru.skypro.homework.exception.AdvertNotFoundException;
+import ru.skypro.homework.exception.InvalidCursorException;
 import ru.skypro.homework.exception.UserUnauthorizedException;
 import ru.skypro.homework.mapper.AdvertMapper;
 import ru.skypro.homework.model.Advert;
 import ru.skypro.homework.model.Image;
 import ru.skypro.homework.model.Role;
 import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdsFilter;
 import ru.skypro.homework.repository.AdvertRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.security.AuthenticatedUser;
+import ru.skypro.homework.repository.projection.AdsProjection;
+import ru.skypro.homework.repository.projection.AdsSearchProjection;
 
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -54,8 +59,15 @@ public class AdvertServiceTest {
     @Mock
     private AuthenticationComponent auth;
     @Mock
-    private Authentication authentication;
-    private MockMultipartFile mockMultipartFile;
+    private AdvertIndex advertIndex;
+    @Mock
+    private TitleSuggester titleSuggester;
+    @Mock
+    private PriceHistogram priceHistogram;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Mock
+    private PhotoUpload upload;
     private Advert advert;
 
 
@@ -68,13 +80,6 @@ public class AdvertServiceTest {
         advert.setId(1);
         advert.setAuthor(user);
         advert.setImage(new Image());
-        Resource resource = new ClassPathResource("picture/images.jpeg");
-        mockMultipartFile = new MockMultipartFile(
-                "image",
-                "image.jpeg",
-                MediaType.IMAGE_JPEG_VALUE,
-                Files.readAllBytes(resource.getFile().toPath())
-        );
     }
 
     @Test
@@ -82,17 +87,22 @@ public class AdvertServiceTest {
         CreateAdsDto properties = new CreateAdsDto();
         AdsDto expectedAdsDto = new AdsDto();
         doReturn(advert).when(advertMapper).createAdsDtoToAdvert(any());
+        doReturn(advert).when(advertRepository).save(any());
         doReturn(expectedAdsDto).when(advertMapper).advertToAdsDto(any());
-        AdsDto actualAdsDto = advertService.create(authentication, properties, mockMultipartFile);
+        doReturn(principal(advert.getAuthor())).when(auth).getUser();
+        doReturn(advert.getAuthor()).when(userRepository).getReferenceById(advert.getAuthor().getId());
+        AdsDto actualAdsDto = advertService.create(properties, upload);
         assertNotNull(actualAdsDto);
         assertEquals(expectedAdsDto, actualAdsDto);
+        verify(eventPublisher).publishEvent(argThat((AdvertChangedEvent event) ->
+                event.getBefore() == null && event.getAfter() != null));
     }
 
     @Test
     public void update() {
         CreateAdsDto createAdsDto = new CreateAdsDto();
         AdsDto expectedAdsDto = new AdsDto();
-        doReturn(Optional.of(advert)).when(advertRepository).findById(any());
+        doReturn(Optional.of(advert)).when(advertRepository).findWithAuthorById(anyInt());
         doNothing().when(advertMapper).updateAdvert(isA(CreateAdsDto.class), isA(Advert.class));
         doReturn(advert).when(advertRepository).save(any());
         doReturn(expectedAdsDto).when(advertMapper).advertToAdsDto(advert);
@@ -103,23 +113,25 @@ public class AdvertServiceTest {
 
     @Test
     public void delete() {
-        doReturn(Optional.of(advert)).when(advertRepository).findById(any());
+        doReturn(Optional.of(advert)).when(advertRepository).findWithAuthorById(anyInt());
         advertService.delete(advert.getId());
         verify(advertRepository, times(1)).delete(any());
+        verify(eventPublisher).publishEvent(argThat((AdvertChangedEvent event) ->
+                event.getId() == advert.getId() && event.getAfter() == null));
     }
 
     @Test
-    public void updateImage() throws IOException {
-        doReturn(Optional.of(advert)).when(advertRepository).findById(any());
+    public void updateImage() {
+        doReturn(Optional.of(advert)).when(advertRepository).findWithAuthorById(anyInt());
         doReturn(advert.getImage()).when(photoService).uploadImage(any(), any());
-        byte[] actualImageBytes = advertService.updateImage(advert.getId(), mockMultipartFile);
-        assertNotNull(actualImageBytes);
-        assertArrayEquals(mockMultipartFile.getBytes(), actualImageBytes);
+        Image actualImage = advertService.updateImage(advert.getId(), upload);
+        assertNotNull(actualImage);
+        assertEquals(advert.getImage(), actualImage);
     }
 
     @Test
     public void downloadImage() {
-        doReturn(Optional.of(advert)).when(advertRepository).findById(any());
+        doReturn(Optional.of(advert)).when(advertRepository).findWithImageById(anyInt());
         Image actualImage = advertService.downloadImage(advert.getId());
         assertNotNull(actualImage);
         assertEquals(advert.getImage(), actualImage);
@@ -132,21 +144,209 @@ public class AdvertServiceTest {
         ResponseWrapperAdsDto expectedResponseWrapperAdsDto = new ResponseWrapperAdsDto();
         expectedResponseWrapperAdsDto.setCount(1);
         expectedResponseWrapperAdsDto.setResults(List.of(adsDto));
-        doReturn(List.of(advert)).when(advertRepository).findAll();
-        doReturn(expectedResponseWrapperAdsDto).when(advertMapper).listToRespWrapperAdsDto(any());
-        ResponseWrapperAdsDto actualResponseWrapperAdsDto = advertService.findAll();
+        doReturn(List.of(projection(advert))).when(advertRepository)
+                .findPageById(eq(AdsFilter.NONE), eq(Integer.MAX_VALUE), any());
+        doReturn(expectedResponseWrapperAdsDto).when(advertMapper).projectionListToRespWrapperAdsDto(any());
+        ResponseWrapperAdsDto actualResponseWrapperAdsDto = advertService.findAll(new AdsPageRequestDto());
         assertEquals(expectedResponseWrapperAdsDto, actualResponseWrapperAdsDto);
+        assertNull(actualResponseWrapperAdsDto.getNext());
+    }
+
+    @Test
+    public void findAllReturnsCursorOfLastRowWhenMoreRowsExist() {
+        Advert second = new Advert();
+        second.setId(2);
+        second.setPrice(500);
+        advert.setPrice(100);
+        AdsProjection first = projection(advert);
+        AdsProjection last = projection(second);
+        AdsPageRequestDto page = new AdsPageRequestDto();
+        page.setSize(1);
+        page.setSort(AdsSort.PRICE);
+        doReturn(List.of(first, last)).when(advertRepository)
+                .findPageByPrice(eq(AdsFilter.NONE), eq(Integer.MIN_VALUE), eq(Integer.MIN_VALUE), any());
+        doReturn(new ResponseWrapperAdsDto()).when(advertMapper).projectionListToRespWrapperAdsDto(List.of(first));
+        ResponseWrapperAdsDto actualResponseWrapperAdsDto = advertService.findAll(page);
+        PageCursor next = PageCursor.decode(actualResponseWrapperAdsDto.getNext());
+        assertEquals(100, next.getKey());
+        assertEquals(advert.getId(), next.getId());
+
+        page.setCursor(actualResponseWrapperAdsDto.getNext());
+        doReturn(List.of(last)).when(advertRepository).findPageByPrice(eq(AdsFilter.NONE), eq(100), eq(1), any());
+        doReturn(new ResponseWrapperAdsDto()).when(advertMapper).projectionListToRespWrapperAdsDto(List.of(last));
+        assertNull(advertService.findAll(page).getNext());
+    }
+
+    @Test
+    public void findAllTakesCountAndFacetsOfUnfilteredListingFromHistogram() {
+        AdsPageRequestDto page = new AdsPageRequestDto();
+        page.setWithCount(true);
+        page.setWithFacets(true);
+        doReturn(List.of()).when(advertRepository).findPageById(eq(AdsFilter.NONE), anyInt(), any());
+        doReturn(new ResponseWrapperAdsDto()).when(advertMapper).projectionListToRespWrapperAdsDto(any());
+        doReturn(new long[]{2, 0, 5}).when(priceHistogram).counts();
+        doReturn(new int[]{100, 1000}).when(priceHistogram).getBounds();
+        ResponseWrapperAdsDto result = advertService.findAll(page);
+        assertEquals(7, result.getCount());
+        assertEquals(List.of(new PriceFacetDto(null, 100, 2), new PriceFacetDto(100, 1000, 0),
+                new PriceFacetDto(1000, null, 5)), result.getPriceFacets());
+        verify(advertRepository, never()).countByFilter(any());
+        verify(advertRepository, never()).countPriceBuckets(any(), any());
+    }
+
+    @Test
+    public void findAllCountsFilteredListing() {
+        AdsPageRequestDto page = new AdsPageRequestDto();
+        page.setWithCount(true);
+        page.setWithFacets(true);
+        page.setPriceFrom(100);
+        page.setHasImage(true);
+        AdsFilter filter = new AdsFilter(null, 100, null, true);
+        doReturn(List.of()).when(advertRepository).findPageById(eq(filter), anyInt(), any());
+        doReturn(new ResponseWrapperAdsDto()).when(advertMapper).projectionListToRespWrapperAdsDto(any());
+        doReturn(new int[]{100}).when(priceHistogram).getBounds();
+        doReturn(3L).when(advertRepository).countByFilter(filter);
+        doReturn(new long[]{0, 3}).when(advertRepository).countPriceBuckets(eq(filter), any());
+        ResponseWrapperAdsDto result = advertService.findAll(page);
+        assertEquals(3, result.getCount());
+        assertEquals(List.of(new PriceFacetDto(null, 100, 0), new PriceFacetDto(100, null, 3)),
+                result.getPriceFacets());
+        verify(priceHistogram, never()).counts();
+    }
+
+    @Test
+    public void DoesThrowInvalidCursorExceptionWhenFindAllWithBrokenCursor() {
+        AdsPageRequestDto page = new AdsPageRequestDto();
+        page.setCursor("not a cursor");
+        assertThrows(InvalidCursorException.class,
+                () -> advertService.findAll(page));
+    }
+
+    @Test
+    public void searchLikeEscapesWildcards() {
+        AdsSearchRequestDto request = new AdsSearchRequestDto();
+        request.setQ(" 100%_Кот ");
+        doReturn(List.of(projection(advert))).when(advertRepository)
+                .searchLike(eq("%100\\%\\_кот%"), eq(Integer.MAX_VALUE), any());
+        doReturn(new ResponseWrapperAdsDto()).when(advertMapper).projectionListToRespWrapperAdsDto(any());
+        assertNotNull(advertService.search(request));
+    }
+
+    @Test
+    public void searchFullTextReturnsRankCursor() {
+        ReflectionTestUtils.setField(advertService, "searchEngine", SearchEngine.FULL_TEXT);
+        AdsSearchRequestDto request = new AdsSearchRequestDto();
+        request.setQ("кот");
+        request.setSize(1);
+        AdsSearchProjection first = new AdsSearchProjection(5, "кот", 10, 1, null, 0.5);
+        AdsSearchProjection second = new AdsSearchProjection(3, "коты", 10, 1, null, 0.25);
+        doReturn(List.of(first, second)).when(advertRepository)
+                .searchFullText("кот", Double.MAX_VALUE, Integer.MAX_VALUE, 2);
+        doReturn(new ResponseWrapperAdsDto()).when(advertMapper).projectionListToRespWrapperAdsDto(List.of(first));
+        PageCursor next = PageCursor.decode(advertService.search(request).getNext());
+        assertEquals(0.5, Double.longBitsToDouble(next.getKey()));
+        assertEquals(5, next.getId());
+    }
+
+    @Test
+    public void searchFuzzyUsesConfiguredThreshold() {
+        ReflectionTestUtils.setField(advertService, "searchEngine", SearchEngine.FULL_TEXT);
+        ReflectionTestUtils.setField(advertService, "fuzzyThreshold", 0.4);
+        ReflectionTestUtils.setField(advertService, "fuzzyRecencyWeight", 0.2);
+        AdsSearchRequestDto request = new AdsSearchRequestDto();
+        request.setQ("велосепед");
+        request.setFuzzy(true);
+        doReturn(40).when(advertRepository).findMaxId();
+        doReturn(List.of(new AdsSearchProjection(5, "велосипед", 10, 1, null, 0.7))).when(advertRepository)
+                .searchFuzzy("велосепед", 0.4, 0.2, 40, Double.MAX_VALUE, Integer.MAX_VALUE, 21);
+        doReturn(new ResponseWrapperAdsDto()).when(advertMapper).projectionListToRespWrapperAdsDto(any());
+        assertNull(advertService.search(request).getNext());
+        verify(advertRepository, never()).searchFullText(any(), anyDouble(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void searchFuzzyPinsNewestIdOfFirstPage() {
+        ReflectionTestUtils.setField(advertService, "searchEngine", SearchEngine.FULL_TEXT);
+        ReflectionTestUtils.setField(advertService, "fuzzyThreshold", 0.4);
+        ReflectionTestUtils.setField(advertService, "fuzzyRecencyWeight", 0.2);
+        AdsSearchRequestDto request = new AdsSearchRequestDto();
+        request.setQ("велосепед");
+        request.setFuzzy(true);
+        request.setSize(1);
+        AdsSearchProjection first = new AdsSearchProjection(5, "велосипед", 10, 1, null, 0.7);
+        AdsSearchProjection second = new AdsSearchProjection(3, "велосипеды", 10, 1, null, 0.6);
+        doReturn(40).when(advertRepository).findMaxId();
+        doReturn(List.of(first, second)).when(advertRepository)
+                .searchFuzzy("велосепед", 0.4, 0.2, 40, Double.MAX_VALUE, Integer.MAX_VALUE, 2);
+        doAnswer(invocation -> new ResponseWrapperAdsDto()).when(advertMapper).projectionListToRespWrapperAdsDto(any());
+        PageCursor next = PageCursor.decode(advertService.search(request).getNext());
+        assertEquals(40, next.getPin());
+
+        request.setCursor(next.encode());
+        doReturn(List.of(second)).when(advertRepository)
+                .searchFuzzy("велосепед", 0.4, 0.2, 40, 0.7, 5, 2);
+        assertNull(advertService.search(request).getNext());
+        verify(advertRepository, times(1)).findMaxId();
+    }
+
+    @Test
+    public void pageCursorWithoutPin() {
+        PageCursor cursor = PageCursor.decode(new PageCursor(7, 3).encode());
+        assertEquals(7, cursor.getKey());
+        assertEquals(3, cursor.getId());
+        assertEquals(0, cursor.getPin());
+        assertEquals(41, PageCursor.decode(new PageCursor(7, 3, 41).encode()).getPin());
+    }
+
+    @Test
+    public void searchIndexReadsMatchedIds() {
+        ReflectionTestUtils.setField(advertService, "searchEngine", SearchEngine.INDEX);
+        AdsSearchRequestDto request = new AdsSearchRequestDto();
+        request.setQ("кот*");
+        doReturn(true).when(advertIndex).isReady();
+        doReturn(new int[]{7, 3}).when(advertIndex).search("кот*", Integer.MAX_VALUE, 21);
+        doReturn(List.of(projection(advert))).when(advertRepository).findPageByIdIn(List.of(7, 3));
+        doReturn(new ResponseWrapperAdsDto()).when(advertMapper).projectionListToRespWrapperAdsDto(any());
+        assertNotNull(advertService.search(request));
+        verify(advertRepository, never()).searchLike(any(), anyInt(), any());
+    }
+
+    @Test
+    public void suggestClampsSize() {
+        doReturn(List.of("Кот")).when(titleSuggester).suggest("ко", AdvertService.MAX_SUGGESTIONS);
+        assertEquals(List.of("Кот"), advertService.suggest("ко", 1000));
+        assertEquals(List.of(), advertService.suggest(" ", 10));
+    }
+
+    @Test
+    public void searchWithBlankQueryReturnsNothing() {
+        AdsSearchRequestDto request = new AdsSearchRequestDto();
+        request.setQ("  ");
+        doReturn(new ResponseWrapperAdsDto()).when(advertMapper).projectionListToRespWrapperAdsDto(List.of());
+        assertNotNull(advertService.search(request));
+        verifyNoInteractions(advertRepository);
     }
 
     @Test
     public void findById() {
         FullAdsDto expectedFullAdsDto = new FullAdsDto();
         expectedFullAdsDto.setPk(advert.getId());
-        doReturn(Optional.of(advert)).when(advertRepository).findById(any());
+        doReturn(Optional.of(advert)).when(advertRepository).findWithAuthorById(anyInt());
         doReturn(expectedFullAdsDto).when(advertMapper).advertToFullAdsDto(any());
-        FullAdsDto actualFullAdsDto = advertService.findById(advert.getId());
-        assertNotNull(actualFullAdsDto);
-        assertEquals(expectedFullAdsDto, actualFullAdsDto);
+        AdvertService.Card card = advertService.findById(advert.getId());
+        assertNotNull(card);
+        assertEquals(expectedFullAdsDto, card.getAds());
+    }
+
+    @Test
+    public void findByIdTagsCardWithVersionsItWasReadAt() {
+        advert.setVersion(3);
+        advert.getAuthor().setVersion(1);
+        doReturn(Optional.of(advert)).when(advertRepository).findWithAuthorById(advert.getId());
+        doReturn(new FullAdsDto()).when(advertMapper).advertToFullAdsDto(advert);
+        assertEquals("3.1", advertService.findById(advert.getId()).getETag());
+        advert.setAuthor(null);
+        assertEquals("3.0", advertService.findById(advert.getId()).getETag());
     }
 
     @Test
@@ -157,11 +357,11 @@ public class AdvertServiceTest {
         adsDto.setPk(advert.getId());
         expectedResponseWrapperAdsDto.setCount(1);
         expectedResponseWrapperAdsDto.setResults(List.of(adsDto));
-        doReturn(user).when(userRepository).findByUsername(any());
-        doReturn(authentication).when(auth).getAuth();
-        doReturn(List.of(advert)).when(advertRepository).findByAuthorId(anyInt());
-        doReturn(expectedResponseWrapperAdsDto).when(advertMapper).listToRespWrapperAdsDto(List.of(advert));
-        ResponseWrapperAdsDto actualResponseWrapperAdsDto = advertService.findAllByAuthUser();
+        doReturn(principal(user)).when(auth).getUser();
+        AdsProjection projection = projection(advert);
+        doReturn(List.of(projection)).when(advertRepository).findPageById(eq(new AdsFilter(user.getId(), null, null, null)), anyInt(), any());
+        doReturn(expectedResponseWrapperAdsDto).when(advertMapper).projectionListToRespWrapperAdsDto(List.of(projection));
+        ResponseWrapperAdsDto actualResponseWrapperAdsDto = advertService.findAllByAuthUser(new AdsPageRequestDto());
         assertNotNull(actualResponseWrapperAdsDto);
         assertEquals(expectedResponseWrapperAdsDto, actualResponseWrapperAdsDto);
     }
@@ -169,7 +369,7 @@ public class AdvertServiceTest {
     @Test
     public void findAdvert() throws NoSuchMethodException,
             InvocationTargetException, IllegalAccessException {
-        doReturn(Optional.of(advert)).when(advertRepository).findById(anyInt());
+        doReturn(Optional.of(advert)).when(advertRepository).findWithAuthorById(anyInt());
         Class[] parameters = new Class[1];
         parameters[0] = int.class;
         Method method = advertService
@@ -186,7 +386,7 @@ public class AdvertServiceTest {
     @Test
     public void findAdvertWithAuth() throws NoSuchMethodException,
             InvocationTargetException, IllegalAccessException {
-        doReturn(Optional.of(advert)).when(advertRepository).findById(any());
+        doReturn(Optional.of(advert)).when(advertRepository).findWithAuthorById(anyInt());
         Class[] parameters = new Class[1];
         parameters[0] = int.class;
         Method method = advertService
@@ -200,51 +400,42 @@ public class AdvertServiceTest {
         assertEquals(advert, actualAdvert);
     }
 
-    @Test
-    public void findAdvertsWithAuth() throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-        User user = advert.getAuthor();
-        doReturn(user).when(userRepository).findByUsername(any());
-        doReturn(authentication).when(auth).getAuth();
-        doReturn(List.of(advert)).when(advertRepository).findByAuthorId(anyInt());
-        Method method = advertService
-                .getClass()
-                .getDeclaredMethod("findAdvertsWithAuth");
-        method.setAccessible(true);
-        List<Advert> actualAdverts = (List<Advert>) method.invoke(advertService);
-        assertNotNull(actualAdverts);
-        assertEquals(List.of(advert), actualAdverts);
-    }
-
     @Test
     public void deleteByAdmin() {
-        User user = advert.getAuthor();
-        doReturn(user).when(userRepository).findByUsername(any());
+        doReturn(principal(advert.getAuthor())).when(auth).getUser();
         doReturn(Optional.of(advert)).when(advertRepository).findById(anyInt());
-        advertService.deleteByAdmin(advert.getId(), authentication);
+        advertService.deleteByAdmin(advert.getId());
         verify(advertRepository, times(1)).delete(any());
     }
 
     @Test
     public void DoesThrowUserUnauthorizedExceptionWhenFindAdvertsWithAuth(){
-        doReturn(null).when(userRepository).findByUsername(any());
-        doReturn(authentication).when(auth).getAuth();
+        doThrow(new UserUnauthorizedException("User not found")).when(auth).getUser();
         assertThrows(UserUnauthorizedException.class,
-                () -> advertService.findAllByAuthUser());
+                () -> advertService.findAllByAuthUser(new AdsPageRequestDto()));
     }
 
     @Test
     public void DoesThrowAdvertNotFoundExceptionExceptionWhenFindAdvertWithAuth() {
-        doReturn(Optional.empty()).when(advertRepository).findById(anyInt());
+        doReturn(Optional.empty()).when(advertRepository).findWithAuthorById(anyInt());
         assertThrows(AdvertNotFoundException.class,
-                () -> advertService.updateImage(anyInt(), mockMultipartFile));
+                () -> advertService.updateImage(anyInt(), upload));
     }
 
     @Test
     public void DoesThrowActionForbiddenExceptionWhenFindAdvertWithAuth() {
         boolean isAuthenticationNull = true;
-        doReturn(Optional.of(advert)).when(advertRepository).findById(anyInt());
+        doReturn(Optional.of(advert)).when(advertRepository).findWithAuthorById(anyInt());
         doReturn(isAuthenticationNull).when(auth).check(any());
         assertThrows(ActionForbiddenException.class,
-                () -> advertService.updateImage(anyInt(), mockMultipartFile));
+                () -> advertService.updateImage(anyInt(), upload));
+    }
+
+    private static AdsProjection projection(Advert advert) {
+        return new AdsProjection(advert.getId(), "title", advert.getPrice(), 1, null);
+    }
+
+    private static AuthenticatedUser principal(User user) {
+        return new AuthenticatedUser(user.getId(), user.getUsername(), user.getRole(), null);
     }
 }
@@ -8,17 +8,24 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.provisioning.JdbcUserDetailsManager;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import ru.skypro.homework.component.AuthenticationComponent;
 import ru.skypro.homework.dto.RegisterReqDto;
 import ru.skypro.homework.dto.SecuringUserDto;
+import ru.skypro.homework.dto.TokenDto;
+import ru.skypro.homework.exception.InvalidTokenException;
 import ru.skypro.homework.mapper.UserMapper;
 import ru.skypro.homework.model.Role;
 import ru.skypro.homework.model.User;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.security.AuthenticatedUser;
+import ru.skypro.homework.security.TokenService;
 import ru.skypro.homework.security.UserDetailsImpl;
 import ru.skypro.homework.service.impl.AuthServiceImpl;
 
+import java.util.Optional;
+
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -27,17 +34,19 @@ public class AuthServiceImplTest {
     @InjectMocks
     private AuthServiceImpl authService;
     @Mock
-    private JdbcUserDetailsManager manager;
+    private UserDetailsService userDetailsService;
     @Mock
     private PasswordEncoder encoder;
     @Mock
     private UserService userService;
+    @Mock
+    private TokenService tokenService;
 
     private UserDetailsImpl userDetails;
 
     @BeforeEach
     public void setup() {
-        SecuringUserDto user = new SecuringUserDto();
+        SecuringUserDto user = new SecuringUserDto(1, "user@gmail.com", "password", Role.ADMIN, true, null);
         System.out.println(user.getPassword());
         System.out.println(user.getUsername());
         userDetails = new UserDetailsImpl();
@@ -46,17 +55,82 @@ public class AuthServiceImplTest {
 
     @Test
     public void login() {
-        doReturn(true).when(manager).userExists(any());
-        doReturn(userDetails).when(manager).loadUserByUsername(any());
+        doReturn(userDetails).when(userDetailsService).loadUserByUsername(any());
         doReturn(true).when(encoder).matches(any(), any());
-        boolean isTrueLogin = authService.login(userDetails.getUsername(), userDetails.getPassword());
-        assertTrue(isTrueLogin);
+        TokenDto tokens = new TokenDto("access", "refresh", "Bearer", 900);
+        doReturn(tokens).when(tokenService)
+                .issue(argThat(user -> user.getId() == 1 && user.getRole() == Role.ADMIN), eq("password"));
+        assertEquals(Optional.of(tokens), authService.login(userDetails.getUsername(), userDetails.getPassword()));
+    }
+
+    @Test
+    public void loginWithWrongPassword() {
+        doReturn(userDetails).when(userDetailsService).loadUserByUsername(any());
+        doReturn(false).when(encoder).matches(any(), any());
+        assertTrue(authService.login(userDetails.getUsername(), "wrong").isEmpty());
+        verify(tokenService, never()).issue(any(), any());
+    }
+
+    @Test
+    public void loginUnknownUser() {
+        doThrow(new UsernameNotFoundException("User not found")).when(userDetailsService).loadUserByUsername(any());
+        assertTrue(authService.login("nobody@gmail.com", "password").isEmpty());
+        verifyNoInteractions(encoder, tokenService);
+    }
+
+    @Test
+    public void refreshRevokesUsedToken() {
+        TokenService.Token token = mock(TokenService.Token.class);
+        doReturn(new AuthenticatedUser(1, "user@gmail.com", Role.ADMIN, null)).when(token).getUser();
+        doReturn(token).when(tokenService).verify("refresh", TokenService.Type.REFRESH);
+        doReturn(userDetails).when(userDetailsService).loadUserByUsername("user@gmail.com");
+        doReturn(true).when(tokenService).matchesCredentials(token, "password");
+        TokenDto tokens = new TokenDto("access", "refresh2", "Bearer", 900);
+        doReturn(tokens).when(tokenService)
+                .issue(argThat(user -> user.getId() == 1 && user.getRole() == Role.ADMIN), eq("password"));
+        assertEquals(tokens, authService.refresh("refresh"));
+        verify(tokenService).consume(token);
+    }
+
+    @Test
+    public void refreshWithConsumedToken() {
+        TokenService.Token token = mock(TokenService.Token.class);
+        doReturn(new AuthenticatedUser(1, "user@gmail.com", Role.ADMIN, null)).when(token).getUser();
+        doReturn(token).when(tokenService).verify("refresh", TokenService.Type.REFRESH);
+        doReturn(userDetails).when(userDetailsService).loadUserByUsername("user@gmail.com");
+        doReturn(true).when(tokenService).matchesCredentials(token, "password");
+        doThrow(new InvalidTokenException("Token revoked")).when(tokenService).consume(token);
+        assertThrows(InvalidTokenException.class, () -> authService.refresh("refresh"));
+        verify(tokenService, never()).issue(any(), any());
+    }
+
+    @Test
+    public void refreshAfterPasswordChange() {
+        TokenService.Token token = mock(TokenService.Token.class);
+        doReturn(new AuthenticatedUser(1, "user@gmail.com", Role.ADMIN, null)).when(token).getUser();
+        doReturn(token).when(tokenService).verify("refresh", TokenService.Type.REFRESH);
+        doReturn(userDetails).when(userDetailsService).loadUserByUsername("user@gmail.com");
+        doReturn(false).when(tokenService).matchesCredentials(token, "password");
+        assertThrows(InvalidTokenException.class, () -> authService.refresh("refresh"));
+        verify(tokenService, never()).consume(any());
+        verify(tokenService, never()).issue(any(), any());
+    }
+
+    @Test
+    public void refreshForDisabledUser() {
+        userDetails.getUser().setEnabled(false);
+        TokenService.Token token = mock(TokenService.Token.class);
+        doReturn(new AuthenticatedUser(1, "user@gmail.com", Role.ADMIN, null)).when(token).getUser();
+        doReturn(token).when(tokenService).verify("refresh", TokenService.Type.REFRESH);
+        doReturn(userDetails).when(userDetailsService).loadUserByUsername("user@gmail.com");
+        assertThrows(InvalidTokenException.class, () -> authService.refresh("refresh"));
+        verify(tokenService, never()).consume(any());
     }
 
     @Test
     public void register() {
         RegisterReqDto reqDto = new RegisterReqDto();
-        doReturn(false).when(manager).userExists(any());
+        doReturn(false).when(userService).exists(any());
         doNothing().when(userService).create(any(),any());
         boolean isTrueRegister = authService.register(reqDto, Role.USER);
         assertTrue(isTrueRegister);
@@ -0,0 +1,49 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.skypro.homework.TestData;
+import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.configuration.DataSourceProxyBeanPostProcessor;
+import ru.skypro.homework.dto.ResponseWrapperCommentDto;
+import ru.skypro.homework.mapper.CommentMapperImpl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static ru.skypro.homework.QueryBudget.assertStatementsAtMost;
+import static ru.skypro.homework.QueryBudget.reset;
+
+/**
+ * Statement budgets of the {@link CommentService} read endpoints over real repositories and mappers.
+ */
+@DataJpaTest
+@ActiveProfiles("test")
+@Import({DataSourceProxyBeanPostProcessor.class, CommentService.class, CommentMapperImpl.class,
+        AuthenticationComponent.class})
+public class CommentServiceQueryBudgetTest {
+    private static final int USERS = 7;
+    private static final int COMMENTS = 100;
+
+    @Autowired
+    private CommentService commentService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setup() {
+        TestData.insertUsersAndAdverts(jdbcTemplate, USERS, 1);
+        TestData.insertComments(jdbcTemplate, 1, COMMENTS, USERS);
+    }
+
+    @Test
+    public void findAll() {
+        reset();
+        ResponseWrapperCommentDto comments = commentService.findAll(1);
+        assertStatementsAtMost(1, "GET /ads/{id}/comments with " + COMMENTS + " comments");
+        assertEquals(COMMENTS, comments.getCount());
+    }
+}
@@ -8,7 +8,6 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.security.core.Authentication;
 import ru.skypro.homework.component.AuthenticationComponent;
 import ru.skypro.homework.dto.CommentDto;
 import ru.skypro.homework.dto.ResponseWrapperAdsDto;
@@ -18,10 +17,12 @@ import ru.skypro.homework.exception.CommentNotFoundException;
 import ru.skypro.homework.mapper.CommentMapper;
 import ru.skypro.homework.model.Advert;
 import ru.skypro.homework.model.Comment;
+import ru.skypro.homework.model.Role;
 import ru.skypro.homework.model.User;
 import ru.skypro.homework.repository.AdvertRepository;
 import ru.skypro.homework.repository.CommentRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.security.AuthenticatedUser;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -45,8 +46,6 @@ public class CommentServiceTest {
     private AuthenticationComponent auth;
     @Mock
     private CommentMapper commentMapper;
-    @Mock
-    private Authentication authentication;
     private Comment comment;
 
     @BeforeEach
@@ -68,8 +67,8 @@ public class CommentServiceTest {
         CommentDto expectedCommentDto = new CommentDto();
         expectedCommentDto.setPk(comment.getId());
         doReturn(Optional.of(comment.getAdvert())).when(advertRepository).findById(anyInt());
-        doReturn(comment.getAuthor()).when(userRepository).findByUsername(any());
-        doReturn(authentication).when(auth).getAuth();
+        doReturn(new AuthenticatedUser(1, "user@gmail.com", Role.USER, null)).when(auth).getUser();
+        doReturn(comment.getAuthor()).when(userRepository).getReferenceById(1);
         doReturn(comment).when(commentMapper).commentDtoToComment(any());
         doReturn(expectedCommentDto).when(commentMapper).commentToCommentDto(any());
         CommentDto actualCommentDto = commentService
@@ -82,7 +81,7 @@ public class CommentServiceTest {
     @Test
     public void delete() {
         doReturn(Optional.of(comment.getAdvert())).when(advertRepository).findById(anyInt());
-        doReturn(Optional.of(comment)).when(commentRepository).findById(any());
+        doReturn(Optional.of(comment)).when(commentRepository).findWithAuthorById(anyInt());
         commentService.delete(comment.getAdvert().getId(), comment.getId());
         verify(commentRepository, times(1)).delete(any());
     }
@@ -91,7 +90,7 @@ public class CommentServiceTest {
     public void update() {
         CommentDto expectedCommentDto = new CommentDto();
         expectedCommentDto.setPk(1);
-        doReturn(Optional.of(comment)).when(commentRepository).findById(anyInt());
+        doReturn(Optional.of(comment)).when(commentRepository).findWithAuthorById(anyInt());
         doReturn(Optional.of(comment.getAdvert())).when(advertRepository).findById(anyInt());
         doNothing().when(commentMapper).updateComment(isA(CommentDto.class), isA(Comment.class));
         doReturn(expectedCommentDto).when(commentMapper).commentToCommentDto(any());
@@ -138,7 +137,7 @@ public class CommentServiceTest {
     @Test
     public void findCommentWithAuth() throws NoSuchMethodException,
             InvocationTargetException, IllegalAccessException {
-        doReturn(Optional.of(comment)).when(commentRepository).findById(anyInt());
+        doReturn(Optional.of(comment)).when(commentRepository).findWithAuthorById(anyInt());
         Class[] parameters = new Class[2];
         parameters[0] = Advert.class;
         parameters[1] = int.class;
@@ -159,7 +158,7 @@ public class CommentServiceTest {
         advert.setId(1);
         CommentDto commentDto = new CommentDto();
         commentDto.setPk(11);
-        doReturn(Optional.empty()).when(commentRepository).findById(anyInt());
+        doReturn(Optional.empty()).when(commentRepository).findWithAuthorById(anyInt());
         doReturn(Optional.of(advert)).when(advertRepository).findById(anyInt());
         assertThrows(CommentNotFoundException.class,
                 () -> commentService.delete(advert.getId(), comment.getId()));
@@ -173,7 +172,7 @@ public class CommentServiceTest {
         advert.setId(101);
         CommentDto commentDto = new CommentDto();
         commentDto.setPk(11);
-        doReturn(Optional.of(comment)).when(commentRepository).findById(anyInt());
+        doReturn(Optional.of(comment)).when(commentRepository).findWithAuthorById(anyInt());
         doReturn(Optional.of(advert)).when(advertRepository).findById(anyInt());
         assertThrows(CommentNotFoundException.class,
                 () -> commentService.delete(advert.getId(), comment.getId()));
@@ -186,7 +185,7 @@ public class CommentServiceTest {
         boolean isAuthenticationNull = true;
         CommentDto commentDto = new CommentDto();
         commentDto.setPk(11);
-        doReturn(Optional.of(comment)).when(commentRepository).findById(anyInt());
+        doReturn(Optional.of(comment)).when(commentRepository).findWithAuthorById(anyInt());
         doReturn(Optional.of(comment.getAdvert())).when(advertRepository).findById(anyInt());
         doReturn(isAuthenticationNull).when(auth).check(any());
         assertThrows(ActionForbiddenException.class,
@@ -0,0 +1,55 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Query latency of {@link InvertedIndex} at a million adverts. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class InvertedIndexBenchmarkTest {
+    private static final int ADVERTS = 1_000_000;
+    private static final int WORDS = 20_000;
+    private static final int WORDS_PER_ADVERT = 12;
+    private static final int PAGE = 21;
+    private static final int RUNS = 1_000;
+    private static final String[] QUERIES = {
+            "w1", "w1 w2", "w1 w2 w3", "w1 OR w19999", "w19999 w19998", "w12*", "w1* w2*", "w5 | w7 w9"
+    };
+
+    @Test
+    public void searchMillionAdverts() {
+        InvertedIndex index = new InvertedIndex();
+        Random random = new Random(42);
+        for (int id = 1; id <= ADVERTS; id++) {
+            String[] terms = new String[WORDS_PER_ADVERT];
+            for (int i = 0; i < terms.length; i++) {
+                // Skewed, so that low numbered words are frequent and high numbered ones rare
+                terms[i] = "w" + (int) (WORDS * Math.pow(random.nextDouble(), 3));
+            }
+            index.update(id, Set.of(), InvertedIndex.terms(String.join(" ", terms)));
+        }
+        System.out.printf("index of %d adverts: %d terms, %d MB%n",
+                ADVERTS, index.termCount(), index.memoryBytes() >> 20);
+
+        for (String query : QUERIES) {
+            int[] first = index.search(query, Integer.MAX_VALUE, PAGE);
+            for (int i = 0; i < RUNS; i++) {
+                index.search(query, Integer.MAX_VALUE, PAGE);
+            }
+            long start = System.nanoTime();
+            int[] page = null;
+            for (int i = 0; i < RUNS; i++) {
+                page = index.search(query, Integer.MAX_VALUE, PAGE);
+            }
+            long average = (System.nanoTime() - start) / RUNS;
+            assertEquals(first.length, page.length);
+            System.out.printf("%-16s %3d hits per page, %6d us%n", query, page.length, average / 1_000);
+        }
+    }
+}
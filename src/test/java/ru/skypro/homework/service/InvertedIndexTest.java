@@ -0,0 +1,72 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InvertedIndexTest {
+    private InvertedIndex index;
+
+    @BeforeEach
+    public void setup() {
+        index = new InvertedIndex();
+        add(1, "Продам кошку");
+        add(2, "Котёнок в добрые руки");
+        add(3, "Велосипед горный, почти новый");
+        add(4, "Кошка и велосипед");
+    }
+
+    @Test
+    public void termsAreLowerCasedAndFoldYo() {
+        assertEquals(Set.of("котенок", "в", "добрые", "руки", "2023"),
+                InvertedIndex.terms("Котёнок в добрые-руки! 2023"));
+    }
+
+    @Test
+    public void searchMatchesAllTermsNewestFirst() {
+        assertArrayEquals(new int[]{4, 3}, index.search("велосипед", Integer.MAX_VALUE, 10));
+        assertArrayEquals(new int[]{4}, index.search("Кошка велосипед", Integer.MAX_VALUE, 10));
+        assertArrayEquals(new int[0], index.search("кошка горный", Integer.MAX_VALUE, 10));
+    }
+
+    @Test
+    public void searchSupportsOrAndPrefix() {
+        assertArrayEquals(new int[]{4, 2, 1}, index.search("кош*  OR котенок", Integer.MAX_VALUE, 10));
+        assertArrayEquals(new int[]{4, 3, 1}, index.search("кошку | велос*", Integer.MAX_VALUE, 10));
+        assertArrayEquals(new int[]{4, 2, 1}, index.search("ко*", Integer.MAX_VALUE, 10));
+    }
+
+    @Test
+    public void searchPagesBelowCursor() {
+        assertArrayEquals(new int[]{4, 3}, index.search("ко* OR велосипед", Integer.MAX_VALUE, 2));
+        assertArrayEquals(new int[]{2, 1}, index.search("ко* OR велосипед", 3, 2));
+        assertArrayEquals(new int[0], index.search("ко* OR велосипед", 1, 2));
+    }
+
+    @Test
+    public void updateMovesAdvertBetweenTerms() {
+        index.update(4, Set.of("кошка"), Set.of("собака"));
+        index.update(5, Set.of(), Set.of("собака"));
+        assertArrayEquals(new int[]{1}, index.search("кош*", Integer.MAX_VALUE, 10));
+        assertArrayEquals(new int[]{5, 4}, index.search("собака", Integer.MAX_VALUE, 10));
+
+        index.update(5, Set.of("собака"), Set.of());
+        index.update(4, Set.of("собака"), Set.of());
+        assertArrayEquals(new int[0], index.search("собака", Integer.MAX_VALUE, 10));
+    }
+
+    @Test
+    public void addIsIdempotentAndKeepsOrder() {
+        index.update(3, Set.of(), Set.of("кошка"));
+        index.update(3, Set.of(), Set.of("кошка"));
+        assertArrayEquals(new int[]{4, 3}, index.search("кошка", Integer.MAX_VALUE, 10));
+        assertTrue(index.memoryBytes() > 0);
+    }
+
+    private void add(int id, String text) {
+        index.update(id, Set.of(), InvertedIndex.terms(text));
+    }
+}
@@ -0,0 +1,119 @@
+package ru.skypro.homework.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.skypro.homework.dto.AdsDto;
+import ru.skypro.homework.dto.AdsPageRequestDto;
+import ru.skypro.homework.dto.ResponseWrapperAdsDto;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ListingSnapshotTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Mock
+    private AdvertService advertService;
+
+    @Test
+    public void rendersDefaultPageOnly() throws IOException {
+        ResponseWrapperAdsDto listing = listing("cursor", 9, 8);
+        doReturn(listing).when(advertService).findAll(any());
+        ListingSnapshot snapshot = new ListingSnapshot(advertService, objectMapper, true, true, Runnable::run);
+        assertNull(snapshot.find(new AdsPageRequestDto()));
+        snapshot.scheduleRender();
+
+        ListingSnapshot.Rendered rendered = snapshot.find(new AdsPageRequestDto());
+        assertEquals(1, rendered.getVersion());
+        assertArrayEquals(objectMapper.writeValueAsBytes(listing), rendered.getJson());
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(rendered.getGzip()))) {
+            assertArrayEquals(rendered.getJson(), in.readAllBytes());
+        }
+        AdsPageRequestDto other = new AdsPageRequestDto();
+        other.setSize(5);
+        assertNull(snapshot.find(other));
+    }
+
+    @Test
+    public void rerendersOnlyForChangesOnThePage() {
+        doReturn(listing("cursor", 9, 8)).when(advertService).findAll(any());
+        ListingSnapshot snapshot = new ListingSnapshot(advertService, objectMapper, true, false, Runnable::run);
+        snapshot.scheduleRender();
+        assertNull(snapshot.find(new AdsPageRequestDto()).getGzip());
+
+        snapshot.onAdvertChanged(new AdvertChangedEvent(3, state(), state()));
+        snapshot.onAdvertChanged(new AdvertChangedEvent(5, state(), null));
+        verify(advertService, times(1)).findAll(any());
+
+        snapshot.onAdvertChanged(new AdvertChangedEvent(8, state(), state()));
+        snapshot.onAdvertChanged(new AdvertChangedEvent(10, null, state()));
+        verify(advertService, times(3)).findAll(any());
+        assertEquals(3, snapshot.find(new AdsPageRequestDto()).getVersion());
+    }
+
+    @Test
+    public void lastPageIsAffectedByAnyChange() {
+        doReturn(listing(null, 2, 1)).when(advertService).findAll(any());
+        ListingSnapshot snapshot = new ListingSnapshot(advertService, objectMapper, true, true, Runnable::run);
+        snapshot.scheduleRender();
+        snapshot.onAdvertChanged(new AdvertChangedEvent(1, state(), null));
+        verify(advertService, times(2)).findAll(any());
+    }
+
+    @Test
+    public void entityTagsChangeWithCommittedChanges() {
+        doReturn(listing("cursor", 9, 8)).when(advertService).findAll(any());
+        ListingSnapshot snapshot = new ListingSnapshot(advertService, objectMapper, true, true, Runnable::run);
+        String listingETag = snapshot.listingETag();
+        snapshot.scheduleRender();
+        ListingSnapshot.Rendered first = snapshot.find(new AdsPageRequestDto());
+        assertNotEquals(first.eTag(false), first.eTag(true));
+        assertNotEquals(listingETag, first.eTag(false));
+
+        snapshot.onAdvertChanged(new AdvertChangedEvent(3, state(), null));
+        assertNotEquals(listingETag, snapshot.listingETag());
+        assertSame(first, snapshot.find(new AdsPageRequestDto()));
+        snapshot.onAdvertChanged(new AdvertChangedEvent(10, null, state()));
+        assertNotEquals(first.eTag(false), snapshot.find(new AdsPageRequestDto()).eTag(false));
+    }
+
+    @Test
+    public void disabledSnapshotIsNeverRendered() {
+        ListingSnapshot snapshot = new ListingSnapshot(advertService, objectMapper, false, true, Runnable::run);
+        snapshot.scheduleRender();
+        snapshot.onAdvertChanged(new AdvertChangedEvent(1, null, state()));
+        assertNull(snapshot.find(new AdsPageRequestDto()));
+        verifyNoInteractions(advertService);
+    }
+
+    private static ResponseWrapperAdsDto listing(String next, int... ids) {
+        List<AdsDto> results = IntStream.of(ids).mapToObj(id -> {
+            AdsDto dto = new AdsDto();
+            dto.setPk(id);
+            dto.setTitle("Объявление " + id);
+            dto.setImage("/ads/" + id + "/image");
+            return dto;
+        }).collect(Collectors.toList());
+        ResponseWrapperAdsDto listing = new ResponseWrapperAdsDto();
+        listing.setCount(results.size());
+        listing.setResults(results);
+        listing.setNext(next);
+        return listing;
+    }
+
+    private static AdvertChangedEvent.State state() {
+        return new AdvertChangedEvent.State("title", "description", 100);
+    }
+}
@@ -0,0 +1,65 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.PhotoSize;
+import ru.skypro.homework.repository.PhotoRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PhotoDedupMigrationTest {
+    private final PhotoService photoService = mock(PhotoService.class);
+    private final PhotoVariantGenerator photoVariantGenerator = mock(PhotoVariantGenerator.class);
+    @TempDir
+    Path dir;
+    private PhotoDedupMigration migration;
+    private Image image;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        migration = new PhotoDedupMigration(mock(PhotoRepository.class), photoService,
+                new PhotoCache(DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), 2), photoVariantGenerator,
+                new PhotoStorage(List.of(dir.toString())), Duration.ZERO);
+        image = new Image(dir.toString());
+        image.setId(4);
+        image.setFileExtension("jpeg");
+        Files.write(image.getFilePath(), new byte[]{1});
+        Files.write(image.getVariantPath(PhotoSize.THUMB), new byte[]{2});
+    }
+
+    @Test
+    public void keepsFilesStoredByIdForMergedPhoto() throws Exception {
+        Path file = image.getFilePath();
+        Path thumb = image.getVariantPath(PhotoSize.THUMB);
+        Image kept = new Image(dir.toString());
+        kept.setId(2);
+        doAnswer(invocation -> {
+            kept.setSha256(invocation.getArgument(1));
+            kept.setFileExtension("jpeg");
+            return kept;
+        }).when(photoService).deduplicate(eq(4), anyString());
+
+        List<Path> legacy = new ArrayList<>();
+        assertSame(kept, migration.migrate(image, file, legacy));
+        assertTrue(legacy.containsAll(List.of(file, thumb)));
+        // a request that found the photo before it was merged still reads its files until the batch is done
+        assertArrayEquals(new byte[]{1}, Files.readAllBytes(file));
+        assertArrayEquals(new byte[]{2}, Files.readAllBytes(thumb));
+        assertArrayEquals(new byte[]{1}, Files.readAllBytes(kept.getFilePath()));
+        verify(photoVariantGenerator).enqueue(kept);
+    }
+}
@@ -0,0 +1,94 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.repository.PhotoRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class PhotoGarbageCollectorTest {
+    private static final String KEPT = "ab00" + "0".repeat(60);
+    private static final String ORPHAN = "ab00" + "1".repeat(60);
+    private static final String OTHER = "cd00" + "0".repeat(60);
+
+    private final PhotoRepository photoRepository = mock(PhotoRepository.class);
+    private final PhotoStorage photoStorage = new PhotoStorage(List.of("."));
+    @TempDir
+    Path dir;
+    private Path images;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        images = dir.resolve("images");
+        write(Photo.shard(images, KEPT).resolve(KEPT + ".jpeg"), 10);
+        write(Photo.shard(images, KEPT).resolve(KEPT + "-thumb.jpeg"), 5);
+        write(Photo.shard(images, ORPHAN).resolve(ORPHAN + ".jpeg"), 100);
+        write(Photo.shard(images, OTHER).resolve(OTHER + ".png"), 1000);
+        write(Photo.shard(images, OTHER).resolve("variant-123.tmp"), 1);
+        write(Photo.shard(images, KEPT).resolve("link-789.tmp"), 2);
+        write(images.resolve("7.jpeg"), 10_000);
+        write(images.resolve("8.jpeg"), 1);
+        write(images.resolve("upload-456.tmp"), 20_000);
+        write(images.resolve(PhotoShardMigrator.MARKER), 0);
+        write(images.resolve("notes.txt"), 1);
+
+        doAnswer(invocation -> invocation.<String>getArgument(2).isEmpty() ? List.of(KEPT) : List.of())
+                .when(photoRepository).findSha256s(eq(Image.class), eq(images.toString()), anyString(), any());
+        doReturn(List.of(8)).when(photoRepository).findStoredByIdIn(any());
+    }
+
+    @Test
+    public void deletesFilesNoPhotoRefersTo() throws IOException, InterruptedException {
+        assertEquals(100 + 1000 + 1 + 2 + 10_000 + 20_000, collector(Duration.ZERO, false).sweep());
+        assertEquals(List.of(PhotoShardMigrator.MARKER, "8.jpeg", KEPT + "-thumb.jpeg", KEPT + ".jpeg", "notes.txt"),
+                files());
+    }
+
+    @Test
+    public void onlyCountsInDryRun() throws IOException, InterruptedException {
+        assertEquals(31_103, collector(Duration.ZERO, true).sweep());
+        assertEquals(11, files().size());
+    }
+
+    @Test
+    public void keepsRecentlyChangedFiles() throws IOException, InterruptedException {
+        assertEquals(0, collector(Duration.ofHours(1), false).sweep());
+        assertEquals(11, files().size());
+    }
+
+    private PhotoGarbageCollector collector(Duration minAge, boolean dryRun) {
+        return new PhotoGarbageCollector(photoRepository,
+                new PhotoCache(DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), 2), photoStorage,
+                images.toString(), dir.resolve("avatars").toString(), minAge, 1000, dryRun);
+    }
+
+    private static void write(Path file, int size) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[size]);
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.walk(images)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> file.getFileName().toString())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -1,26 +1,43 @@
 package ru.skypro.homework.service;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoFileOperations;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.exception.PhotoTooLargeException;
 import ru.skypro.homework.exception.PhotoUploadException;
 import ru.skypro.homework.model.*;
 import ru.skypro.homework.repository.PhotoRepository;
 import ru.skypro.homework.repository.UserRepository;
 
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -32,12 +49,26 @@ public class PhotoServiceTest {
     private PhotoRepository photoRepository;
     @Mock
     private UserRepository userRepository;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Mock
+    private PhotoCache photoCache;
+    @Spy
+    private PhotoStorage photoStorage = new PhotoStorage(List.of("."));
+    @Spy
+    private PhotoFileOperations photoFileOperations = new PhotoFileOperations(1, 10);
+    @TempDir
+    Path dir;
     private MockMultipartFile mockMultipartFile;
     private Photo image, avatar;
 
+    @AfterEach
+    public void shutdown() throws InterruptedException {
+        photoFileOperations.shutdown();
+    }
+
     @BeforeEach
     public void setup() throws IOException {
-        String dir = "src\\test\\resources\\picture";
         Resource resource = new ClassPathResource("picture/images.jpeg");
         mockMultipartFile = new MockMultipartFile(
                 "image",
@@ -45,91 +76,216 @@ public class PhotoServiceTest {
                 MediaType.IMAGE_JPEG_VALUE,
                 Files.readAllBytes(resource.getFile().toPath())
         );
+        ReflectionTestUtils.setField(photoService, "imagesDir", dir.toString());
+        ReflectionTestUtils.setField(photoService, "avatarsDir", dir.toString());
+        ReflectionTestUtils.setField(photoService, "maxSize", DataSize.ofKilobytes(64));
 
-        image = new Image(dir);
+        image = new Image(dir.toString());
         image.setId(1);
-        avatar = new Avatar(dir);
+        avatar = new Avatar(dir.toString());
         avatar.setId(2);
     }
 
     @Test
-    public void uploadImage() throws NoSuchMethodException,
-            InvocationTargetException, IllegalAccessException {
-        getPrivateMethods(image);
-        doReturn(image).when(photoRepository).save(any());
-        Image image = photoService.uploadImage(mockMultipartFile);
+    public void uploadImage() throws IOException {
+        saveWithId(1);
+        Image image = store(photoService::uploadImage);
         assertNotNull(image);
         assertEquals(image.getFileSize(), mockMultipartFile.getSize());
+        assertEquals(MediaType.IMAGE_JPEG_VALUE, image.getFileType());
+        assertEquals(64, image.getSha256().length());
+        assertEquals(dir.resolve(image.getSha256().substring(0, 2)).resolve(image.getSha256().substring(2, 4))
+                .resolve(image.getSha256() + ".jpeg"), image.getFilePath());
+        assertArrayEquals(mockMultipartFile.getBytes(), Files.readAllBytes(image.getFilePath()));
+        assertEquals(1, files());
         verify(photoRepository, times(1)).save(any());
+        verify(eventPublisher, times(1)).publishEvent(any(PhotoStoredEvent.class));
     }
 
     @Test
-    public void uploadImage_2() throws InvocationTargetException,
-            NoSuchMethodException, IllegalAccessException {
-        getPrivateMethods(image);
+    public void uploadImage_2() throws IOException, InterruptedException {
+        image.setFileExtension("gif");
+        Files.write(image.getFilePath(), new byte[]{'G', 'I', 'F', '8'});
+        Files.write(image.getVariantPath(PhotoSize.THUMB), new byte[]{'P', 'N', 'G'});
         Advert advert = new Advert();
         advert.setImage((Image) image);
-        doReturn(image).when(photoRepository).save(any());
-        Image image = photoService.uploadImage(advert, mockMultipartFile);
+        saveWithId(2);
+        doReturn(1).when(photoRepository).deleteUnreferenced(1);
+        Image image = store(upload -> photoService.uploadImage(advert, upload));
+        photoFileOperations.shutdown();
         assertNotNull(image);
+        assertEquals(image, advert.getImage());
+        assertEquals(2, image.getId());
         assertEquals(image.getFileSize(), mockMultipartFile.getSize());
+        assertEquals("jpeg", image.getFileExtension());
+        assertArrayEquals(mockMultipartFile.getBytes(), Files.readAllBytes(image.getFilePath()));
+        assertEquals(1, files());
+        verify(photoRepository, times(1)).save(any());
+        verify(photoRepository).addReferences(1, -1);
+    }
+
+    @Test
+    public void uploadImageSharesFileWithSameContent() throws IOException {
+        saveWithId(3);
+        Image stored = store(photoService::uploadImage);
+        doReturn(Optional.of(stored)).when(photoRepository).findByTypeAndSha256(Image.class, stored.getSha256());
+        doReturn(1).when(photoRepository).addReferences(3, 1);
+
+        Image shared = store(photoService::uploadImage);
+        assertSame(stored, shared);
+        assertEquals(1, files());
         verify(photoRepository, times(1)).save(any());
+        verify(eventPublisher, times(1)).publishEvent(any(PhotoStoredEvent.class));
     }
 
     @Test
-    public void uploadAvatar() throws InvocationTargetException,
-            NoSuchMethodException, IllegalAccessException {
-        getPrivateMethods(avatar);
+    public void uploadAvatar() {
         User user = new User();
         user.setAvatar((Avatar) avatar);
-        doReturn(avatar).when(photoRepository).save(any());
+        saveWithId(3);
         doReturn(user).when(userRepository).save(any());
-        Avatar avatar = photoService.uploadAvatar(user, mockMultipartFile);
+        Avatar avatar = store(upload -> photoService.uploadAvatar(user, upload));
         assertNotNull(avatar);
-        assertEquals(avatar, avatar);
+        assertEquals(avatar, user.getAvatar());
+        assertTrue(Files.exists(avatar.getFilePath()));
         verify(photoRepository, times(1)).save(any());
         verify(userRepository, times(1)).save(any());
+        verify(photoRepository).addReferences(2, -1);
+    }
+
+    @Test
+    public void doesRejectContentThatIsNotAnImage() throws IOException {
+        MockMultipartFile text = new MockMultipartFile("image", "image.jpeg", MediaType.IMAGE_JPEG_VALUE,
+                "not an image".getBytes());
+        assertThrows(PhotoUploadException.class, () -> photoService.receiveImage(text));
+        assertEquals(0, files());
+        verifyNoInteractions(photoRepository, eventPublisher);
+    }
+
+    @Test
+    public void releaseKeepsFilesWhileReferenced() throws IOException, InterruptedException {
+        image.setFileExtension("jpeg");
+        Files.write(image.getFilePath(), mockMultipartFile.getBytes());
+        photoService.release(image);
+        photoFileOperations.shutdown();
+        assertEquals(1, files());
+        verify(photoRepository).addReferences(1, -1);
+        verifyNoInteractions(photoCache);
+    }
+
+    @Test
+    public void releaseDeletesFileWithVariants() throws IOException, InterruptedException {
+        image.setFileExtension("jpeg");
+        Files.write(image.getFilePath(), mockMultipartFile.getBytes());
+        Files.write(image.getVariantPath(PhotoSize.THUMB), new byte[1]);
+        Files.write(image.getVariantPath(PhotoSize.MEDIUM), new byte[1]);
+        doReturn(1).when(photoRepository).deleteUnreferenced(1);
+        photoService.release(image);
+        photoFileOperations.shutdown();
+        assertEquals(0, files());
+        verify(photoCache).invalidate(image.getFilePath());
     }
 
-    public void getPrivateMethods(Photo photo) throws NoSuchMethodException,
-            InvocationTargetException, IllegalAccessException {
-        Class[] parameters1 = new Class[2];
-        parameters1[0] = MultipartFile.class;
-        parameters1[1] = Photo.class;
-        Method method1 = photoService.getClass().getDeclaredMethod("mapFileToPhoto", parameters1);
-        method1.setAccessible(true);
-        Object[] arguments1 = new Object[2];
-        arguments1[0] = mockMultipartFile;
-        arguments1[1] = photo;
-        method1.invoke(photoService, arguments1);
-        Class[] parameters2 = new Class[2];
-        parameters2[0] = Photo.class;
-        parameters2[1] = MultipartFile.class;
-        Method method2 = photoService.getClass().getDeclaredMethod("upload", parameters2);
-        method2.setAccessible(true);
-        Object[] arguments2 = new Object[2];
-        arguments2[0] = photo;
-        arguments2[1] = mockMultipartFile;
-        method2.invoke(photoService, arguments2);
+    @Test
+    public void releaseKeepsFilesStoredAgainBeforeDeleteRuns() throws IOException, InterruptedException {
+        saveWithId(3);
+        Image stored = store(photoService::uploadImage);
+        doReturn(1).when(photoRepository).deleteUnreferenced(3);
+
+        TransactionSynchronizationManager.initSynchronization();
+        List<TransactionSynchronization> synchronizations;
+        try {
+            photoService.release(stored);
+            synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        // the release has committed, but its delete is not queued yet when the same content is stored again
+        saveWithId(4);
+        Image again = CompletableFuture.supplyAsync(() -> store(photoService::uploadImage)).join();
+        assertEquals(stored.getFilePath(), again.getFilePath());
+        doReturn(true).when(photoRepository)
+                .existsByTypeAndSha256AndDir(Image.class, again.getSha256(), again.getPhotoDir());
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations,
+                TransactionSynchronization.STATUS_COMMITTED);
+        photoFileOperations.shutdown();
+
+        assertArrayEquals(mockMultipartFile.getBytes(), Files.readAllBytes(again.getFilePath()));
+        verify(photoCache, never()).invalidate(any(Path.class));
     }
 
     @Test
-    public void doesThrowPhotoUploadExceptionWhenUploadAvatar() {
+    public void deduplicateMergesIntoExistingPhoto() {
+        doReturn(Optional.of(image)).when(photoRepository).findById(1);
+        doReturn(Optional.empty()).when(photoRepository).findByTypeAndSha256(Image.class, "aa");
+        saveWithId(1);
+        assertSame(image, photoService.deduplicate(1, "aa"));
+        assertEquals("aa", image.getSha256());
+
+        Image other = new Image(dir.toString());
+        other.setId(5);
+        doReturn(Optional.of(other)).when(photoRepository).findById(5);
+        doReturn(Optional.of(image)).when(photoRepository).findByTypeAndSha256(Image.class, "aa");
+        doReturn(1).when(photoRepository).moveImageReferences(5, 1);
+        assertSame(image, photoService.deduplicate(5, "aa"));
+        verify(photoRepository).addReferences(1, 1);
+        verify(photoRepository).delete(other);
+    }
+
+    @Test
+    public void doesRejectTooLargeImage() throws IOException {
+        byte[] large = new byte[64 * 1024 + 1];
+        large[0] = (byte) 0xFF;
+        large[1] = (byte) 0xD8;
+        large[2] = (byte) 0xFF;
+        MockMultipartFile file = new MockMultipartFile("image", "image.jpeg", MediaType.IMAGE_JPEG_VALUE, large);
+        assertThrows(PhotoTooLargeException.class, () -> photoService.receiveImage(file));
+        assertEquals(0, files());
+        verifyNoInteractions(photoRepository);
+    }
+
+    @Test
+    public void doesThrowPhotoUploadExceptionWhenUploadAvatar() throws IOException {
         User user = new User();
-        avatar.setPhotoDir(null);
-        doReturn(avatar).when(photoRepository).save(any());
+        doThrow(new IllegalStateException("save failed")).when(photoRepository).save(any());
         assertThrows(PhotoUploadException.class,
-                () -> photoService.uploadAvatar(user, mockMultipartFile));
+                () -> store(upload -> photoService.uploadAvatar(user, upload)));
+        assertEquals(0, files());
     }
 
     @Test
-    public void doesThrowPhotoUploadExceptionWhenUploadImage() {
+    public void doesThrowPhotoUploadExceptionWhenUploadImage() throws IOException {
         Advert advert = new Advert();
-        image.setPhotoDir(null);
-        doReturn(image).when(photoRepository).save(any());
+        doThrow(new IllegalStateException("save failed")).when(photoRepository).save(any());
         assertThrows(PhotoUploadException.class,
-                () -> photoService.uploadImage(mockMultipartFile));
+                () -> store(photoService::uploadImage));
         assertThrows(PhotoUploadException.class,
-                () -> photoService.uploadImage(advert, mockMultipartFile));
+                () -> store(upload -> photoService.uploadImage(advert, upload)));
+        assertEquals(0, files());
+    }
+
+    /**
+     * Receive the test file, store it and wait for the file to be moved into place, as the controllers do
+     */
+    private <T extends Photo> T store(Function<PhotoUpload, T> upload) {
+        try (PhotoUpload received = photoService.receiveImage(mockMultipartFile)) {
+            T photo = upload.apply(received);
+            received.awaitStored();
+            return photo;
+        }
+    }
+
+    private void saveWithId(int id) {
+        doAnswer(invocation -> {
+            Photo photo = invocation.getArgument(0);
+            photo.setId(id);
+            return photo;
+        }).when(photoRepository).save(any());
+    }
+
+    private long files() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
     }
 }
@@ -0,0 +1,162 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.AdditionalAnswers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoFileOperations;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.configuration.CacheConfig;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.Photo;
+import ru.skypro.homework.repository.PhotoRepository;
+import ru.skypro.homework.repository.UserRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * {@link PhotoService} against the database, with transactions that really commit
+ */
+@DataJpaTest
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class PhotoServiceTransactionTest {
+    @Autowired
+    private PhotoRepository photoRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @TempDir
+    Path dir;
+    private final PhotoStorage photoStorage = spy(new PhotoStorage(List.of(".")));
+    private final PhotoFileOperations photoFileOperations = new PhotoFileOperations(1, 10);
+    private final CacheManager cacheManager = new ConcurrentMapCacheManager(CacheConfig.FULL_ADS,
+            CacheConfig.USER_DETAILS);
+    private PhotoService photoService;
+    private TransactionTemplate transaction;
+    private MockMultipartFile file;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        photoService = photoService(photoRepository);
+        transaction = new TransactionTemplate(transactionManager);
+        file = new MockMultipartFile("image", "image.jpeg", MediaType.IMAGE_JPEG_VALUE,
+                Files.readAllBytes(new ClassPathResource("picture/images.jpeg").getFile().toPath()));
+        jdbcTemplate.update("insert into users (id, username, first_name, role, enabled) " +
+                "values (1, 'user@gmail.com', 'first name', 'USER', true)");
+    }
+
+    @AfterEach
+    public void cleanup() throws InterruptedException {
+        photoFileOperations.shutdown();
+        jdbcTemplate.update("delete from adverts");
+        jdbcTemplate.update("delete from users");
+        jdbcTemplate.update("delete from photos");
+    }
+
+    @Test
+    public void dropsPhotoWhoseFileFailsToMoveAfterCommit() throws IOException {
+        doThrow(new IOException("No space left on device")).when(photoStorage).moveInto(any(), any());
+        cacheManager.getCache(CacheConfig.FULL_ADS).put(1, "card with image");
+        try (PhotoUpload upload = photoService.receiveImage(file)) {
+            transaction.executeWithoutResult(status -> {
+                Image image = photoService.uploadImage(upload);
+                // the advert created with it, and another one that shared the photo before the move failed
+                for (int id = 1; id <= 2; id++) {
+                    jdbcTemplate.update("insert into adverts (id, title, price, user_id, image_id) " +
+                            "values (?, 'title', 10, 1, ?)", id, image.getId());
+                }
+            });
+            assertFalse(upload.tryAwaitStored());
+            assertThrows(RuntimeException.class, upload::awaitStored);
+            assertFalse(Files.exists(upload.getFile()));
+        }
+        assertEquals(0, jdbcTemplate.queryForObject("select count(*) from photos", Integer.class));
+        assertEquals(List.of(1L, 1L), jdbcTemplate.queryForList(
+                "select version from adverts where image_id is null order by id", Long.class));
+        assertNull(cacheManager.getCache(CacheConfig.FULL_ADS).get(1));
+    }
+
+    @Test
+    public void sharesPhotoStoredByIdenticalUploadMeanwhile() throws Exception {
+        PhotoRepository racing = mock(PhotoRepository.class, AdditionalAnswers.delegatesTo(photoRepository));
+        PhotoService racingService = photoService(racing);
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        AtomicBoolean raced = new AtomicBoolean();
+        doAnswer(invocation -> {
+            Optional<Photo> found = photoRepository.findByTypeAndSha256(invocation.getArgument(0),
+                    invocation.getArgument(1));
+            if (!raced.getAndSet(true)) {
+                // an identical upload commits between the lookup and the insert
+                other.submit(() -> createAdvert(photoService, 2)).get();
+            }
+            return found;
+        }).when(racing).findByTypeAndSha256(any(), any());
+        try {
+            Image image = racingService.retryConcurrentUpload(() -> createAdvert(racingService, 1));
+            assertEquals(image.getId(), jdbcTemplate.queryForObject(
+                    "select image_id from adverts where id = 2", Integer.class));
+            assertTrue(Files.exists(image.getFilePath()));
+        } finally {
+            other.shutdownNow();
+        }
+        assertEquals(List.of(2), jdbcTemplate.queryForList("select ref_count from photos", Integer.class));
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "select count(distinct image_id) from adverts where image_id is not null", Integer.class));
+    }
+
+    private Image createAdvert(PhotoService service, int id) {
+        try (PhotoUpload upload = service.receiveImage(file)) {
+            Image image = transaction.execute(status -> {
+                Image stored = service.uploadImage(upload);
+                jdbcTemplate.update("insert into adverts (id, title, price, user_id, image_id) " +
+                        "values (?, 'title', 10, 1, ?)", id, stored.getId());
+                return stored;
+            });
+            upload.awaitStored();
+            return image;
+        }
+    }
+
+    private PhotoService photoService(PhotoRepository repository) {
+        PhotoService service = new PhotoService(repository, userRepository, mock(ApplicationEventPublisher.class),
+                new PhotoCache(DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), 2), photoStorage,
+                photoFileOperations, cacheManager, transactionManager);
+        ReflectionTestUtils.setField(service, "imagesDir", dir.toString());
+        ReflectionTestUtils.setField(service, "avatarsDir", dir.toString());
+        ReflectionTestUtils.setField(service, "maxSize", DataSize.ofKilobytes(64));
+        return service;
+    }
+}
@@ -0,0 +1,83 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.PhotoSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhotoShardMigratorTest {
+    private static final String SHA256 = "abcd" + "0".repeat(60);
+
+    private final PhotoStorage photoStorage = new PhotoStorage(List.of("."));
+    @TempDir
+    Path dir;
+    private PhotoShardMigrator migrator;
+    private Image image;
+
+    @BeforeEach
+    public void setup() {
+        migrator = new PhotoShardMigrator(new PhotoCache(DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), 2),
+                photoStorage, dir.toString(), dir.toString(), Duration.ZERO);
+        image = new Image(dir.toString());
+        image.setId(1);
+        image.setSha256(SHA256);
+        image.setFileExtension("jpeg");
+    }
+
+    @Test
+    public void movesHashedFilesIntoShards() throws IOException, InterruptedException {
+        Files.write(dir.resolve(SHA256 + ".jpeg"), new byte[]{1});
+        Files.write(dir.resolve(SHA256 + "-thumb.jpeg"), new byte[]{2});
+        Files.write(dir.resolve("7.jpeg"), new byte[]{3});
+        assertEquals(dir.resolve(SHA256 + ".jpeg"), photoStorage.find(image, PhotoSize.ORIGINAL));
+        assertEquals(dir.resolve(SHA256 + "-thumb.jpeg"), photoStorage.find(image, PhotoSize.THUMB));
+        assertNull(photoStorage.find(image, PhotoSize.MEDIUM));
+
+        assertEquals(2, migrator.migrate(dir));
+        Path shard = dir.resolve("ab").resolve("cd");
+        assertEquals(shard.resolve(SHA256 + ".jpeg"), image.getFilePath());
+        assertEquals(image.getFilePath(), photoStorage.find(image, PhotoSize.ORIGINAL));
+        assertArrayEquals(new byte[]{2}, Files.readAllBytes(photoStorage.find(image, PhotoSize.THUMB)));
+        assertFalse(Files.exists(dir.resolve(SHA256 + ".jpeg")));
+        assertTrue(Files.exists(dir.resolve("7.jpeg")));
+        assertTrue(Files.exists(dir.resolve(PhotoShardMigrator.MARKER)));
+
+        Files.write(dir.resolve(SHA256 + "-medium.jpeg"), new byte[]{4});
+        assertEquals(0, migrator.migrate(dir));
+    }
+
+    @Test
+    public void keepsFileAlreadyInShard() throws IOException, InterruptedException {
+        Files.createDirectories(image.getFilePath().getParent());
+        Files.write(image.getFilePath(), new byte[]{1});
+        Files.write(dir.resolve(SHA256 + ".jpeg"), new byte[]{1});
+        assertEquals(1, migrator.migrate(dir));
+        assertEquals(1, photoStorage.locations(image).stream().filter(Files::exists).count());
+    }
+
+    @Test
+    public void replacesTruncatedFileInShard() throws IOException, InterruptedException {
+        Files.createDirectories(image.getFilePath().getParent());
+        Files.write(image.getFilePath(), new byte[]{1});
+        Files.write(dir.resolve(SHA256 + ".jpeg"), new byte[]{1, 2, 3});
+        assertEquals(1, migrator.migrate(dir));
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(image.getFilePath()));
+        try (Stream<Path> files = Files.list(image.getFilePath().getParent())) {
+            assertEquals(List.of(image.getFilePath()), files.collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.PhotoSize;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhotoVariantGeneratorTest {
+    private final PhotoVariantGenerator generator = new PhotoVariantGenerator(new PhotoStorage(List.of(".")), 1, 10);
+    @TempDir
+    Path dir;
+    private Image image;
+
+    @BeforeEach
+    public void setup() {
+        image = new Image(dir.toString());
+        image.setId(3);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        generator.shutdown();
+    }
+
+    @Test
+    public void generatesDownscaledVariants() throws IOException {
+        write("jpeg", 1600, 1200, BufferedImage.TYPE_INT_RGB);
+        assertEquals(2, generator.generate(image));
+
+        BufferedImage medium = ImageIO.read(image.getVariantPath(PhotoSize.MEDIUM).toFile());
+        assertEquals(800, medium.getWidth());
+        assertEquals(600, medium.getHeight());
+        BufferedImage thumb = ImageIO.read(image.getVariantPath(PhotoSize.THUMB).toFile());
+        assertEquals(200, thumb.getWidth());
+        assertEquals(150, thumb.getHeight());
+        assertEquals(3, files());
+    }
+
+    @Test
+    public void keepsTransparencyAsPng() throws IOException {
+        write("png", 300, 600, BufferedImage.TYPE_INT_ARGB);
+        assertEquals(1, generator.generate(image));
+
+        assertFalse(Files.exists(image.getVariantPath(PhotoSize.MEDIUM)));
+        BufferedImage thumb = ImageIO.read(image.getVariantPath(PhotoSize.THUMB).toFile());
+        assertTrue(image.getVariantPath(PhotoSize.THUMB).toString().endsWith(".png"));
+        assertTrue(thumb.getColorModel().hasAlpha());
+        assertEquals(100, thumb.getWidth());
+        assertEquals(200, thumb.getHeight());
+    }
+
+    @Test
+    public void skipsSmallAndUnreadablePhotos() throws IOException {
+        write("jpeg", 200, 100, BufferedImage.TYPE_INT_RGB);
+        assertEquals(0, generator.generate(image));
+
+        image.setFileExtension("webp");
+        Files.write(image.getFilePath(), new byte[]{'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P'});
+        assertEquals(0, generator.generate(image));
+
+        image.setId(4);
+        assertEquals(0, generator.generate(image));
+        assertEquals(2, files());
+    }
+
+    private void write(String format, int width, int height, int type) throws IOException {
+        BufferedImage source = new BufferedImage(width, height, type);
+        Graphics2D graphics = source.createGraphics();
+        graphics.setColor(Color.ORANGE);
+        graphics.fillRect(0, 0, width / 2, height);
+        graphics.dispose();
+        image.setFileExtension(format);
+        assertTrue(ImageIO.write(source, format, image.getFilePath().toFile()));
+    }
+
+    private long files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.component.PhotoCache;
+import ru.skypro.homework.component.PhotoStorage;
+import ru.skypro.homework.model.Image;
+import ru.skypro.homework.model.PhotoSize;
+import ru.skypro.homework.repository.PhotoRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class PhotoVolumeRebalancerTest {
+    private static final String SHA256 = "abcd" + "0".repeat(60);
+
+    private final PhotoService photoService = mock(PhotoService.class);
+    @TempDir
+    Path dir;
+    private PhotoStorage photoStorage;
+    private PhotoVolumeRebalancer rebalancer;
+    private Image image;
+    private Path target;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        photoStorage = new PhotoStorage(List.of(dir.resolve("a").toString(), dir.resolve("b").toString()));
+        rebalancer = new PhotoVolumeRebalancer(mock(PhotoRepository.class), photoService,
+                new PhotoCache(DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), 2), photoStorage,
+                "images", "avatars", Duration.ZERO);
+        target = Path.of(photoStorage.directory("images", SHA256));
+        Path source = target.startsWith(dir.resolve("a")) ? dir.resolve("b") : dir.resolve("a");
+        image = new Image(source.resolve("images").toString());
+        image.setId(4);
+        image.setSha256(SHA256);
+        image.setFileExtension("jpeg");
+        Files.createDirectories(image.getFilePath().getParent());
+        Files.write(image.getFilePath(), new byte[]{1});
+        Files.write(image.getVariantPath(PhotoSize.THUMB), new byte[]{2});
+    }
+
+    @Test
+    public void copiesFilesToOwningVolume() throws IOException {
+        doReturn(true).when(photoService).relocate(4, target.toString());
+        List<Path> old = new ArrayList<>();
+        assertTrue(rebalancer.move(image, old));
+        assertEquals(Set.of(image.getFilePath(), image.getVariantPath(PhotoSize.THUMB)), Set.copyOf(old));
+
+        image.setPhotoDir(target.toString());
+        assertArrayEquals(new byte[]{1}, Files.readAllBytes(image.getFilePath()));
+        assertArrayEquals(new byte[]{2}, Files.readAllBytes(image.getVariantPath(PhotoSize.THUMB)));
+        assertFalse(rebalancer.move(image, old));
+    }
+
+    @Test
+    public void dropsCopiesOfReleasedPhoto() throws IOException {
+        List<Path> old = new ArrayList<>();
+        assertFalse(rebalancer.move(image, old));
+        assertEquals(2, old.size());
+        assertTrue(old.stream().allMatch(path -> path.startsWith(target)));
+        assertTrue(Files.exists(image.getFilePath()));
+    }
+}
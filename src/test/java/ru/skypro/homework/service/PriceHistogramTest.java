@@ -0,0 +1,106 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import ru.skypro.homework.repository.AdsFilter;
+import ru.skypro.homework.repository.AdvertRepository;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+
+@ExtendWith(MockitoExtension.class)
+public class PriceHistogramTest {
+    private static final int[] BOUNDS = {100, 1000};
+
+    @Mock
+    private AdvertRepository advertRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    private AdvertSnapshotBarrier barrier;
+
+    @BeforeEach
+    public void setup() {
+        barrier = new AdvertSnapshotBarrier(advertRepository, transactionManager, Duration.ofSeconds(10));
+    }
+
+    @Test
+    public void changesMoveAdvertsBetweenBuckets() {
+        PriceHistogram histogram = new PriceHistogram(advertRepository, barrier, BOUNDS);
+        assertNull(histogram.counts());
+        doReturn(new long[]{1, 2, 3}).when(advertRepository).countPriceBuckets(AdsFilter.NONE, BOUNDS);
+        histogram.recount();
+
+        histogram.onAdvertChanged(new AdvertChangedEvent(1, null, state(100)));
+        histogram.onAdvertChanged(new AdvertChangedEvent(2, state(5), state(5000)));
+        histogram.onAdvertChanged(new AdvertChangedEvent(3, state(999), null));
+        assertArrayEquals(new long[]{0, 2, 4}, histogram.counts());
+    }
+
+    @Test
+    public void recountReplaysChangesCommittedMeanwhile() {
+        PriceHistogram histogram = new PriceHistogram(advertRepository, barrier, BOUNDS);
+        doAnswer(invocation -> {
+            histogram.onAdvertChanged(new AdvertChangedEvent(7, null, state(50)));
+            return new long[]{0, 0, 0};
+        }).when(advertRepository).countPriceBuckets(any(), any());
+        histogram.recount();
+        assertArrayEquals(new long[]{1, 0, 0}, histogram.counts());
+    }
+
+    @Test
+    public void recountCountsChangeCommittedBeforeItsSnapshotOnce() throws Exception {
+        PriceHistogram histogram = new PriceHistogram(advertRepository, barrier, BOUNDS);
+        AtomicBoolean committed = new AtomicBoolean();
+        doAnswer(invocation -> committed.get() ? new long[]{0, 3, 3} : new long[]{1, 2, 3})
+                .when(advertRepository).countPriceBuckets(AdsFilter.NONE, BOUNDS);
+        histogram.recount();
+
+        AdvertChangedEvent event = new AdvertChangedEvent(1, state(5), state(500));
+        ExecutorService recounter = Executors.newSingleThreadExecutor();
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            barrier.onAdvertChanged(event);
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            committed.set(true);
+            // the recount starts between the commit and the delivery of its event
+            Future<?> recount = recounter.submit(histogram::recount);
+            Thread.sleep(100);
+            histogram.onAdvertChanged(event);
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                    TransactionSynchronizationManager.getSynchronizations(), TransactionSynchronization.STATUS_COMMITTED);
+            recount.get(10, TimeUnit.SECONDS);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+            recounter.shutdownNow();
+        }
+        assertArrayEquals(new long[]{0, 3, 3}, histogram.counts());
+    }
+
+    @Test
+    public void boundsMustBeAscending() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new PriceHistogram(advertRepository, barrier, new int[]{5, 5}));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PriceHistogram(advertRepository, barrier, new int[0]));
+    }
+
+    private static AdvertChangedEvent.State state(int price) {
+        return new AdvertChangedEvent.State("title", "description", price);
+    }
+}
@@ -0,0 +1,67 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.projection.TitleCountProjection;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Suggestion latency percentiles at a million distinct titles and the default 16MB budget.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class TitleSuggesterBenchmarkTest {
+    private static final int TITLES = 1_000_000;
+    private static final int QUERIES = 100_000;
+    private static final String LETTERS = "абвгдеёжзийклмнопрстуфхцчшщыэюя";
+
+    @Test
+    public void suggestPercentiles() {
+        Random random = new Random(42);
+        List<TitleCountProjection> titles = new ArrayList<>(TITLES);
+        for (int i = 1; i <= TITLES; i++) {
+            titles.add(new TitleCountProjection(word(random, 4 + random.nextInt(8)) + " " + word(random, 6),
+                    1 + random.nextInt(5), i));
+        }
+        AdvertRepository advertRepository = mock(AdvertRepository.class);
+        doReturn(titles).when(advertRepository).countTitles();
+        TitleSuggester suggester = new TitleSuggester(advertRepository, new AdvertSnapshotBarrier(advertRepository,
+                mock(PlatformTransactionManager.class), Duration.ofSeconds(1)), DataSize.ofMegabytes(16));
+        long start = System.nanoTime();
+        suggester.build();
+        System.out.printf("built %d titles in %d ms%n", TITLES, (System.nanoTime() - start) / 1_000_000);
+
+        long[] latencies = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String prefix = word(random, 1 + random.nextInt(3));
+            long begin = System.nanoTime();
+            suggester.suggest(prefix, 10);
+            latencies[i] = System.nanoTime() - begin;
+        }
+        Arrays.sort(latencies);
+        long p50 = latencies[QUERIES / 2] / 1_000;
+        long p99 = latencies[QUERIES * 99 / 100] / 1_000;
+        System.out.printf("suggest: p50 %d us, p99 %d us%n", p50, p99);
+        assertTrue(p99 < 2_000);
+    }
+
+    private static String word(Random random, int length) {
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package ru.skypro.homework.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import org.springframework.util.unit.DataSize;
+import ru.skypro.homework.repository.AdvertRepository;
+import ru.skypro.homework.repository.projection.TitleCountProjection;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TitleSuggesterTest {
+    @Mock
+    private AdvertRepository advertRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    private AdvertSnapshotBarrier barrier;
+
+    @BeforeEach
+    public void setup() {
+        barrier = new AdvertSnapshotBarrier(advertRepository, transactionManager, Duration.ofSeconds(10));
+    }
+
+    @Test
+    public void suggestReturnsHeaviestTitlesOfPrefix() {
+        TitleSuggester suggester = built(DataSize.ofMegabytes(1),
+                new TitleCountProjection("Кот в мешке", 1, 10),
+                new TitleCountProjection("Котёнок", 3, 2),
+                new TitleCountProjection("котенок", 1, 7),
+                new TitleCountProjection("Кошка", 1, 5),
+                new TitleCountProjection("Велосипед", 9, 1));
+        assertEquals(List.of("Котёнок", "Кот в мешке", "Кошка"), suggester.suggest(" КО ", 10));
+        assertEquals(List.of("Котёнок", "Кот в мешке"), suggester.suggest("кот", 2));
+        assertEquals(List.of("Кот в мешке"), suggester.suggest("кот  в", 10));
+        assertEquals(List.of(), suggester.suggest("собака", 10));
+    }
+
+    @Test
+    public void refreshAppliesCommittedChanges() {
+        TitleSuggester suggester = built(DataSize.ofMegabytes(1),
+                new TitleCountProjection("Кошка", 1, 5),
+                new TitleCountProjection("Кот", 1, 3));
+        suggester.onAdvertChanged(new AdvertChangedEvent(5, state("Кошка"), state("Котик")));
+        suggester.onAdvertChanged(new AdvertChangedEvent(8, null, state("Кот")));
+        assertEquals(List.of("Кошка", "Кот"), suggester.suggest("ко", 10));
+
+        suggester.refresh();
+        assertEquals(List.of("Кот", "Котик"), suggester.suggest("ко", 10));
+
+        suggester.onAdvertChanged(new AdvertChangedEvent(3, state("Кот"), null));
+        suggester.onAdvertChanged(new AdvertChangedEvent(8, state("Кот"), null));
+        suggester.refresh();
+        assertEquals(List.of("Котик"), suggester.suggest("ко", 10));
+    }
+
+    @Test
+    public void buildKeepsHeaviestTitlesWithinBudget() {
+        TitleSuggester suggester = built(DataSize.ofBytes(300),
+                new TitleCountProjection("Кот", 1, 1),
+                new TitleCountProjection("Кошка", 2, 2),
+                new TitleCountProjection("Котёнок", 1, 3));
+        assertEquals(List.of("Кошка", "Котёнок"), suggester.suggest("ко", 10));
+    }
+
+    @Test
+    public void rebuildRestoresCountsOfDroppedTitles() {
+        TitleSuggester suggester = built(DataSize.ofBytes(300),
+                new TitleCountProjection("Кот", 1, 1),
+                new TitleCountProjection("Кошка", 2, 2),
+                new TitleCountProjection("Котёнок", 1, 3));
+        suggester.onAdvertChanged(new AdvertChangedEvent(9, null, state("Кот")));
+        suggester.refresh();
+        // the dropped count of "Кот" is lost, the new advert counts as its only one
+        assertEquals(List.of("Кошка", "Кот"), suggester.suggest("ко", 10));
+
+        doReturn(List.of(new TitleCountProjection("Кот", 2, 9),
+                new TitleCountProjection("Кошка", 2, 2),
+                new TitleCountProjection("Котёнок", 1, 3))).when(advertRepository).countTitles();
+        suggester.rebuild();
+        assertEquals(List.of("Кот", "Кошка"), suggester.suggest("ко", 10));
+    }
+
+    @Test
+    public void rebuildSkipsCompleteSnapshot() {
+        TitleSuggester suggester = built(DataSize.ofMegabytes(1), new TitleCountProjection("Кот", 1, 1));
+        suggester.rebuild();
+        verify(advertRepository, times(1)).countTitles();
+    }
+
+    @Test
+    public void buildCountsChangeCommittedBeforeItsSnapshotOnce() throws Exception {
+        AtomicBoolean committed = new AtomicBoolean();
+        doAnswer(invocation -> committed.get()
+                ? List.of(new TitleCountProjection("Кот", 2, 9), new TitleCountProjection("Кошка", 3, 5))
+                : List.of(new TitleCountProjection("Кот", 1, 3), new TitleCountProjection("Кошка", 3, 5)))
+                .when(advertRepository).countTitles();
+        TitleSuggester suggester = new TitleSuggester(advertRepository, barrier, DataSize.ofMegabytes(1));
+        suggester.build();
+
+        AdvertChangedEvent event = new AdvertChangedEvent(9, null, state("Кот"));
+        ExecutorService builder = Executors.newSingleThreadExecutor();
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            barrier.onAdvertChanged(event);
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            committed.set(true);
+            // the build starts between the commit and the delivery of its event
+            Future<?> build = builder.submit(suggester::build);
+            Thread.sleep(100);
+            suggester.onAdvertChanged(event);
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                    TransactionSynchronizationManager.getSynchronizations(), TransactionSynchronization.STATUS_COMMITTED);
+            build.get(10, TimeUnit.SECONDS);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+            builder.shutdownNow();
+        }
+        suggester.refresh();
+        // counted twice, "Кот" would outweigh "Кошка"
+        assertEquals(List.of("Кошка", "Кот"), suggester.suggest("ко", 10));
+    }
+
+    @Test
+    public void rebuildRetriesSkippedBuild() {
+        doReturn(List.of(new TitleCountProjection("Кот", 1, 1))).when(advertRepository).countTitles();
+        AdvertSnapshotBarrier impatient = new AdvertSnapshotBarrier(advertRepository, transactionManager, Duration.ZERO);
+        TitleSuggester suggester = new TitleSuggester(advertRepository, impatient, DataSize.ofMegabytes(1));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            impatient.onAdvertChanged(new AdvertChangedEvent(1, null, state("Кот")));
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            // a commit is being delivered, the build can not take its snapshot
+            suggester.build();
+            assertEquals(List.of(), suggester.suggest("ко", 10));
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                    TransactionSynchronizationManager.getSynchronizations(), TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        suggester.rebuild();
+        assertEquals(List.of("Кот"), suggester.suggest("ко", 10));
+    }
+
+    private TitleSuggester built(DataSize budget, TitleCountProjection... titles) {
+        doReturn(List.of(titles)).when(advertRepository).countTitles();
+        TitleSuggester suggester = new TitleSuggester(advertRepository, barrier, budget);
+        suggester.build();
+        return suggester;
+    }
+
+    private static AdvertChangedEvent.State state(String title) {
+        return new AdvertChangedEvent.State(title, null, 0);
+    }
+}
@@ -8,14 +8,14 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
-import org.springframework.mock.web.MockMultipartFile;
-import org.springframework.security.core.Authentication;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.provisioning.JdbcUserDetailsManager;
 import ru.skypro.homework.component.AuthenticationComponent;
+import ru.skypro.homework.configuration.CacheConfig;
 import ru.skypro.homework.dto.NewPasswordDto;
 import ru.skypro.homework.dto.RegisterReqDto;
 import ru.skypro.homework.dto.UserDto;
@@ -24,13 +24,16 @@ import ru.skypro.homework.mapper.UserMapper;
 import ru.skypro.homework.model.Avatar;
 import ru.skypro.homework.model.Role;
 import ru.skypro.homework.model.User;
+import ru.skypro.homework.repository.AdvertRepository;
 import ru.skypro.homework.repository.UserRepository;
+import ru.skypro.homework.security.AuthenticatedUser;
 import ru.skypro.homework.service.impl.AuthServiceImpl;
+import ru.skypro.homework.repository.projection.UserVersionProjection;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -46,26 +49,27 @@ public class UserServiceTest {
     @Mock
     private PasswordEncoder passwordEncoder;
     @Mock
-    private JdbcUserDetailsManager jdbcUserDetailsManager;
-    @Mock
     private AuthServiceImpl authService;
     @Mock
     private AuthenticationComponent authenticationComponent;
     private User user;
-    @Mock
-    private Authentication authentication;
+    private final AuthenticatedUser principal = new AuthenticatedUser(1, "user@gmail.com", Role.USER, null);
     @Mock
     private UserMapper userMapper;
     @Mock
     private PhotoService photoService;
-    private MockMultipartFile avatar;
+    @Mock
+    private AdvertRepository advertRepository;
+    @Mock
+    private CacheManager cacheManager;
+    @Mock
+    private Cache cache;
+    @Mock
+    private PhotoUpload avatar;
 
     @BeforeEach
     public void setup() throws IOException {
         Path path = Path.of("src", "test\\resources\\picture\\images.jpeg");
-        File file = new File(path.toUri());
-        byte[] bytes = file.getAbsolutePath().getBytes();
-        avatar = new MockMultipartFile("picture", bytes);
         user = new User();
         user.setId(1);
         user.setAvatar(new Avatar(path.toString()));
@@ -74,62 +78,100 @@ public class UserServiceTest {
 
     @Test
     public void create() {
-        doReturn(user).when(userRepository).findByUsername(any());
-        //doReturn(authentication).when(authenticationComponent).getAuth();
         RegisterReqDto reqDto = new RegisterReqDto();
+        reqDto.setUsername("user@gmail.com");
+        reqDto.setPassword("password");
+        doReturn("hash").when(passwordEncoder).encode("password");
         userService.create(reqDto, Role.USER);
-        verify(userRepository, Mockito.times(1)).save(any());
+        verify(userRepository, Mockito.times(1)).save(argThat(created -> created.getUsername().equals("user@gmail.com")
+                && created.getPassword().equals("hash") && created.getRole() == Role.USER && created.isEnabled()));
     }
 
     @Test
     public void update() {
+        user.setUsername("user@gmail.com");
         doReturn(user).when(userRepository).findByUsername(any());
+        doReturn(cache).when(cacheManager).getCache(CacheConfig.USER_DETAILS);
         //doReturn(authentication).when(authenticationComponent).getAuth();
         RegisterReqDto reqDto = new RegisterReqDto();
         userService.update(reqDto, Role.USER);
         verify(userRepository, Mockito.times(1)).save(any());
+        verify(cache).evict("user@gmail.com");
     }
 
     @Test
     public void updateAndReturnUserDto() {
         UserDto expectedUserDto = new UserDto();
         expectedUserDto.setId(1);
-        doReturn(user).when(userRepository).findByUsername(any());
-        doReturn(authentication).when(authenticationComponent).getAuth();
+        doReturn(Optional.of(user)).when(userRepository).findById(1);
+        doReturn(principal).when(authenticationComponent).getUser();
         doReturn(expectedUserDto).when(userMapper).userToUserDto(user);
         UserDto actualUserDto = userService.update(expectedUserDto);
         assertEquals(expectedUserDto, actualUserDto);
         verify(userRepository, Mockito.times(1)).save(any());
     }
 
+    @Test
+    public void updateEvictsAdvertCardsWhenPhoneChanges() {
+        UserDto userDto = new UserDto();
+        userDto.setPhone("+7 000 000-00-00");
+        doReturn(Optional.of(user)).when(userRepository).findById(1);
+        doReturn(principal).when(authenticationComponent).getUser();
+        doReturn(cache).when(cacheManager).getCache(CacheConfig.FULL_ADS);
+        doReturn(List.of(3, 5)).when(advertRepository).findIdsByAuthorId(user.getId());
+        userService.update(userDto);
+        verify(cache).evict(3);
+        verify(cache).evict(5);
+    }
+
+    @Test
+    public void updateKeepsAdvertCardsWhenContactsAreSame() {
+        doReturn(Optional.of(user)).when(userRepository).findById(1);
+        doReturn(principal).when(authenticationComponent).getUser();
+        userService.update(new UserDto());
+        verifyNoInteractions(cacheManager, advertRepository);
+    }
+
     @Test
     public void setPassword() {
+        user.setUsername("user@gmail.com");
         NewPasswordDto newPasswordDto = new NewPasswordDto();
+        newPasswordDto.setNewPassword("password");
+        doReturn(Optional.of(user)).when(userRepository).findById(1);
+        doReturn(principal).when(authenticationComponent).getUser();
+        doReturn("hash").when(passwordEncoder).encode("password");
+        doReturn(cache).when(cacheManager).getCache(CacheConfig.USER_DETAILS);
         userService.setPassword(newPasswordDto);
-        verify(jdbcUserDetailsManager, Mockito.times(1)).changePassword(any(), any());
+        assertEquals("hash", user.getPassword());
+        verify(userRepository, Mockito.times(1)).save(user);
+        verify(cache).evict("user@gmail.com");
     }
 
     @Test
-    public void updateAvatar() throws IOException {
-        doReturn(user).when(userRepository).findByUsername(any());
-        doReturn(authentication).when(authenticationComponent).getAuth();
-        byte[] bytes  = userService.updateAvatar(avatar);
+    public void updateAvatar() {
+        user.setUsername("user@gmail.com");
+        doReturn(Optional.of(user)).when(userRepository).findById(1);
+        doReturn(principal).when(authenticationComponent).getUser();
+        doReturn(user.getAvatar()).when(photoService).uploadAvatar(user, avatar);
+        doReturn(cache).when(cacheManager).getCache(CacheConfig.USER_DETAILS);
+        Avatar actualAvatar = userService.updateAvatar(avatar);
         verify(photoService, Mockito.times(1)).
                 uploadAvatar(user, avatar);
-        assertEquals(bytes, avatar.getBytes());
+        assertEquals(user.getAvatar(), actualAvatar);
+        verify(cache).evict("user@gmail.com");
     }
 
     @Test
     public void downloadAvatar() {
-        doReturn(user).when(userRepository).findByUsername(any());
-        doReturn(authentication).when(authenticationComponent).getAuth();
+        doReturn(Optional.of(user)).when(userRepository).findWithAvatarById(1);
+        doReturn(principal).when(authenticationComponent).getUser();
         Avatar avatar = userService.downloadAvatar();
         assertNotNull(avatar);
     }
 
     @Test
     public void downloadAvatarByUserId() {
-        when(userRepository.findById(any())).thenReturn(Optional.ofNullable(user));
+        when(userRepository.findWithAvatarById(anyInt())).thenReturn(Optional.ofNullable(user));
         Avatar avatar = userService.downloadAvatarByUserId(user.getId());
         assertNotNull(avatar);
         assertEquals(avatar, user.getAvatar());
@@ -138,20 +180,32 @@ public class UserServiceTest {
     @Test
     public void findInfo() {
         UserDto expectedUserDto = new UserDto();
-        doReturn(user).when(userRepository).findByUsername(any());
-        doReturn(authentication).when(authenticationComponent).getAuth();
+        doReturn(Optional.of(user)).when(userRepository).findById(1);
+        doReturn(principal).when(authenticationComponent).getUser();
         doReturn(expectedUserDto).when(userMapper).userToUserDto(any());
         UserDto actualUserDto = userService.findInfo();
         Assertions.assertEquals(expectedUserDto, actualUserDto);
     }
 
+    @Test
+    public void findETagChangesWithVersion() {
+        doReturn(principal).when(authenticationComponent).getUser();
+        doReturn(Optional.of(new UserVersionProjection(1, 0)), Optional.of(new UserVersionProjection(1, 1)),
+                Optional.of(new UserVersionProjection(2, 0)))
+                .when(userRepository).findVersionById(1);
+        String first = userService.findETag();
+        assertNotEquals(first, userService.findETag());
+        assertNotEquals(first, userService.findETag());
+    }
+
     @Test
     public void doesThrowUserUnauthorizedException() {
         UserDto userDto = new UserDto();
         userDto.setId(101);
         RegisterReqDto reqDto = new RegisterReqDto();
         doReturn(null).when(userRepository).findByUsername(any());
-        doReturn(authentication).when(authenticationComponent).getAuth();
+        doReturn(Optional.empty()).when(userRepository).findById(1);
+        doReturn(principal).when(authenticationComponent).getUser();
         assertThrows(UserUnauthorizedException.class,
                 () -> userService.update(userDto));
         assertThrows(UserUnauthorizedException.class,